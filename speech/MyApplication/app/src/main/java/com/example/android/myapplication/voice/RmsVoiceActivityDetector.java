@@ -0,0 +1,125 @@
+package com.example.android.myapplication.voice;
+
+/**
+ * 短いフレームごとのRMS(二乗平均平方根)で声を検出するVoiceActivityDetector
+ * 背景の雑音レベルを追跡し、それより十分大きくかつ最小値を超えるフレームを有声とみなす
+ * クリック音などに反応しないよう、有声フレームが一定数続いてから検出を始め、
+ * 声が途切れてもしばらくは検出を続ける(ヒステリシス)
+ */
+public class RmsVoiceActivityDetector implements VoiceActivityDetector {
+    
+    //一度に判定するフレームの長さ
+    private static final int FRAME_MILLIS = 10;
+    
+    //有声とみなす最小のRMS
+    public static final int DEFAULT_MIN_RMS = 800;
+    //雑音レベルの何倍(RMS)で有声とみなすか
+    public static final float DEFAULT_NOISE_RATIO = 3.0f;
+    //検出を始めるまでに声が続く必要のある時間
+    public static final int DEFAULT_START_MILLIS = 30;
+    //声が途切れてから検出をやめるまでの時間
+    public static final int DEFAULT_HANGOVER_MILLIS = 300;
+    
+    //エネルギーが下がった時に雑音レベルが追従する速さ
+    private static final double FLOOR_FALL_RATE = 0.2;
+    //エネルギーが上がった時に雑音レベルが追従する速さ
+    private static final double FLOOR_RISE_RATE = 0.01;
+    //有声の間に雑音レベルが追従する速さ(一定の雑音はいずれ雑音レベルに吸収される)
+    private static final double FLOOR_VOICED_RISE_RATE = 0.0005;
+    
+    private final double mMinEnergy;
+    private final double mNoiseRatio;
+    private final int mStartMillis;
+    private final int mHangoverMillis;
+    
+    private int mFrameSamples;
+    private int mStartFrames;
+    private int mHangoverFrames;
+    
+    //雑音の二乗平均
+    private double mNoiseFloor;
+    
+    //現在のフレームのサンプルの二乗和とサンプル数
+    private double mFrameEnergy;
+    private int mFrameCount;
+    
+    //連続した有声フレームの数
+    private int mVoicedFrames;
+    //声が聞こえなくても検出を続ける残りフレーム数
+    private int mHangover;
+    
+    public RmsVoiceActivityDetector() {
+        this(DEFAULT_MIN_RMS, DEFAULT_NOISE_RATIO, DEFAULT_START_MILLIS, DEFAULT_HANGOVER_MILLIS);
+    }
+    
+    public RmsVoiceActivityDetector(int minRms, float noiseRatio, int startMillis,
+                                    int hangoverMillis) {
+        mMinEnergy = (double) minRms * minRms;
+        mNoiseRatio = (double) noiseRatio * noiseRatio;
+        mStartMillis = startMillis;
+        mHangoverMillis = hangoverMillis;
+        reset(16000, 1);
+    }
+    
+    @Override
+    public void reset(int sampleRate, int channelCount) {
+        mFrameSamples = Math.max(1, sampleRate * channelCount * FRAME_MILLIS / 1000);
+        mStartFrames = Math.max(1, mStartMillis / FRAME_MILLIS);
+        mHangoverFrames = mHangoverMillis / FRAME_MILLIS;
+        mNoiseFloor = mMinEnergy / mNoiseRatio;
+        mFrameEnergy = 0;
+        mFrameCount = 0;
+        mVoicedFrames = 0;
+        mHangover = 0;
+    }
+    
+    @Override
+    public boolean isHearingVoice(byte[] buffer, int size) {
+        boolean heard = false;
+        // バッファはLINEAR16をリトルエンディアンで保持している
+        for (int i = 0; i < size - 1; i += 2) {
+            final int s = (buffer[i] & 0xff) | (buffer[i + 1] << 8);
+            mFrameEnergy += s * s;
+            //フレームが埋まったら判定する
+            if (++mFrameCount == mFrameSamples) {
+                heard |= endFrame(mFrameEnergy / mFrameCount);
+                mFrameEnergy = 0;
+                mFrameCount = 0;
+            }
+        }
+        return heard || isActive();
+    }
+    
+    /**
+     * 現在声を検出しているか
+     */
+    public boolean isActive() {
+        return mHangover > 0;
+    }
+    
+    private boolean endFrame(double energy) {
+        final boolean voiced = energy > mMinEnergy && energy > mNoiseFloor * mNoiseRatio;
+        if (voiced) {
+            //有声フレームが続いたら検出を始める
+            if (++mVoicedFrames >= mStartFrames) {
+                mHangover = mHangoverFrames + 1;
+            }
+        } else {
+            mVoicedFrames = 0;
+            if (mHangover > 0) {
+                mHangover--;
+            }
+        }
+        //雑音レベルを更新する
+        final double rate;
+        if (energy < mNoiseFloor) {
+            rate = FLOOR_FALL_RATE;
+        } else if (voiced) {
+            rate = FLOOR_VOICED_RISE_RATE;
+        } else {
+            rate = FLOOR_RISE_RATE;
+        }
+        mNoiseFloor += (energy - mNoiseFloor) * rate;
+        return mHangover > 0;
+    }
+}
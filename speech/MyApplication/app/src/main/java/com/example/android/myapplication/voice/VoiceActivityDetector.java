@@ -0,0 +1,26 @@
+package com.example.android.myapplication.voice;
+
+/**
+ * 録音された音声に声が含まれているかを判定する
+ * VoiceRecorderの処理スレッドからのみ呼ばれるので、スレッドセーフである必要はない
+ */
+public interface VoiceActivityDetector {
+    
+    /**
+     * 録音のセッションが始まる前に呼ばれる
+     *
+     * @param sampleRate サンプリング周波数
+     * @param channelCount チャンネル数
+     */
+    void reset(int sampleRate, int channelCount);
+    
+    /**
+     * 次の音声データを判定する
+     * このメソッドの中でメモリを割り当ててはならない
+     *
+     * @param buffer PCM16(リトルエンディアン)の音声データ
+     * @param size bufferの実サイズ
+     * @return 声が含まれていたらtrue
+     */
+    boolean isHearingVoice(byte[] buffer, int size);
+}
@@ -32,8 +32,6 @@ public class VoiceRecorder {
     //PCM16
     static final int ENCODING = AudioFormat.ENCODING_PCM_16BIT;
     
-    //喋っているとみなす最小の音量
-    private static final int AMPLITUDE_THRESHOLD = 3000;
     //喋るのが終わったとみなす時間
     private static final int SPEECH_TIMEOUT_MILLIS = 2000;
     //喋る時間の最大の長さ
@@ -57,6 +55,9 @@ public class VoiceRecorder {
     //通知先
     private final Callback mCallback;
     
+    //声が入力されているかの判定
+    private final VoiceActivityDetector mDetector;
+    
     //録音を行う
     private AudioRecord mAudioRecord;
     
@@ -76,7 +77,12 @@ public class VoiceRecorder {
     private long mVoiceStartedMillis;
     
     public VoiceRecorder(@NonNull Callback callback) {
+        this(callback, new RmsVoiceActivityDetector());
+    }
+    
+    public VoiceRecorder(@NonNull Callback callback, @NonNull VoiceActivityDetector detector) {
         mCallback = callback;
+        mDetector = detector;
     }
     
     /**
@@ -91,6 +97,7 @@ public class VoiceRecorder {
         if (mAudioRecord == null) {
             throw new RuntimeException("Cannot instantiate VoiceRecorder");
         }
+        mDetector.reset(mAudioRecord.getSampleRate(), mAudioRecord.getChannelCount());
         //録音を始める
         mAudioRecord.startRecording();
         //録音されたデータを処理するスレッドの生成
@@ -176,7 +183,8 @@ public class VoiceRecorder {
                     byte[] byteArray =  short2byte( mBuffer );
                     final long now = System.currentTimeMillis();
                     //音声が入力されていたら
-                    if (isHearingVoice(byteArray, size)) {
+                    //sizeはshortの数なのでバイト数に直す
+                    if (mDetector.isHearingVoice(byteArray, size * 2)) {
                         //音声入力が中断されていたら(=今が音声入力の始まりだったら)
                         if (mLastVoiceHeardMillis == Long.MAX_VALUE) {
                             //音声入力の始まりを今にする
@@ -209,25 +217,6 @@ public class VoiceRecorder {
             //音声入力の終了を通知
             mCallback.onVoiceEnd();
         }
-        
-        private boolean isHearingVoice(byte[] buffer, int size) {
-            // バッファはLINEAR16をリトルエンディアンで保持しているので、
-            // 連続した２つのバイトを置換して連結する
-            for (int i = 0; i < size - 1; i += 2) {
-                int s = buffer[i + 1];
-                //負の場合は正にする
-                if (s < 0) s *= -1;
-                //後続バイトを上8bitにする
-                s <<= 8;
-                //下8bitを先頭バイトにする
-                s += Math.abs(buffer[i ]);
-                //喋っているとみなすしきい値を超えていたら
-                if (s > AMPLITUDE_THRESHOLD) {
-                    return true;
-                }
-            }
-            return false;
-        }
     }
     public static byte[] short2byte(short[] sData) {
         ByteBuffer buffer = ByteBuffer.allocate(sData.length * 2);
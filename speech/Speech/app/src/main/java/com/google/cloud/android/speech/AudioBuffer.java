@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * A preallocated chunk of recorded audio.
+ *
+ * <p>Buffers are handed out by an {@link AudioBufferPool} and have a single owner at a time.
+ * The owner calls {@link #recycle()} when it no longer needs the data; neither the buffer nor
+ * the array returned by {@link #getData()} may be used after that.</p>
+ */
+public class AudioBuffer {
+
+    /** The audio data in LINEAR16 (little endian). */
+    final byte[] data;
+
+    /** The number of bytes in {@link #data} that are actually relevant. */
+    int size;
+
+    /** When the first sample in {@link #data} was captured; see {@link #getCaptureTimeNanos()}. */
+    long captureNanos;
+
+    /** Whether this buffer is free in its pool; this catches recycling it twice. */
+    final AtomicBoolean inPool = new AtomicBoolean();
+
+    private final AudioBufferPool mPool;
+
+    AudioBuffer(AudioBufferPool pool, int capacity) {
+        mPool = pool;
+        data = new byte[capacity];
+    }
+
+    /**
+     * @return The audio data in LINEAR16 (little endian). Only the first {@link #getSize()}
+     * bytes are relevant.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return The number of bytes in {@link #getData()} that are actually relevant.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return When the first sample of this buffer was captured, on the same clock as
+     * {@link System#nanoTime()}.
+     */
+    public long getCaptureTimeNanos() {
+        return captureNanos;
+    }
+
+    /**
+     * Returns this buffer to its pool.
+     */
+    public void recycle() {
+        size = 0;
+        if (mPool != null) {
+            mPool.release(this);
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * A fixed set of preallocated {@link AudioBuffer}s that are recycled instead of garbage
+ * collected.
+ *
+ * <p>Buffers can be acquired and recycled from any thread without locking. The free buffers are
+ * kept in a preallocated ring where each slot has a sequence number telling whether it is ready
+ * to be written or read, so acquiring or recycling a buffer is a single compare-and-set in the
+ * common case and never parks the calling thread.</p>
+ */
+class AudioBufferPool {
+
+    private final AtomicReferenceArray<AudioBuffer> mSlots;
+
+    /**
+     * The sequence number of each slot. It is the position of the next recycle into the slot
+     * when the slot is empty, and that position plus one when it holds a free buffer.
+     */
+    private final AtomicLongArray mSequences;
+
+    private final int mMask;
+
+    /** The position of the next buffer to acquire. */
+    private final AtomicLong mHead = new AtomicLong();
+
+    /** The position of the next buffer to recycle. */
+    private final AtomicLong mTail = new AtomicLong();
+
+    private final int mCapacity;
+
+    /**
+     * @param count    The number of buffers.
+     * @param capacity The size of each buffer in bytes.
+     */
+    AudioBufferPool(int count, int capacity) {
+        int size = 1;
+        while (size < count) {
+            size <<= 1;
+        }
+        mSlots = new AtomicReferenceArray<>(size);
+        mSequences = new AtomicLongArray(size);
+        mMask = size - 1;
+        for (int i = 0; i < size; i++) {
+            mSequences.set(i, i);
+        }
+        mCapacity = capacity;
+        for (int i = 0; i < count; i++) {
+            release(new AudioBuffer(this, capacity));
+        }
+    }
+
+    /**
+     * @return The size of each buffer in bytes.
+     */
+    int getBufferCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Takes a free buffer out of this pool. This never blocks.
+     *
+     * @return A free buffer, or {@code null} if all the buffers are in use.
+     */
+    AudioBuffer acquire() {
+        long head = mHead.get();
+        while (true) {
+            final int index = (int) (head & mMask);
+            final long available = mSequences.get(index) - (head + 1);
+            if (available == 0) {
+                if (mHead.compareAndSet(head, head + 1)) {
+                    final AudioBuffer buffer = mSlots.get(index);
+                    mSlots.lazySet(index, null);
+                    // The slot can be recycled into once the ring has wrapped around.
+                    mSequences.lazySet(index, head + mMask + 1);
+                    buffer.inPool.set(false);
+                    return buffer;
+                }
+                head = mHead.get();
+            } else if (available < 0) {
+                return null;
+            } else {
+                // Another thread has acquired this one.
+                head = mHead.get();
+            }
+        }
+    }
+
+    /**
+     * @return The number of free buffers.
+     */
+    int available() {
+        return (int) Math.max(0, mTail.get() - mHead.get());
+    }
+
+    void release(AudioBuffer buffer) {
+        if (!buffer.inPool.compareAndSet(false, true)) {
+            throw new IllegalStateException("The buffer is recycled more than once.");
+        }
+        long tail = mTail.get();
+        while (true) {
+            final int index = (int) (tail & mMask);
+            final long available = mSequences.get(index) - tail;
+            if (available == 0) {
+                if (mTail.compareAndSet(tail, tail + 1)) {
+                    mSlots.lazySet(index, buffer);
+                    mSequences.lazySet(index, tail + 1);
+                    return;
+                }
+                tail = mTail.get();
+            } else if (available < 0) {
+                // Only possible if buffers from another pool are recycled into this one.
+                buffer.inPool.set(false);
+                throw new IllegalStateException("The pool is full.");
+            } else {
+                tail = mTail.get();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+
+
+/**
+ * Reads mono LINEAR16 audio from a WAV file or raw LINEAR16 data, a buffer at a time.
+ *
+ * <p>The format is taken from the header of a WAV file; data without a RIFF header is taken as
+ * raw mono LINEAR16. Only 16-bit PCM is supported. Multiple channels are mixed down to mono,
+ * since that is what the API takes. The memory used does not depend on the size of the file.</p>
+ */
+class AudioFileReader implements Closeable {
+
+    private static final int HEADER_SIZE = 12;
+
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_EXTENSIBLE = 0xfffe;
+
+    private final PushbackInputStream mInput;
+
+    private int mSampleRate;
+
+    private int mChannels = 1;
+
+    /** The number of bytes left in the data chunk, or -1 if it extends to the end. */
+    private long mRemaining = -1;
+
+    /** Holds the interleaved samples to mix down. */
+    private byte[] mScratch;
+
+    /**
+     * Reads the header, if any.
+     *
+     * @param input             The audio file. This is closed by {@link #close()}.
+     * @param defaultSampleRate The sample rate of raw data.
+     * @throws IOException If the file cannot be read, or it is a WAV file in an unsupported
+     *                     format.
+     */
+    AudioFileReader(InputStream input, int defaultSampleRate) throws IOException {
+        mInput = new PushbackInputStream(input, HEADER_SIZE);
+        mSampleRate = defaultSampleRate;
+        final byte[] header = new byte[HEADER_SIZE];
+        final int read = readFully(header, 0, HEADER_SIZE);
+        if (read == HEADER_SIZE && isTag(header, 0, "RIFF") && isTag(header, 8, "WAVE")) {
+            readWavHeader();
+        } else if (read > 0) {
+            mInput.unread(header, 0, read);
+        }
+    }
+
+    /**
+     * @return The sample rate of the audio.
+     */
+    int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * @return The number of channels in the file. The audio read is always mono.
+     */
+    int getChannelCount() {
+        return mChannels;
+    }
+
+    /**
+     * Reads the next chunk of audio.
+     *
+     * @param buffer The buffer to read mono LINEAR16 audio into.
+     * @return The number of bytes read, or -1 at the end of the audio. This is always even.
+     */
+    int read(byte[] buffer) throws IOException {
+        final int frames = buffer.length / 2;
+        final int frameSize = mChannels * 2;
+        long wanted = (long) frames * frameSize;
+        if (mRemaining >= 0) {
+            wanted = Math.min(wanted, mRemaining - mRemaining % frameSize);
+        }
+        if (wanted == 0) {
+            return -1;
+        }
+        final byte[] source;
+        if (mChannels == 1) {
+            source = buffer;
+        } else {
+            if (mScratch == null || mScratch.length < frames * frameSize) {
+                mScratch = new byte[frames * frameSize];
+            }
+            source = mScratch;
+        }
+        final int read = readFully(source, 0, (int) wanted);
+        if (mRemaining >= 0) {
+            mRemaining -= read;
+        }
+        final int framesRead = read / frameSize;
+        if (framesRead == 0) {
+            return -1;
+        }
+        if (mChannels > 1) {
+            mixDown(source, framesRead, buffer);
+        }
+        return framesRead * 2;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInput.close();
+    }
+
+    private void readWavHeader() throws IOException {
+        final byte[] chunk = new byte[8];
+        boolean hasFormat = false;
+        while (true) {
+            if (readFully(chunk, 0, 8) < 8) {
+                throw new EOFException("No data in the WAV file");
+            }
+            final long size = readInt(chunk, 4) & 0xffffffffL;
+            if (isTag(chunk, 0, "fmt ")) {
+                if (size < 16) {
+                    throw new IOException("Malformed WAV format chunk");
+                }
+                final byte[] format = new byte[(int) Math.min(size, 40)];
+                if (readFully(format, 0, format.length) < format.length) {
+                    throw new EOFException("Truncated WAV format chunk");
+                }
+                skip(size - format.length + (size & 1));
+                readFormat(format);
+                hasFormat = true;
+            } else if (isTag(chunk, 0, "data")) {
+                if (!hasFormat) {
+                    throw new IOException("No format chunk before the WAV data");
+                }
+                // Files written while streaming often have 0 or -1 as the size.
+                mRemaining = size == 0 || size == 0xffffffffL ? -1 : size;
+                return;
+            } else {
+                skip(size + (size & 1));
+            }
+        }
+    }
+
+    private void readFormat(byte[] format) throws IOException {
+        int tag = readShort(format, 0);
+        if (tag == FORMAT_EXTENSIBLE && format.length >= 26) {
+            // The sub-format GUID starts with the actual format tag.
+            tag = readShort(format, 24);
+        }
+        final int channels = readShort(format, 2);
+        final int sampleRate = readInt(format, 4);
+        final int bits = readShort(format, 14);
+        if (tag != FORMAT_PCM || bits != 16 || channels < 1 || sampleRate <= 0) {
+            throw new IOException("Unsupported WAV format: tag " + tag + ", " + bits
+                    + " bits, " + channels + " channels");
+        }
+        mChannels = channels;
+        mSampleRate = sampleRate;
+    }
+
+    private void mixDown(byte[] source, int frames, byte[] output) {
+        int in = 0;
+        for (int i = 0; i < frames; i++) {
+            int sum = 0;
+            for (int c = 0; c < mChannels; c++) {
+                sum += (short) ((source[in] & 0xff) | (source[in + 1] << 8));
+                in += 2;
+            }
+            final int sample = sum / mChannels;
+            output[i * 2] = (byte) sample;
+            output[i * 2 + 1] = (byte) (sample >> 8);
+        }
+    }
+
+    private int readFully(byte[] buffer, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            final int read = mInput.read(buffer, offset + total, length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private void skip(long count) throws IOException {
+        while (count > 0) {
+            final long skipped = mInput.skip(count);
+            if (skipped <= 0) {
+                if (mInput.read() < 0) {
+                    throw new EOFException("Truncated WAV file");
+                }
+                count--;
+            } else {
+                count -= skipped;
+            }
+        }
+    }
+
+    private static boolean isTag(byte[] bytes, int offset, String tag) {
+        for (int i = 0; i < 4; i++) {
+            if (bytes[offset + i] != tag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return readShort(bytes, offset) | readShort(bytes, offset + 2) << 16;
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Packs recorded audio into frames of a fixed duration.
+ *
+ * <p>The size of the buffers read from {@link android.media.AudioRecord} depends on the device
+ * and is often only a few milliseconds long. Sending each of them as its own request wastes
+ * bandwidth and CPU on per-message overhead. This class collects the audio into frames of a fixed
+ * duration instead, which also bounds the latency it adds to that duration. Each frame carries
+ * the capture time of its first sample.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ */
+class AudioFrameAggregator {
+
+    /** The number of frames that can be held by the {@link VoiceRecorder.Callback} at once. */
+    private static final int FRAME_COUNT = 8;
+
+    private final AudioBufferPool mPool;
+
+    /** The number of bytes per second of the audio. */
+    private final int mByteRate;
+
+    /** The frame currently being filled. */
+    private AudioBuffer mFrame;
+
+    /** The duration of the audio dropped because no free frame was available. */
+    private final AtomicLong mDroppedNanos;
+
+    /**
+     * @param frameBytes   The size of a frame in bytes.
+     * @param sampleRate   The sample rate of the mono audio; used for the capture time of frames.
+     * @param droppedNanos Counts the audio dropped because no free frame was available.
+     */
+    AudioFrameAggregator(int frameBytes, int sampleRate, AtomicLong droppedNanos) {
+        mPool = new AudioBufferPool(FRAME_COUNT, frameBytes);
+        mByteRate = sampleRate * 2;
+        mDroppedNanos = droppedNanos;
+    }
+
+    /**
+     * Appends audio to the current frame. Every frame that fills up is handed over to the
+     * {@code callback}.
+     *
+     * @param buffer   The audio. This method takes the ownership of it.
+     * @param callback The callback to hand completed frames over to.
+     */
+    void write(AudioBuffer buffer, VoiceRecorder.Callback callback) {
+        final int capacity = mPool.getBufferCapacity();
+        int offset = 0;
+        while (offset < buffer.size) {
+            if (mFrame == null) {
+                mFrame = mPool.acquire();
+                if (mFrame == null) {
+                    // The callback is holding on to all the frames.
+                    mDroppedNanos.addAndGet((buffer.size - offset)
+                            * TimeUnit.SECONDS.toNanos(1) / mByteRate);
+                    break;
+                }
+                mFrame.captureNanos = buffer.captureNanos
+                        + offset * TimeUnit.SECONDS.toNanos(1) / mByteRate;
+            }
+            final int length = Math.min(buffer.size - offset, capacity - mFrame.size);
+            System.arraycopy(buffer.data, offset, mFrame.data, mFrame.size, length);
+            mFrame.size += length;
+            offset += length;
+            if (mFrame.size == capacity) {
+                final AudioBuffer frame = mFrame;
+                mFrame = null;
+                callback.onVoice(frame);
+            }
+        }
+        buffer.recycle();
+    }
+
+    /**
+     * Hands the current frame over to the {@code callback} even if it is not full yet.
+     *
+     * @param callback The callback to hand the frame over to.
+     */
+    void flush(VoiceRecorder.Callback callback) {
+        final AudioBuffer frame = mFrame;
+        mFrame = null;
+        if (frame == null) {
+            return;
+        }
+        if (frame.size > 0) {
+            callback.onVoice(frame);
+        } else {
+            frame.recycle();
+        }
+    }
+
+}
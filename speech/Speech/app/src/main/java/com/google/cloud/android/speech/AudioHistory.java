@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+/**
+ * A fixed-size circular history of the most recently recorded audio.
+ *
+ * <p>All the memory is allocated up front; {@link #write} and {@link #read} never allocate.
+ * This class is not thread-safe.</p>
+ */
+class AudioHistory {
+
+    private final byte[] mBuffer;
+
+    /** Where the next byte is written. */
+    private int mPosition;
+
+    /** The number of valid bytes in {@link #mBuffer}. */
+    private int mSize;
+
+    /**
+     * @param capacity  The maximum number of bytes to remember.
+     * @param frameSize The size of one sample of all the channels in bytes. The capacity is
+     *                  rounded down to a multiple of this so that a sample is never split.
+     */
+    AudioHistory(int capacity, int frameSize) {
+        mBuffer = new byte[capacity - capacity % frameSize];
+    }
+
+    /**
+     * @return The maximum number of bytes this history can remember.
+     */
+    int getCapacity() {
+        return mBuffer.length;
+    }
+
+    /**
+     * @return The number of bytes currently remembered.
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Appends audio to this history, discarding the oldest audio if necessary.
+     *
+     * @param data The audio data.
+     * @param size The size of the actual data in {@code data}.
+     */
+    void write(byte[] data, int size) {
+        final int capacity = mBuffer.length;
+        if (capacity == 0) {
+            return;
+        }
+        int offset = 0;
+        if (size > capacity) {
+            // Only the tail fits.
+            offset = size - capacity;
+            size = capacity;
+        }
+        final int first = Math.min(size, capacity - mPosition);
+        System.arraycopy(data, offset, mBuffer, mPosition, first);
+        System.arraycopy(data, offset + first, mBuffer, 0, size - first);
+        mPosition = (mPosition + size) % capacity;
+        mSize = Math.min(mSize + size, capacity);
+    }
+
+    /**
+     * Moves the oldest remembered audio to {@code destination}.
+     *
+     * @param destination The array to copy to. Call this repeatedly until {@link #size()} is
+     *                    zero if it is shorter than the remembered audio.
+     * @return The number of bytes copied.
+     */
+    int read(byte[] destination) {
+        final int size = Math.min(mSize, destination.length);
+        final int start = (mPosition - mSize + mBuffer.length) % Math.max(1, mBuffer.length);
+        final int first = Math.min(size, mBuffer.length - start);
+        System.arraycopy(mBuffer, start, destination, 0, first);
+        System.arraycopy(mBuffer, 0, destination, first, size - first);
+        mSize -= size;
+        return size;
+    }
+
+    /**
+     * Copies remembered audio to {@code destination} without forgetting it.
+     *
+     * @param offset      Where to start copying, counted in bytes from the oldest remembered
+     *                    audio.
+     * @param destination The array to copy to.
+     * @return The number of bytes copied; 0 if {@code offset} is at the end.
+     */
+    int copy(int offset, byte[] destination) {
+        final int size = Math.min(mSize - offset, destination.length);
+        if (size <= 0) {
+            return 0;
+        }
+        final int start = (mPosition - mSize + offset + mBuffer.length) % mBuffer.length;
+        final int first = Math.min(size, mBuffer.length - start);
+        System.arraycopy(mBuffer, start, destination, 0, first);
+        System.arraycopy(mBuffer, 0, destination, first, size - first);
+        return size;
+    }
+
+    /**
+     * Forgets all the remembered audio.
+     */
+    void clear() {
+        mPosition = 0;
+        mSize = 0;
+    }
+
+}
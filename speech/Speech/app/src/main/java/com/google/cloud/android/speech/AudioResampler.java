@@ -0,0 +1,249 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Converts interleaved LINEAR16 audio to mono at a different sample rate.
+ *
+ * <p>The channels are averaged into one, and the result is resampled by a rational factor with a
+ * polyphase windowed-sinc low-pass filter. The filter and the state are allocated when this is
+ * constructed; {@link #process} never allocates. This class is not thread-safe.</p>
+ */
+class AudioResampler {
+
+    /** The stop-band attenuation of the filter in dB. */
+    private static final double ATTENUATION = 80;
+
+    /**
+     * The width of the transition band relative to the lower Nyquist frequency. The pass band
+     * ends at 0.84 and the stop band starts at the Nyquist frequency itself.
+     */
+    private static final double TRANSITION = 0.16;
+
+    /** The cutoff frequency relative to the lower Nyquist frequency. */
+    private static final double CUTOFF = 1 - TRANSITION / 2;
+
+    /** The Kaiser window parameter for {@link #ATTENUATION}. */
+    private static final double KAISER_BETA = 0.1102 * (ATTENUATION - 8.7);
+
+    private final int mChannels;
+    private final int mInputRate;
+
+    /** Upsampling factor. */
+    private final int mUp;
+    /** Downsampling factor. */
+    private final int mDown;
+
+    /** The number of filter taps for each phase. */
+    private final int mTaps;
+
+    /** The filter coefficients for each phase, or {@code null} when the rates are the same. */
+    private final float[][] mPhases;
+
+    /** The most recent input samples; duplicated so that a window can be read contiguously. */
+    private final float[] mHistory;
+    private int mHistoryPosition;
+
+    /** The position of the next output sample after the latest input sample, in 1/L units. */
+    private int mTime;
+
+    /**
+     * @param channels   The number of interleaved channels of the input.
+     * @param inputRate  The sample rate of the input.
+     * @param outputRate The sample rate of the output.
+     */
+    AudioResampler(int channels, int inputRate, int outputRate) {
+        mChannels = channels;
+        mInputRate = inputRate;
+        final int gcd = gcd(inputRate, outputRate);
+        mUp = outputRate / gcd;
+        mDown = inputRate / gcd;
+        if (mUp == mDown) {
+            mTaps = 1;
+            mPhases = null;
+        } else {
+            mTaps = tapsPerPhase(mUp, mDown);
+            mPhases = createFilter(mUp, mDown, mTaps);
+        }
+        mHistory = new float[mTaps * 2];
+    }
+
+    /**
+     * @return {@code true} if this converter changes the audio at all.
+     */
+    static boolean isNeeded(int channels, int inputRate, int outputRate) {
+        return channels != 1 || inputRate != outputRate;
+    }
+
+    /**
+     * @param inputBytes The size of the input in bytes.
+     * @return The duration of the input in nanoseconds.
+     */
+    long getInputDurationNanos(int inputBytes) {
+        return inputBytes / (2 * mChannels) * TimeUnit.SECONDS.toNanos(1) / mInputRate;
+    }
+
+    /**
+     * Calculates the maximum size of the output for an input of the specified size.
+     *
+     * @param inputBytes The size of the input in bytes.
+     * @return The maximum size of the output in bytes.
+     */
+    int getMaxOutputSize(int inputBytes) {
+        final long frames = inputBytes / (2 * mChannels);
+        return (int) ((frames * mUp + mDown - 1) / mDown + 1) * 2;
+    }
+
+    /**
+     * Converts the next chunk of audio.
+     *
+     * @param input      The input audio in LINEAR16 (little endian).
+     * @param inputSize  The size of the actual data in {@code input}.
+     * @param output     The array to write the output to. It has to be at least
+     *                   {@link #getMaxOutputSize(int)} long.
+     * @return The size of the output in bytes.
+     */
+    int process(byte[] input, int inputSize, byte[] output) {
+        final int frameBytes = 2 * mChannels;
+        int out = 0;
+        for (int i = 0; i + frameBytes <= inputSize; i += frameBytes) {
+            // Downmix
+            int sum = 0;
+            for (int c = 0; c < frameBytes; c += 2) {
+                sum += (input[i + c] & 0xff) | (input[i + c + 1] << 8);
+            }
+            final float sample = (float) sum / mChannels;
+            if (mPhases == null) {
+                out = write(output, out, sample);
+                continue;
+            }
+            // Resample
+            mHistoryPosition = (mHistoryPosition + 1) % mTaps;
+            mHistory[mHistoryPosition] = sample;
+            mHistory[mHistoryPosition + mTaps] = sample;
+            while (mTime < mUp) {
+                final float[] phase = mPhases[mTime];
+                // mHistory[latest] is the latest sample.
+                final int latest = mHistoryPosition + mTaps;
+                float acc = 0;
+                for (int k = 0; k < mTaps; k++) {
+                    acc += phase[k] * mHistory[latest - k];
+                }
+                out = write(output, out, acc);
+                mTime += mDown;
+            }
+            mTime -= mUp;
+        }
+        return out;
+    }
+
+    /**
+     * Forgets the past input.
+     */
+    void reset() {
+        Arrays.fill(mHistory, 0);
+        mHistoryPosition = 0;
+        mTime = 0;
+    }
+
+    private static int write(byte[] output, int offset, float sample) {
+        int s = Math.round(sample);
+        if (s > Short.MAX_VALUE) {
+            s = Short.MAX_VALUE;
+        } else if (s < Short.MIN_VALUE) {
+            s = Short.MIN_VALUE;
+        }
+        output[offset] = (byte) s;
+        output[offset + 1] = (byte) (s >> 8);
+        return offset + 2;
+    }
+
+    /**
+     * Calculates the length of the filter needed for {@link #ATTENUATION} with the Kaiser
+     * formula. The transition band is narrower at the upsampled rate the larger the conversion
+     * ratio is, so the filter is longer, too.
+     */
+    static int tapsPerPhase(int up, int down) {
+        final double width = 2 * Math.PI * TRANSITION * 0.5 / Math.max(up, down);
+        final double length = (ATTENUATION - 8) / (2.285 * width);
+        return (int) Math.ceil(length / up);
+    }
+
+    /**
+     * Designs the prototype low-pass filter at the upsampled rate and splits it into phases.
+     */
+    private static float[][] createFilter(int up, int down, int taps) {
+        final int length = up * taps;
+        // Normalized to the upsampled rate
+        final double cutoff = CUTOFF * 0.5 / Math.max(up, down);
+        final double center = (length - 1) / 2.0;
+        final double[] prototype = new double[length];
+        final double i0Beta = besselI0(KAISER_BETA);
+        for (int n = 0; n < length; n++) {
+            final double x = n - center;
+            final double sinc = x == 0 ? 2 * cutoff
+                    : Math.sin(2 * Math.PI * cutoff * x) / (Math.PI * x);
+            final double r = x / (center + 1);
+            final double window = besselI0(KAISER_BETA * Math.sqrt(Math.max(0, 1 - r * r)))
+                    / i0Beta;
+            prototype[n] = sinc * window;
+        }
+        final float[][] phases = new float[up][taps];
+        for (int p = 0; p < up; p++) {
+            // Each phase is normalized to unity gain at DC.
+            double sum = 0;
+            for (int k = 0; k < taps; k++) {
+                sum += prototype[p + k * up];
+            }
+            for (int k = 0; k < taps; k++) {
+                phases[p][k] = (float) (prototype[p + k * up] / sum);
+            }
+        }
+        return phases;
+    }
+
+    /**
+     * The zeroth-order modified Bessel function of the first kind.
+     */
+    private static double besselI0(double x) {
+        double sum = 1;
+        double term = 1;
+        final double q = x * x / 4;
+        for (int k = 1; k < 50; k++) {
+            term *= q / ((double) k * k);
+            sum += term;
+            if (term < sum * 1e-12) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            final int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+}
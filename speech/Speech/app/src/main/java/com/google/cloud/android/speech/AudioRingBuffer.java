@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * A lock-free, single-producer/single-consumer ring that hands {@link AudioBuffer}s from an
+ * {@link AudioBufferPool} over from the capture thread to the delivery thread.
+ *
+ * <p>The producer (the capture thread) calls {@link #claim()}, fills the returned buffer and
+ * calls {@link #publish()}. The consumer (the delivery thread) calls {@link #take()}, which
+ * transfers the ownership of the buffer to the consumer, and then calls {@link #release()}.
+ * Neither side ever blocks the other; when the consumer falls behind, {@link #claim()} returns
+ * {@code null} and the overrun is counted. The pool is lock-free as well, so the consumer or any
+ * other thread recycling buffers does not contend on a lock with {@link #claim()}.</p>
+ */
+class AudioRingBuffer {
+
+    /** How long the consumer parks at most before checking the ring again. */
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final AudioBuffer[] mSlots;
+
+    private final AudioBufferPool mPool;
+
+    private final int mMask;
+
+    /** The sequence number of the next slot to be published. Only written by the producer. */
+    private final AtomicLong mHead = new AtomicLong();
+
+    /** The sequence number of the next slot to be consumed. Only written by the consumer. */
+    private final AtomicLong mTail = new AtomicLong();
+
+    /**
+     * The number of buffers that could not be claimed because the ring was full or the pool was
+     * exhausted.
+     */
+    private final AtomicLong mOverruns = new AtomicLong();
+
+    private volatile Thread mConsumer;
+
+    /**
+     * @param slots The number of slots. This is rounded up to a power of two.
+     * @param pool  The pool to take buffers from.
+     */
+    AudioRingBuffer(int slots, AudioBufferPool pool) {
+        int size = 1;
+        while (size < slots) {
+            size <<= 1;
+        }
+        mSlots = new AudioBuffer[size];
+        mMask = size - 1;
+        mPool = pool;
+    }
+
+    /**
+     * Claims the next free slot. Must only be called from the producer thread.
+     *
+     * @return The buffer to fill, or {@code null} if the consumer has fallen behind and the ring
+     * is full, or all the buffers of the pool are in use.
+     */
+    AudioBuffer claim() {
+        final long head = mHead.get();
+        if (head - mTail.get() >= mSlots.length) {
+            mOverruns.incrementAndGet();
+            return null;
+        }
+        final int index = (int) (head & mMask);
+        AudioBuffer buffer = mSlots[index];
+        if (buffer == null) { // Otherwise, it was claimed before but has not been published.
+            buffer = mPool.acquire();
+            if (buffer == null) {
+                mOverruns.incrementAndGet();
+                return null;
+            }
+            mSlots[index] = buffer;
+        }
+        return buffer;
+    }
+
+    /**
+     * Makes the buffer returned by the last {@link #claim()} visible to the consumer.
+     */
+    void publish() {
+        mHead.lazySet(mHead.get() + 1);
+        final Thread consumer = mConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Retrieves the oldest published buffer, waiting for one if the ring is empty. Must only be
+     * called from the consumer thread.
+     *
+     * @return The oldest published buffer. The caller owns it and has to recycle it. Call
+     * {@link #release()} right after this.
+     * @throws InterruptedException If the consumer thread is interrupted while waiting.
+     */
+    AudioBuffer take() throws InterruptedException {
+        final long tail = mTail.get();
+        mConsumer = Thread.currentThread();
+        while (mHead.get() == tail) {
+            LockSupport.parkNanos(this, PARK_NANOS);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        final int index = (int) (tail & mMask);
+        final AudioBuffer buffer = mSlots[index];
+        mSlots[index] = null;
+        return buffer;
+    }
+
+    /**
+     * Returns the slot of the buffer retrieved by the last {@link #take()} to the producer.
+     */
+    void release() {
+        mTail.lazySet(mTail.get() + 1);
+    }
+
+    /**
+     * @return The number of buffers dropped because the consumer was not keeping up.
+     */
+    long getOverrunCount() {
+        return mOverruns.get();
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Cuts a long recording into segments at silence, so that the segments can be recognized
+ * independently without cutting words in half.
+ *
+ * <p>Once a segment is at least half the maximum length, it ends at the next chunk without
+ * voice. A segment that reaches the maximum length without a pause is cut there anyway.</p>
+ */
+class AudioSegmenter {
+
+    private final VoiceActivityDetector mDetector;
+
+    private final int mSampleRate;
+
+    private final long mMaxSegmentNanos;
+
+    /** The duration of the current segment. */
+    private long mSegmentNanos;
+
+    /**
+     * @param detector        Tells silence from voice.
+     * @param sampleRate      The sample rate of the audio.
+     * @param maxSegmentNanos The maximum duration of a segment.
+     */
+    AudioSegmenter(VoiceActivityDetector detector, int sampleRate, long maxSegmentNanos) {
+        mDetector = detector;
+        mSampleRate = sampleRate;
+        mMaxSegmentNanos = maxSegmentNanos;
+        detector.reset(sampleRate, 1);
+    }
+
+    /**
+     * Examines the next chunk of audio.
+     *
+     * @param data The audio in LINEAR16 (little endian).
+     * @param size The number of bytes in {@code data} that are actually relevant.
+     * @return {@code true} if this chunk starts a new segment.
+     */
+    boolean startsNewSegment(byte[] data, int size) {
+        final long duration = TimeUnit.SECONDS.toNanos(size / 2) / mSampleRate;
+        final boolean voice = mDetector.isHearingVoice(data, size);
+        if (mSegmentNanos > 0 && (mSegmentNanos + duration > mMaxSegmentNanos
+                || !voice && mSegmentNanos >= mMaxSegmentNanos / 2)) {
+            mSegmentNanos = duration;
+            return true;
+        }
+        mSegmentNanos += duration;
+        return false;
+    }
+
+}
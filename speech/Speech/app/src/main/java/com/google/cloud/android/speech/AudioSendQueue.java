@@ -0,0 +1,244 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+
+/**
+ * Holds the audio of a streaming call while its transport is not ready to take more.
+ *
+ * <p>The queue is bounded by the duration of the audio in it rather than its size, so that the
+ * bound means the same thing in any encoding. The audio is handed to the {@link Sink} directly
+ * when the queue is empty and the sink is ready; it is only copied when it has to wait.</p>
+ *
+ * <p>All the calls to the sink are made while holding the lock of this queue, so they never run
+ * concurrently. {@link #put} is called from the thread producing the audio, and
+ * {@link #onReady()} from the transport.</p>
+ */
+class AudioSendQueue {
+
+    /**
+     * Where the audio goes.
+     */
+    interface Sink {
+
+        /**
+         * @return {@code true} if the transport can take more audio without buffering it.
+         */
+        boolean isReady();
+
+        /**
+         * Sends the audio.
+         *
+         * @param audio        The audio. This is only valid until this method returns.
+         * @param captureNanos When the audio was captured.
+         */
+        void send(ByteString audio, long captureNanos);
+
+        /**
+         * Called once after all the audio has been sent following
+         * {@link AudioSendQueue#finish()}.
+         */
+        void finish();
+
+        /**
+         * Called when audio is discarded without being sent.
+         *
+         * @param durationNanos The duration of the discarded audio.
+         */
+        void onDropped(long durationNanos);
+
+    }
+
+    private static class Chunk {
+
+        final ByteString audio;
+        final long durationNanos;
+        final long captureNanos;
+        final boolean silent;
+
+        Chunk(ByteString audio, long durationNanos, long captureNanos, boolean silent) {
+            this.audio = audio;
+            this.durationNanos = durationNanos;
+            this.captureNanos = captureNanos;
+            this.silent = silent;
+        }
+
+    }
+
+    private final Sink mSink;
+
+    private final long mCapacityNanos;
+
+    private final ArrayDeque<Chunk> mChunks = new ArrayDeque<>();
+
+    /** The total duration of {@link #mChunks}. */
+    private long mQueuedNanos;
+
+    /** Set when {@link #finish()} is called. */
+    private boolean mFinishing;
+
+    /** Set when no more audio can be sent. */
+    private boolean mClosed;
+
+    /**
+     * @param sink          Where to send the audio.
+     * @param capacityNanos The maximum duration of the audio that can wait in the queue.
+     */
+    AudioSendQueue(Sink sink, long capacityNanos) {
+        mSink = sink;
+        mCapacityNanos = capacityNanos;
+    }
+
+    /**
+     * Sends the audio, or queues it until the sink is ready.
+     *
+     * <p>When the queue is full and {@code dropSilence} is set, the oldest silent audio in the
+     * queue is dropped to make room. If that is not enough, the audio is dropped as well if it
+     * is silent. Otherwise, this waits until there is room. A single chunk longer than the
+     * capacity is accepted as long as the queue is empty.</p>
+     *
+     * @param data          The audio data. This can be reused as soon as this method returns.
+     * @param size          The size of the actual data in {@code data}.
+     * @param durationNanos The duration of the audio.
+     * @param captureNanos  When the audio was captured.
+     * @param silent        Whether the audio can be dropped as silence.
+     * @param dropSilence   Whether to drop silence instead of waiting when the queue is full.
+     * @return {@code true} if the queue was full.
+     * @throws InterruptedException If the thread is interrupted while waiting for room. The
+     *                              audio is dropped.
+     */
+    synchronized boolean put(byte[] data, int size, long durationNanos, long captureNanos,
+            boolean silent, boolean dropSilence) throws InterruptedException {
+        if (mClosed || mFinishing) {
+            // The call has ended; the audio would not be recognized anyway.
+            return false;
+        }
+        drain();
+        if (mChunks.isEmpty() && mSink.isReady()) {
+            mSink.send(UnsafeByteOperations.unsafeWrap(ByteBuffer.wrap(data, 0, size)),
+                    captureNanos);
+            return false;
+        }
+        final boolean full = !fits(durationNanos);
+        if (full) {
+            if (dropSilence) {
+                dropOldestSilence(durationNanos);
+                if (!fits(durationNanos) && silent) {
+                    mSink.onDropped(durationNanos);
+                    return true;
+                }
+            }
+            try {
+                while (!fits(durationNanos) && !mClosed) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                mSink.onDropped(durationNanos);
+                throw e;
+            }
+            if (mClosed) {
+                mSink.onDropped(durationNanos);
+                return true;
+            }
+        }
+        mChunks.add(new Chunk(ByteString.copyFrom(data, 0, size), durationNanos, captureNanos,
+                silent));
+        mQueuedNanos += durationNanos;
+        drain();
+        return full;
+    }
+
+    /**
+     * Sends the queued audio as far as the sink is ready. Called when the sink becomes ready.
+     */
+    synchronized void onReady() {
+        drain();
+    }
+
+    /**
+     * Finishes the sink once all the queued audio has been sent. No more audio can be put after
+     * this.
+     */
+    synchronized void finish() {
+        mFinishing = true;
+        drain();
+    }
+
+    /**
+     * Discards the queued audio and wakes up the producer. Called when the call has ended.
+     */
+    synchronized void abort() {
+        if (mQueuedNanos > 0) {
+            mSink.onDropped(mQueuedNanos);
+        }
+        mChunks.clear();
+        mQueuedNanos = 0;
+        mClosed = true;
+        notifyAll();
+    }
+
+    /**
+     * @return The duration of the audio waiting to be sent.
+     */
+    synchronized long getQueuedNanos() {
+        return mQueuedNanos;
+    }
+
+    private boolean fits(long durationNanos) {
+        return mChunks.isEmpty() || mQueuedNanos + durationNanos <= mCapacityNanos;
+    }
+
+    private void dropOldestSilence(long durationNanos) {
+        final Iterator<Chunk> iterator = mChunks.iterator();
+        while (!fits(durationNanos) && iterator.hasNext()) {
+            final Chunk chunk = iterator.next();
+            if (chunk.silent) {
+                iterator.remove();
+                mQueuedNanos -= chunk.durationNanos;
+                mSink.onDropped(chunk.durationNanos);
+            }
+        }
+    }
+
+    private void drain() {
+        if (mClosed) {
+            return;
+        }
+        boolean sent = false;
+        while (!mChunks.isEmpty() && mSink.isReady()) {
+            final Chunk chunk = mChunks.poll();
+            mQueuedNanos -= chunk.durationNanos;
+            mSink.send(chunk.audio, chunk.captureNanos);
+            sent = true;
+        }
+        if (sent) {
+            notifyAll();
+        }
+        if (mFinishing && mChunks.isEmpty()) {
+            mClosed = true;
+            mSink.finish();
+        }
+    }
+
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import com.google.cloud.speech.v1.RecognitionAudio;
+import com.google.cloud.speech.v1.RecognitionConfig;
+import com.google.cloud.speech.v1.RecognizeRequest;
+import com.google.cloud.speech.v1.RecognizeResponse;
+import com.google.cloud.speech.v1.SpeechGrpc;
+import com.google.cloud.speech.v1.SpeechRecognitionResult;
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+
+/**
+ * Cuts an audio file into segments and recognizes them in parallel with Recognize calls.
+ *
+ * <p>The segments are cut at pauses by an {@link AudioSegmenter}, and each of them is encoded in
+ * FLAC and sent in a call of its own. The segments are read and encoded ahead only as far as the
+ * concurrency allows. The transcripts are handed to the {@link Callback} in the order of the
+ * segments, whatever order the calls finish in. An instance recognizes a single file.</p>
+ *
+ * <p>A call that fails with a transient error is retried with a jittered backoff, holding on to
+ * its share of the concurrency. A segment that still fails after {@link #MAX_ATTEMPTS} is
+ * reported in its place among the transcripts.</p>
+ */
+class BatchRecognizer {
+
+    /** The length of the audio examined at a time when looking for a pause. */
+    static final int CHUNK_MILLIS = 100;
+
+    /** The number of times a segment is sent before it is given up on. */
+    static final int MAX_ATTEMPTS = 3;
+
+    private static final long RETRY_BASE_MILLIS = 500;
+    private static final long RETRY_MAX_MILLIS = 5000;
+
+    /**
+     * Receives the results. The methods are called on gRPC threads, one at a time.
+     */
+    interface Callback {
+
+        /**
+         * Called with the transcript of each segment in which something was recognized, in the
+         * order of the segments.
+         */
+        void onTranscript(String transcript);
+
+        /**
+         * Called when a Recognize call of a segment fails, whether or not it is retried.
+         */
+        void onError(int segment, Throwable t);
+
+        /**
+         * Called in the place of the transcript of a segment that could not be recognized.
+         *
+         * @param segment The index of the segment.
+         * @param t       The error of the last attempt.
+         */
+        void onFailed(int segment, Throwable t);
+
+        /**
+         * Called when all the segments have been delivered.
+         *
+         * @param segments The number of the segments.
+         */
+        void onCompleted(int segments);
+
+    }
+
+    private final SpeechGrpc.SpeechStub mApi;
+
+    private final String mLanguageCode;
+
+    private final long mSegmentNanos;
+
+    private final Callback mCallback;
+
+    /** Runs the retries. */
+    private final ScheduledExecutorService mScheduler;
+
+    private final Random mRandom = new Random();
+
+    /** A permit for each segment that can be recognized at once. */
+    private final Semaphore mPermits;
+
+    /** The transcripts by segment; {@code null} until the segment is recognized. */
+    private final ArrayList<String> mTranscripts = new ArrayList<>();
+
+    /** The errors of the segments that failed, by segment. */
+    private final ArrayList<Throwable> mFailures = new ArrayList<>();
+
+    /** The segment to be delivered next. */
+    private int mNextSegment;
+
+    /** The number of the segments, or -1 until the whole file has been read. */
+    private int mSegmentCount = -1;
+
+    /**
+     * @param api          The API to call.
+     * @param languageCode The language of the audio.
+     * @param concurrency  The maximum number of segments being recognized at once. This also
+     *                     bounds the memory used.
+     * @param segmentNanos The maximum length of a segment.
+     * @param scheduler    Where to schedule the retries.
+     * @param callback     Receives the results.
+     */
+    BatchRecognizer(SpeechGrpc.SpeechStub api, String languageCode, int concurrency,
+            long segmentNanos, ScheduledExecutorService scheduler, Callback callback) {
+        mApi = api;
+        mLanguageCode = languageCode;
+        mSegmentNanos = segmentNanos;
+        mScheduler = scheduler;
+        mCallback = callback;
+        mPermits = new Semaphore(concurrency);
+    }
+
+    /**
+     * Reads the audio and submits its segments. This blocks while the maximum number of segments
+     * are being recognized; the results arrive later.
+     *
+     * @param input             The audio; either a WAV file or raw LINEAR16. This is not closed.
+     * @param defaultSampleRate The sample rate of raw LINEAR16.
+     * @throws IOException          If the audio cannot be read.
+     * @throws InterruptedException If the calling thread is interrupted. The segments submitted
+     *                              so far are still recognized.
+     */
+    void recognize(InputStream input, int defaultSampleRate)
+            throws IOException, InterruptedException {
+        final AudioFileReader reader = new AudioFileReader(input, defaultSampleRate);
+        final int sampleRate = reader.getSampleRate();
+        final RecognitionConfig config = RecognitionConfig.newBuilder()
+                .setEncoding(RecognitionConfig.AudioEncoding.FLAC)
+                .setSampleRateHertz(sampleRate)
+                .setLanguageCode(mLanguageCode)
+                .build();
+        final AudioSegmenter segmenter = new AudioSegmenter(
+                new RmsVoiceActivityDetector(), sampleRate, mSegmentNanos);
+        final FlacEncoder encoder = new FlacEncoder(sampleRate);
+        final byte[] buffer = new byte[sampleRate * CHUNK_MILLIS / 1000 * 2];
+        int segments = 0;
+        int size;
+        while ((size = reader.read(buffer)) > 0) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (segmenter.startsNewSegment(buffer, size)) {
+                submit(segments++, encoder, config);
+            }
+            encoder.encode(buffer, size);
+        }
+        if (encoder.getInputBytes() > 0) {
+            submit(segments++, encoder, config);
+        }
+        setSegmentCount(segments);
+    }
+
+    /**
+     * Sends the audio in the encoder as a segment, and starts a new one.
+     */
+    private void submit(int segment, FlacEncoder encoder, RecognitionConfig config)
+            throws InterruptedException {
+        encoder.finish();
+        final ByteString audio = ByteString.copyFrom(encoder.getOutput(), 0,
+                encoder.getOutputSize());
+        encoder.reset();
+        mPermits.acquire();
+        synchronized (this) {
+            mTranscripts.add(null);
+            mFailures.add(null);
+        }
+        new SegmentObserver(segment, RecognizeRequest.newBuilder()
+                .setConfig(config)
+                .setAudio(RecognitionAudio.newBuilder().setContent(audio).build())
+                .build()).send();
+    }
+
+    private synchronized void setSegmentCount(int count) {
+        mSegmentCount = count;
+        checkFinished();
+    }
+
+    /**
+     * Records the outcome of a segment, and delivers the ones that are now in order.
+     *
+     * @param transcript The transcript, or an empty string if it failed.
+     * @param failure    The error, or {@code null} if the segment was recognized.
+     */
+    private synchronized void complete(int segment, String transcript, Throwable failure) {
+        mTranscripts.set(segment, transcript);
+        mFailures.set(segment, failure);
+        while (mNextSegment < mTranscripts.size()
+                && mTranscripts.get(mNextSegment) != null) {
+            final String text = mTranscripts.get(mNextSegment);
+            final Throwable error = mFailures.get(mNextSegment);
+            mTranscripts.set(mNextSegment, "");
+            mFailures.set(mNextSegment, null);
+            if (error != null) {
+                mCallback.onFailed(mNextSegment, error);
+            } else if (!text.isEmpty()) {
+                mCallback.onTranscript(text);
+            }
+            mNextSegment++;
+        }
+        checkFinished();
+    }
+
+    /**
+     * @return Whether a call that failed with the status may succeed if it is sent again.
+     */
+    static boolean isTransient(Status status) {
+        switch (status.getCode()) {
+            case UNAVAILABLE:
+            case DEADLINE_EXCEEDED:
+            case RESOURCE_EXHAUSTED:
+            case ABORTED:
+            case INTERNAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void checkFinished() {
+        if (mNextSegment == mSegmentCount) {
+            mCallback.onCompleted(mSegmentCount);
+        }
+    }
+
+    /**
+     * Sends a segment until it is recognized or given up on.
+     */
+    private class SegmentObserver implements StreamObserver<RecognizeResponse>, Runnable {
+
+        private final int mSegment;
+
+        private final RecognizeRequest mRequest;
+
+        private final JitteredBackoff mBackoff = new JitteredBackoff(RETRY_BASE_MILLIS,
+                RETRY_MAX_MILLIS, mRandom);
+
+        private final StringBuilder mTranscript = new StringBuilder();
+
+        private int mAttempts;
+
+        SegmentObserver(int segment, RecognizeRequest request) {
+            mSegment = segment;
+            mRequest = request;
+        }
+
+        void send() {
+            mAttempts++;
+            mTranscript.setLength(0);
+            mApi.recognize(mRequest, this);
+        }
+
+        @Override
+        public void run() {
+            send();
+        }
+
+        @Override
+        public void onNext(RecognizeResponse response) {
+            for (SpeechRecognitionResult result : response.getResultsList()) {
+                if (result.getAlternativesCount() > 0) {
+                    if (mTranscript.length() > 0) {
+                        mTranscript.append(' ');
+                    }
+                    mTranscript.append(result.getAlternatives(0).getTranscript().trim());
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            mCallback.onError(mSegment, t);
+            if (mAttempts < MAX_ATTEMPTS && isTransient(Status.fromThrowable(t))) {
+                try {
+                    mScheduler.schedule(this, mBackoff.next(), TimeUnit.MILLISECONDS);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // Shutting down; give up on the segment.
+                }
+            }
+            mPermits.release();
+            complete(mSegment, "", t);
+        }
+
+        @Override
+        public void onCompleted() {
+            mPermits.release();
+            complete(mSegment, mTranscript.toString(), null);
+        }
+
+    }
+
+}
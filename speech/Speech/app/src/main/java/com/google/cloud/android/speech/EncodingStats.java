@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import com.google.cloud.speech.v1.RecognitionConfig;
+
+import java.util.Locale;
+
+
+/**
+ * How the audio of an utterance was encoded for upload.
+ */
+public class EncodingStats {
+
+    private final RecognitionConfig.AudioEncoding mEncoding;
+
+    private final long mInputBytes;
+
+    private final long mOutputBytes;
+
+    private final long mCpuTimeNanos;
+
+    EncodingStats(RecognitionConfig.AudioEncoding encoding, long inputBytes, long outputBytes,
+            long cpuTimeNanos) {
+        mEncoding = encoding;
+        mInputBytes = inputBytes;
+        mOutputBytes = outputBytes;
+        mCpuTimeNanos = cpuTimeNanos;
+    }
+
+    public RecognitionConfig.AudioEncoding getEncoding() {
+        return mEncoding;
+    }
+
+    /**
+     * @return The size of the recorded audio in LINEAR16.
+     */
+    public long getInputBytes() {
+        return mInputBytes;
+    }
+
+    /**
+     * @return The size of the audio that was sent to the API.
+     */
+    public long getOutputBytes() {
+        return mOutputBytes;
+    }
+
+    /**
+     * @return The CPU time that the encoder spent on the utterance.
+     */
+    public long getCpuTimeNanos() {
+        return mCpuTimeNanos;
+    }
+
+    /**
+     * @return The size of the audio that was sent to the API relative to the recorded audio.
+     */
+    public float getCompressionRatio() {
+        return mInputBytes == 0 ? 1.f : (float) mOutputBytes / mInputBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s: %d -> %d bytes (%.2f), %.1f ms",
+                mEncoding, mInputBytes, mOutputBytes, getCompressionRatio(),
+                mCpuTimeNanos / 1e6);
+    }
+
+}
@@ -0,0 +1,698 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import java.util.Arrays;
+
+
+/**
+ * A streaming FLAC encoder for mono LINEAR16 audio.
+ *
+ * <p>The audio is split into frames of a fixed block size. Each frame is encoded with whichever
+ * of a fixed polynomial predictor or a quantized LPC predictor produces the smallest
+ * Rice-coded residual. The encoded stream, beginning with the {@code fLaC} marker and the
+ * STREAMINFO block, accumulates in an internal buffer that is read with {@link #getOutput()} and
+ * emptied with {@link #clearOutput()}. The total length and the MD5 signature of the stream
+ * are not known in advance and are left unset, as the format permits.</p>
+ *
+ * <p>All the buffers are allocated when this is constructed, except that the output buffer grows
+ * when it is not cleared often enough. This class is not thread-safe.</p>
+ */
+class FlacEncoder {
+
+    /** 64 ms at 16 kHz; short enough to keep the streaming latency low. */
+    static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    private static final int BITS_PER_SAMPLE = 16;
+
+    private static final int MAX_FIXED_ORDER = 4;
+
+    private static final int MAX_LPC_ORDER = 8;
+
+    /** The precision of the quantized LPC coefficients in bits, including the sign. */
+    private static final int LPC_PRECISION = 12;
+
+    private static final int MAX_LPC_SHIFT = 15;
+
+    private static final int MAX_PARTITION_ORDER = 6;
+
+    /** Rice parameters above this would need the escape code. */
+    private static final int MAX_RICE_PARAMETER = 14;
+
+    private static final int SUBFRAME_CONSTANT = 0;
+    private static final int SUBFRAME_VERBATIM = 1;
+    private static final int SUBFRAME_FIXED = 8;
+    private static final int SUBFRAME_LPC = 32;
+
+    private static final int[] CRC8_TABLE = new int[256];
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc8 = i;
+            int crc16 = i << 8;
+            for (int j = 0; j < 8; j++) {
+                crc8 = (crc8 & 0x80) != 0 ? (crc8 << 1) ^ 0x07 : crc8 << 1;
+                crc16 = (crc16 & 0x8000) != 0 ? (crc16 << 1) ^ 0x8005 : crc16 << 1;
+            }
+            CRC8_TABLE[i] = crc8 & 0xff;
+            CRC16_TABLE[i] = crc16 & 0xffff;
+        }
+    }
+
+    private final int mSampleRate;
+    private final int mBlockSize;
+
+    /** The samples of the frame being filled. */
+    private final int[] mSamples;
+    private int mSampleCount;
+
+    /** The low byte of a sample split between two calls to {@link #encode}, or -1. */
+    private int mPendingByte = -1;
+
+    private long mFrameNumber;
+
+    private final double[] mWindow;
+    private final double[] mWindowed;
+    private final double[] mAutocorrelation = new double[MAX_LPC_ORDER + 1];
+    private final double[][] mLpc = new double[MAX_LPC_ORDER][MAX_LPC_ORDER];
+    private final int[] mQuantized = new int[MAX_LPC_ORDER];
+
+    /** The coefficients, order and shift of the best LPC predictor found for the frame. */
+    private final int[] mBestCoefficients = new int[MAX_LPC_ORDER];
+    private int mBestShift;
+
+    /** The residual of the best predictor so far, and that of the one being evaluated. */
+    private int[] mResidual;
+    private int[] mCandidate;
+
+    /** Sums of the zigzag-encoded residual for each partition. */
+    private final long[] mPartitionSums = new long[1 << MAX_PARTITION_ORDER];
+
+    /** The Rice parameters and the partition order of the best residual coding. */
+    private final int[] mParameters = new int[1 << MAX_PARTITION_ORDER];
+    private final int[] mCandidateParameters = new int[1 << MAX_PARTITION_ORDER];
+    private final int[] mScratchParameters = new int[1 << MAX_PARTITION_ORDER];
+    private int mPartitionOrder;
+    private int mCandidatePartitionOrder;
+
+    private final BitWriter mWriter = new BitWriter();
+
+    private long mInputBytes;
+
+    /**
+     * @param sampleRate The sample rate of the input.
+     */
+    FlacEncoder(int sampleRate) {
+        this(sampleRate, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param sampleRate The sample rate of the input.
+     * @param blockSize  The number of samples in a frame; between 16 and 65535.
+     */
+    FlacEncoder(int sampleRate, int blockSize) {
+        if (blockSize < 16 || blockSize > 65535) {
+            throw new IllegalArgumentException("Invalid block size: " + blockSize);
+        }
+        mSampleRate = sampleRate;
+        mBlockSize = blockSize;
+        mSamples = new int[blockSize];
+        mResidual = new int[blockSize];
+        mCandidate = new int[blockSize];
+        mWindowed = new double[blockSize];
+        mWindow = new double[blockSize];
+        // Welch window
+        final double half = (blockSize - 1) / 2.0;
+        for (int i = 0; i < blockSize; i++) {
+            final double x = (i - half) / (half + 1);
+            mWindow[i] = 1 - x * x;
+        }
+        reset();
+    }
+
+    /**
+     * Starts a new stream. Whatever was not encoded yet is discarded, and the output is replaced
+     * with the header of the new stream.
+     */
+    void reset() {
+        mSampleCount = 0;
+        mPendingByte = -1;
+        mFrameNumber = 0;
+        mInputBytes = 0;
+        mWriter.clear();
+        writeStreamHeader();
+    }
+
+    /**
+     * Encodes the next chunk of audio. The samples that do not fill a frame are kept until the
+     * next call.
+     *
+     * @param data The audio in LINEAR16 (little endian).
+     * @param size The number of bytes in {@code data} that are actually relevant.
+     */
+    void encode(byte[] data, int size) {
+        mInputBytes += size;
+        int i = 0;
+        if (mPendingByte >= 0 && size > 0) {
+            addSample(mPendingByte | (data[0] << 8));
+            mPendingByte = -1;
+            i = 1;
+        }
+        for (; i + 1 < size; i += 2) {
+            addSample((data[i] & 0xff) | (data[i + 1] << 8));
+        }
+        if (i < size) {
+            mPendingByte = data[i] & 0xff;
+        }
+    }
+
+    /**
+     * Encodes the samples that do not fill a whole frame. This is called at the end of the
+     * stream; the last frame of a stream may be shorter than the others.
+     */
+    void finish() {
+        if (mSampleCount > 0) {
+            writeFrame(mSampleCount);
+            mSampleCount = 0;
+        }
+    }
+
+    /**
+     * Pads the samples that do not fill a whole frame with silence and encodes them. Unlike
+     * {@link #finish()}, the stream can be continued after this.
+     */
+    void padFrame() {
+        if (mSampleCount > 0) {
+            Arrays.fill(mSamples, mSampleCount, mBlockSize, 0);
+            writeFrame(mBlockSize);
+            mSampleCount = 0;
+        }
+    }
+
+    /**
+     * @return The encoded stream. Only the first {@link #getOutputSize()} bytes are relevant.
+     */
+    byte[] getOutput() {
+        return mWriter.mBytes;
+    }
+
+    /**
+     * @return The number of bytes encoded since the last {@link #clearOutput()}.
+     */
+    int getOutputSize() {
+        return mWriter.mSize;
+    }
+
+    /**
+     * Discards the output that has been consumed.
+     */
+    void clearOutput() {
+        mWriter.mTotal += mWriter.mSize;
+        mWriter.mSize = 0;
+    }
+
+    /**
+     * @return The number of bytes passed to {@link #encode} since the last {@link #reset()}.
+     */
+    long getInputBytes() {
+        return mInputBytes;
+    }
+
+    /**
+     * @return The number of bytes produced since the last {@link #reset()}, including the
+     * header.
+     */
+    long getOutputBytes() {
+        return mWriter.mTotal + mWriter.mSize;
+    }
+
+    private void addSample(int sample) {
+        mSamples[mSampleCount++] = (short) sample;
+        if (mSampleCount == mBlockSize) {
+            writeFrame(mBlockSize);
+            mSampleCount = 0;
+        }
+    }
+
+    private void writeStreamHeader() {
+        final BitWriter w = mWriter;
+        w.writeBits(0x664c6143, 32); // "fLaC"
+        // METADATA_BLOCK_HEADER: last block, STREAMINFO, 34 bytes
+        w.writeBits(1, 1);
+        w.writeBits(0, 7);
+        w.writeBits(34, 24);
+        // STREAMINFO
+        w.writeBits(mBlockSize, 16);
+        w.writeBits(mBlockSize, 16);
+        w.writeBits(0, 24); // The minimum frame size is unknown
+        w.writeBits(0, 24); // The maximum frame size is unknown
+        w.writeBits(mSampleRate, 20);
+        w.writeBits(0, 3); // One channel
+        w.writeBits(BITS_PER_SAMPLE - 1, 5);
+        w.writeBits(0, 4); // The total number of samples is unknown
+        w.writeBits(0, 32);
+        for (int i = 0; i < 4; i++) {
+            w.writeBits(0, 32); // The MD5 signature is unknown
+        }
+    }
+
+    private void writeFrame(int count) {
+        final BitWriter w = mWriter;
+        final int start = w.mSize;
+        // FRAME_HEADER
+        w.writeBits(0x3ffe, 14);
+        w.writeBits(0, 1);
+        w.writeBits(0, 1); // Fixed block size
+        final int blockSizeCode = blockSizeCode(count);
+        w.writeBits(blockSizeCode, 4);
+        w.writeBits(0, 4); // The sample rate is in STREAMINFO
+        w.writeBits(0, 4); // Mono
+        w.writeBits(4, 3); // 16 bits per sample
+        w.writeBits(0, 1);
+        writeUtf8(mFrameNumber++);
+        if (blockSizeCode == 6) {
+            w.writeBits(count - 1, 8);
+        } else if (blockSizeCode == 7) {
+            w.writeBits(count - 1, 16);
+        }
+        w.writeBits(crc8(w.mBytes, start, w.mSize), 8);
+        writeSubframe(count);
+        // FRAME_FOOTER
+        w.alignToByte();
+        w.writeBits(crc16(w.mBytes, start, w.mSize), 16);
+    }
+
+    private int blockSizeCode(int count) {
+        switch (count) {
+            case 192:
+                return 1;
+            case 576:
+                return 2;
+            case 1152:
+                return 3;
+            case 2304:
+                return 4;
+            case 4608:
+                return 5;
+            case 256:
+                return 8;
+            case 512:
+                return 9;
+            case 1024:
+                return 10;
+            case 2048:
+                return 11;
+            case 4096:
+                return 12;
+            case 8192:
+                return 13;
+            case 16384:
+                return 14;
+            case 32768:
+                return 15;
+            default:
+                return count <= 256 ? 6 : 7;
+        }
+    }
+
+    private void writeUtf8(long value) {
+        final BitWriter w = mWriter;
+        if (value < 0x80) {
+            w.writeBits((int) value, 8);
+            return;
+        }
+        int bytes = 2;
+        while (value >= 1L << (5 * bytes + 1)) {
+            bytes++;
+        }
+        final int shift = 6 * (bytes - 1);
+        w.writeBits((0xff00 >> bytes) & 0xff | (int) (value >>> shift), 8);
+        for (int s = shift - 6; s >= 0; s -= 6) {
+            w.writeBits(0x80 | (int) ((value >>> s) & 0x3f), 8);
+        }
+    }
+
+    private void writeSubframe(int count) {
+        final BitWriter w = mWriter;
+        final int[] x = mSamples;
+        boolean constant = true;
+        for (int i = 1; i < count; i++) {
+            if (x[i] != x[0]) {
+                constant = false;
+                break;
+            }
+        }
+        if (constant) {
+            w.writeBits(SUBFRAME_CONSTANT << 1, 8);
+            w.writeBits(x[0], BITS_PER_SAMPLE);
+            return;
+        }
+        long bestBits = (long) count * BITS_PER_SAMPLE;
+        int bestType = SUBFRAME_VERBATIM;
+        int bestOrder = 0;
+        if (count > MAX_LPC_ORDER * 2) {
+            // Fixed predictors
+            for (int order = 0; order <= MAX_FIXED_ORDER; order++) {
+                computeFixedResidual(count, order);
+                final long bits = order * BITS_PER_SAMPLE + estimateResidual(count, order);
+                if (bits < bestBits) {
+                    bestBits = bits;
+                    bestType = SUBFRAME_FIXED;
+                    bestOrder = order;
+                    acceptCandidate();
+                }
+            }
+            // LPC
+            final int maxOrder = computeLpc(count);
+            for (int order = 1; order <= maxOrder; order++) {
+                final int shift = quantize(mLpc[order - 1], order);
+                if (shift < 0) {
+                    continue;
+                }
+                computeLpcResidual(count, order, shift);
+                final long bits = order * BITS_PER_SAMPLE + 4 + 5 + order * LPC_PRECISION
+                        + estimateResidual(count, order);
+                if (bits < bestBits) {
+                    bestBits = bits;
+                    bestType = SUBFRAME_LPC;
+                    bestOrder = order;
+                    System.arraycopy(mQuantized, 0, mBestCoefficients, 0, order);
+                    mBestShift = shift;
+                    acceptCandidate();
+                }
+            }
+        }
+        if (bestType == SUBFRAME_VERBATIM) {
+            w.writeBits(SUBFRAME_VERBATIM << 1, 8);
+            for (int i = 0; i < count; i++) {
+                w.writeBits(x[i], BITS_PER_SAMPLE);
+            }
+            return;
+        }
+        if (bestType == SUBFRAME_FIXED) {
+            w.writeBits((SUBFRAME_FIXED | bestOrder) << 1, 8);
+        } else {
+            w.writeBits((SUBFRAME_LPC | (bestOrder - 1)) << 1, 8);
+        }
+        for (int i = 0; i < bestOrder; i++) {
+            w.writeBits(x[i], BITS_PER_SAMPLE);
+        }
+        if (bestType == SUBFRAME_LPC) {
+            w.writeBits(LPC_PRECISION - 1, 4);
+            w.writeBits(mBestShift, 5);
+            for (int i = 0; i < bestOrder; i++) {
+                w.writeBits(mBestCoefficients[i], LPC_PRECISION);
+            }
+        }
+        writeResidual(count, bestOrder);
+    }
+
+    private void computeFixedResidual(int count, int order) {
+        final int[] x = mSamples;
+        final int[] r = mCandidate;
+        switch (order) {
+            case 0:
+                System.arraycopy(x, 0, r, 0, count);
+                break;
+            case 1:
+                for (int i = 1; i < count; i++) {
+                    r[i] = x[i] - x[i - 1];
+                }
+                break;
+            case 2:
+                for (int i = 2; i < count; i++) {
+                    r[i] = x[i] - 2 * x[i - 1] + x[i - 2];
+                }
+                break;
+            case 3:
+                for (int i = 3; i < count; i++) {
+                    r[i] = x[i] - 3 * x[i - 1] + 3 * x[i - 2] - x[i - 3];
+                }
+                break;
+            default:
+                for (int i = 4; i < count; i++) {
+                    r[i] = x[i] - 4 * x[i - 1] + 6 * x[i - 2] - 4 * x[i - 3] + x[i - 4];
+                }
+                break;
+        }
+    }
+
+    /**
+     * Calculates the LPC coefficients of all the orders with the Levinson-Durbin recursion.
+     *
+     * @return The highest order that could be calculated.
+     */
+    private int computeLpc(int count) {
+        final int[] x = mSamples;
+        for (int i = 0; i < count; i++) {
+            mWindowed[i] = x[i] * mWindow[(int) ((long) i * mBlockSize / count)];
+        }
+        for (int lag = 0; lag <= MAX_LPC_ORDER; lag++) {
+            double sum = 0;
+            for (int i = lag; i < count; i++) {
+                sum += mWindowed[i] * mWindowed[i - lag];
+            }
+            mAutocorrelation[lag] = sum;
+        }
+        final double[] r = mAutocorrelation;
+        if (r[0] == 0) {
+            return 0;
+        }
+        double error = r[0];
+        for (int m = 0; m < MAX_LPC_ORDER; m++) {
+            double acc = r[m + 1];
+            final double[] previous = m > 0 ? mLpc[m - 1] : null;
+            for (int j = 0; j < m; j++) {
+                acc -= previous[j] * r[m - j];
+            }
+            final double k = acc / error;
+            final double[] current = mLpc[m];
+            for (int j = 0; j < m; j++) {
+                current[j] = previous[j] - k * previous[m - 1 - j];
+            }
+            current[m] = k;
+            error *= 1 - k * k;
+            if (error <= 0) {
+                return m + 1;
+            }
+        }
+        return MAX_LPC_ORDER;
+    }
+
+    /**
+     * Quantizes the LPC coefficients into {@link #mQuantized}.
+     *
+     * @return The shift of the quantized coefficients, or -1 if they are too large.
+     */
+    private int quantize(double[] lpc, int order) {
+        final int max = (1 << (LPC_PRECISION - 1)) - 1;
+        double cmax = 0;
+        for (int i = 0; i < order; i++) {
+            cmax = Math.max(cmax, Math.abs(lpc[i]));
+        }
+        if (cmax == 0) {
+            return -1;
+        }
+        int shift = MAX_LPC_SHIFT;
+        while (shift >= 0 && cmax * (1 << shift) > max) {
+            shift--;
+        }
+        if (shift < 0) {
+            return -1;
+        }
+        // Error feedback keeps the rounding errors from accumulating.
+        double error = 0;
+        for (int i = 0; i < order; i++) {
+            error += lpc[i] * (1 << shift);
+            int q = (int) Math.round(error);
+            if (q > max) {
+                q = max;
+            } else if (q < -max - 1) {
+                q = -max - 1;
+            }
+            mQuantized[i] = q;
+            error -= q;
+        }
+        return shift;
+    }
+
+    private void computeLpcResidual(int count, int order, int shift) {
+        final int[] x = mSamples;
+        final int[] q = mQuantized;
+        final int[] r = mCandidate;
+        for (int i = order; i < count; i++) {
+            long prediction = 0;
+            for (int j = 0; j < order; j++) {
+                prediction += (long) q[j] * x[i - 1 - j];
+            }
+            r[i] = x[i] - (int) (prediction >> shift);
+        }
+    }
+
+    private void acceptCandidate() {
+        final int[] residual = mResidual;
+        mResidual = mCandidate;
+        mCandidate = residual;
+        mPartitionOrder = mCandidatePartitionOrder;
+        System.arraycopy(mCandidateParameters, 0, mParameters, 0, 1 << mPartitionOrder);
+    }
+
+    /**
+     * Finds the partitioning and the Rice parameters for the residual in {@link #mCandidate}.
+     *
+     * @return The estimated number of bits of the coded residual.
+     */
+    private long estimateResidual(int count, int order) {
+        int maxPartitionOrder = 0;
+        while (maxPartitionOrder < MAX_PARTITION_ORDER
+                && (count & ((2 << maxPartitionOrder) - 1)) == 0
+                && (count >> (maxPartitionOrder + 1)) > order) {
+            maxPartitionOrder++;
+        }
+        long bestBits = Long.MAX_VALUE;
+        for (int p = maxPartitionOrder; p >= 0; p--) {
+            final int partitions = 1 << p;
+            final int length = count >> p;
+            long bits = 2 + 4;
+            int i = order;
+            for (int k = 0; k < partitions; k++) {
+                final int end = (k + 1) * length;
+                long sum = 0;
+                for (; i < end; i++) {
+                    final int v = mCandidate[i];
+                    sum += (v << 1) ^ (v >> 31);
+                }
+                mPartitionSums[k] = sum;
+            }
+            final int[] parameters = mScratchParameters;
+            for (int k = 0; k < partitions; k++) {
+                final int samples = k == 0 ? length - order : length;
+                final long sum = mPartitionSums[k];
+                int parameter = 0;
+                while (parameter < MAX_RICE_PARAMETER
+                        && ((long) samples << (parameter + 1)) < sum) {
+                    parameter++;
+                }
+                parameters[k] = parameter;
+                bits += 4 + (long) samples * (parameter + 1) + (sum >> parameter);
+            }
+            if (bits < bestBits) {
+                bestBits = bits;
+                mCandidatePartitionOrder = p;
+                System.arraycopy(parameters, 0, mCandidateParameters, 0, partitions);
+            }
+        }
+        return bestBits;
+    }
+
+    private void writeResidual(int count, int order) {
+        final BitWriter w = mWriter;
+        final int p = mPartitionOrder;
+        w.writeBits(0, 2); // Rice coding with 4-bit parameters
+        w.writeBits(p, 4);
+        final int length = count >> p;
+        int i = order;
+        for (int k = 0; k < 1 << p; k++) {
+            final int parameter = mParameters[k];
+            w.writeBits(parameter, 4);
+            final int end = (k + 1) * length;
+            for (; i < end; i++) {
+                final int v = mResidual[i];
+                final int u = (v << 1) ^ (v >> 31);
+                w.writeUnary(u >>> parameter);
+                if (parameter > 0) {
+                    w.writeBits(u, parameter);
+                }
+            }
+        }
+    }
+
+    static int crc8(byte[] data, int from, int to) {
+        int crc = 0;
+        for (int i = from; i < to; i++) {
+            crc = CRC8_TABLE[(crc ^ data[i]) & 0xff];
+        }
+        return crc;
+    }
+
+    static int crc16(byte[] data, int from, int to) {
+        int crc = 0;
+        for (int i = from; i < to; i++) {
+            crc = ((crc << 8) ^ CRC16_TABLE[((crc >> 8) ^ data[i]) & 0xff]) & 0xffff;
+        }
+        return crc;
+    }
+
+    /**
+     * Writes bits from the most significant one into a growing byte array.
+     */
+    private static class BitWriter {
+
+        byte[] mBytes = new byte[8192];
+
+        /** The number of complete bytes in {@link #mBytes}. */
+        int mSize;
+
+        /** The number of bytes that were cleared from {@link #mBytes}. */
+        long mTotal;
+
+        private long mAccumulator;
+        private int mAccumulatedBits;
+
+        void clear() {
+            mSize = 0;
+            mTotal = 0;
+            mAccumulator = 0;
+            mAccumulatedBits = 0;
+        }
+
+        /**
+         * Writes the lowest {@code bits} bits of {@code value}.
+         */
+        void writeBits(int value, int bits) {
+            mAccumulator = (mAccumulator << bits) | (value & (0xffffffffL >>> (32 - bits)));
+            mAccumulatedBits += bits;
+            while (mAccumulatedBits >= 8) {
+                mAccumulatedBits -= 8;
+                if (mSize == mBytes.length) {
+                    mBytes = Arrays.copyOf(mBytes, mBytes.length * 2);
+                }
+                mBytes[mSize++] = (byte) (mAccumulator >>> mAccumulatedBits);
+            }
+        }
+
+        /**
+         * Writes {@code value} zeros followed by a one.
+         */
+        void writeUnary(int value) {
+            while (value >= 24) {
+                writeBits(0, 24);
+                value -= 24;
+            }
+            writeBits(1, value + 1);
+        }
+
+        void alignToByte() {
+            if (mAccumulatedBits > 0) {
+                writeBits(0, 8 - mAccumulatedBits);
+            }
+        }
+
+    }
+
+}
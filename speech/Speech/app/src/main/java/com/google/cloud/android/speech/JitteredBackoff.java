@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import java.util.Random;
+
+
+/**
+ * Exponential backoff with jitter, for retrying after an error.
+ *
+ * <p>The delay doubles with each attempt up to the maximum, and a random delay between half of
+ * that and all of it is returned, so that clients that failed at the same time do not retry at
+ * the same time. This class is not thread-safe.</p>
+ */
+class JitteredBackoff {
+
+    private final long mBaseMillis;
+
+    private final long mMaxMillis;
+
+    private final Random mRandom;
+
+    private int mAttempt;
+
+    /**
+     * @param baseMillis The delay before the first retry.
+     * @param maxMillis  The maximum delay.
+     * @param random     The source of the jitter.
+     */
+    JitteredBackoff(long baseMillis, long maxMillis, Random random) {
+        mBaseMillis = baseMillis;
+        mMaxMillis = maxMillis;
+        mRandom = random;
+    }
+
+    /**
+     * @return The delay before the next attempt in milliseconds.
+     */
+    long next() {
+        final long delay = Math.min(mMaxMillis, mBaseMillis << Math.min(mAttempt, 30));
+        mAttempt++;
+        final long half = delay / 2;
+        return half + (long) (mRandom.nextDouble() * (delay - half));
+    }
+
+    /**
+     * Starts over from the base delay. Called after a successful attempt.
+     */
+    void reset() {
+        mAttempt = 0;
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A histogram of durations for calculating percentiles.
+ *
+ * <p>Values are counted in log-linear buckets: each power of two is split into
+ * {@value #SUB_BUCKETS} buckets, so a percentile is accurate to about 6%. Values up to about
+ * 18 minutes can be recorded; larger ones are counted as the maximum. Recording never allocates
+ * or locks, and it can be done from any thread.</p>
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** The largest value that can be recorded in nanoseconds; about 18 minutes. */
+    private static final long MAX_VALUE = (1L << 40) - 1;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(bucketOf(MAX_VALUE) + 1);
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos The duration in nanoseconds. Negative values are counted as 0.
+     */
+    public void record(long nanos) {
+        mCounts.incrementAndGet(bucketOf(Math.max(0, Math.min(nanos, MAX_VALUE))));
+    }
+
+    /**
+     * @return The number of recorded durations.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < mCounts.length(); i++) {
+            count += mCounts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Calculates a percentile of the recorded durations.
+     *
+     * @param percentile The percentile between 0 and 100.
+     * @param unit       The unit of the result.
+     * @return The duration that {@code percentile} percent of the recorded durations do not
+     * exceed, or 0 if nothing has been recorded.
+     */
+    public long getPercentile(double percentile, TimeUnit unit) {
+        final long[] counts = copyCounts();
+        return unit.convert(percentileOf(counts, sum(counts), percentile), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Takes the count and the percentiles from the same copy of the recorded durations.
+     */
+    MetricsSnapshot.Distribution snapshot() {
+        final long[] counts = copyCounts();
+        final long total = sum(counts);
+        return new MetricsSnapshot.Distribution(total, percentileOf(counts, total, 50),
+                percentileOf(counts, total, 90), percentileOf(counts, total, 99),
+                percentileOf(counts, total, 100));
+    }
+
+    /**
+     * Forgets all the recorded durations.
+     */
+    public void reset() {
+        for (int i = 0; i < mCounts.length(); i++) {
+            mCounts.set(i, 0);
+        }
+    }
+
+    private long[] copyCounts() {
+        final long[] counts = new long[mCounts.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = mCounts.get(i);
+        }
+        return counts;
+    }
+
+    private static long sum(long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    private static long percentileOf(long[] counts, long total, double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return highestValueOf(i);
+            }
+        }
+        return MAX_VALUE;
+    }
+
+    private static int bucketOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int magnitude = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return magnitude * SUB_BUCKETS + (int) (value >>> magnitude);
+    }
+
+    /**
+     * @return The largest value that is counted in the bucket.
+     */
+    private static long highestValueOf(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        final int magnitude = bucket / SUB_BUCKETS - 1;
+        final long subBucket = bucket - magnitude * SUB_BUCKETS;
+        return ((subBucket + 1) << magnitude) - 1;
+    }
+
+}
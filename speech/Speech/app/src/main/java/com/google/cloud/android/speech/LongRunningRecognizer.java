@@ -0,0 +1,408 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import com.google.cloud.speech.v1.LongRunningRecognizeMetadata;
+import com.google.cloud.speech.v1.LongRunningRecognizeRequest;
+import com.google.cloud.speech.v1.LongRunningRecognizeResponse;
+import com.google.cloud.speech.v1.RecognitionAudio;
+import com.google.cloud.speech.v1.RecognitionConfig;
+import com.google.cloud.speech.v1.SpeechGrpc;
+import com.google.cloud.speech.v1.SpeechRecognitionResult;
+import com.google.longrunning.CancelOperationRequest;
+import com.google.longrunning.GetOperationRequest;
+import com.google.longrunning.Operation;
+import com.google.longrunning.OperationsGrpc;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Empty;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Timestamp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+
+/**
+ * Recognizes recordings with LongRunningRecognize and polls the operations until they are done.
+ *
+ * <p>The names of the running operations are kept in an {@link OperationStore}, so that they
+ * can be picked up again with {@link #resume()} after the process is restarted. The polls are
+ * spaced by a {@link PollingBackoff} and scheduled on a {@link ScheduledExecutorService}; the
+ * responses arrive on gRPC threads. The methods can be called from any thread.</p>
+ */
+class LongRunningRecognizer {
+
+    private static final int CHUNK_BYTES = 16 * 1024;
+
+    /** The most audio that the API takes inline in a request. */
+    static final int MAX_INLINE_BYTES = 10 * 1024 * 1024;
+
+    /**
+     * Remembers the operations that are running.
+     */
+    interface OperationStore {
+
+        /**
+         * @return The names of the operations that have not finished yet.
+         */
+        Set<String> load();
+
+        /**
+         * Adds or removes an operation.
+         *
+         * @param name    The name of the operation.
+         * @param running {@code true} to add it, {@code false} to remove it.
+         */
+        void save(String name, boolean running);
+
+    }
+
+    /**
+     * Receives the results. The methods are called on gRPC threads and on the upload thread.
+     */
+    interface Callback {
+
+        /**
+         * Called with each transcript of an operation that is done.
+         */
+        void onTranscript(String operation, String transcript);
+
+        /**
+         * Called when an API call fails, whether or not it is retried.
+         */
+        void onError(Throwable t);
+
+        /**
+         * Called when a recording could not be recognized.
+         */
+        void onFailed(Throwable t);
+
+    }
+
+    private final SpeechGrpc.SpeechStub mApi;
+
+    private final OperationsGrpc.OperationsStub mOperations;
+
+    private final ScheduledExecutorService mScheduler;
+
+    private final OperationStore mStore;
+
+    private final Callback mCallback;
+
+    private final long mMinPollMillis;
+
+    private final long mMaxPollMillis;
+
+    private final int mMaxInlineBytes;
+
+    /** The operations being polled, by their names. */
+    private final ConcurrentHashMap<String, OperationTracker> mTrackers =
+            new ConcurrentHashMap<>();
+
+    LongRunningRecognizer(SpeechGrpc.SpeechStub api, OperationsGrpc.OperationsStub operations,
+            ScheduledExecutorService scheduler, OperationStore store, Callback callback) {
+        this(api, operations, scheduler, store, callback,
+                PollingBackoff.DEFAULT_MIN_DELAY_MILLIS, PollingBackoff.DEFAULT_MAX_DELAY_MILLIS,
+                MAX_INLINE_BYTES);
+    }
+
+    /**
+     * @param api           The Speech API.
+     * @param operations    The Operations API of the same service.
+     * @param scheduler     Where to schedule the polls.
+     * @param store         Remembers the running operations.
+     * @param callback      Receives the results.
+     * @param minPollMillis The first interval between polls.
+     * @param maxPollMillis  The longest interval between polls.
+     * @param maxInlineBytes The most encoded audio that {@link #upload} sends.
+     */
+    LongRunningRecognizer(SpeechGrpc.SpeechStub api, OperationsGrpc.OperationsStub operations,
+            ScheduledExecutorService scheduler, OperationStore store, Callback callback,
+            long minPollMillis, long maxPollMillis, int maxInlineBytes) {
+        mApi = api;
+        mOperations = operations;
+        mScheduler = scheduler;
+        mStore = store;
+        mCallback = callback;
+        mMinPollMillis = minPollMillis;
+        mMaxPollMillis = maxPollMillis;
+        mMaxInlineBytes = maxInlineBytes;
+    }
+
+    /**
+     * Encodes a recording in FLAC and submits it with the audio inline. This blocks while the
+     * recording is read. Only the encoded audio is kept in memory, and the recording is rejected
+     * as soon as that grows over what the API takes inline.
+     *
+     * @param input             The audio; either a WAV file or raw LINEAR16. This is not closed.
+     * @param defaultSampleRate The sample rate of raw LINEAR16.
+     * @param languageCode      The language of the audio.
+     * @throws IOException If the audio cannot be read, or is too long to send inline.
+     */
+    void upload(InputStream input, int defaultSampleRate, String languageCode)
+            throws IOException {
+        final AudioFileReader reader = new AudioFileReader(input, defaultSampleRate);
+        final FlacEncoder encoder = new FlacEncoder(reader.getSampleRate());
+        final ByteString.Output output = ByteString.newOutput(CHUNK_BYTES);
+        final byte[] buffer = new byte[CHUNK_BYTES];
+        int size;
+        while ((size = reader.read(buffer)) > 0) {
+            encoder.encode(buffer, size);
+            append(output, encoder);
+        }
+        encoder.finish();
+        append(output, encoder);
+        submit(RecognitionConfig.newBuilder()
+                        .setEncoding(RecognitionConfig.AudioEncoding.FLAC)
+                        .setSampleRateHertz(reader.getSampleRate())
+                        .setLanguageCode(languageCode)
+                        .build(),
+                RecognitionAudio.newBuilder().setContent(output.toByteString()).build());
+    }
+
+    /**
+     * Moves the output of the encoder to the request, unless that makes it too large.
+     */
+    private void append(ByteString.Output output, FlacEncoder encoder) throws IOException {
+        if (output.size() + encoder.getOutputSize() > mMaxInlineBytes) {
+            throw new IOException("The audio is more than " + mMaxInlineBytes
+                    + " bytes in FLAC, which is too long to send inline. Upload it to Cloud"
+                    + " Storage and recognize it by its gs:// URI instead.");
+        }
+        output.write(encoder.getOutput(), 0, encoder.getOutputSize());
+        encoder.clearOutput();
+    }
+
+    /**
+     * Starts an operation, and polls it until it is done.
+     */
+    void submit(RecognitionConfig config, RecognitionAudio audio) {
+        mApi.longRunningRecognize(LongRunningRecognizeRequest.newBuilder()
+                        .setConfig(config)
+                        .setAudio(audio)
+                        .build(),
+                new StreamObserver<Operation>() {
+                    @Override
+                    public void onNext(Operation operation) {
+                        if (operation.getDone()) {
+                            onDone(operation);
+                        } else {
+                            mStore.save(operation.getName(), true);
+                            track(operation.getName());
+                        }
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        mCallback.onError(t);
+                        mCallback.onFailed(t);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                    }
+                });
+    }
+
+    /**
+     * Polls the operations that were running when the process last stopped.
+     */
+    void resume() {
+        for (String name : mStore.load()) {
+            track(name);
+        }
+    }
+
+    /**
+     * Cancels an operation. Its results are not delivered.
+     */
+    void cancel(String name) {
+        forget(name);
+        mOperations.cancelOperation(CancelOperationRequest.newBuilder().setName(name).build(),
+                new StreamObserver<Empty>() {
+                    @Override
+                    public void onNext(Empty empty) {
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        mCallback.onError(t);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                    }
+                });
+    }
+
+    /**
+     * Stops polling. The operations keep running, and are picked up by {@link #resume()}.
+     */
+    void stop() {
+        for (OperationTracker tracker : mTrackers.values()) {
+            tracker.stop();
+        }
+        mTrackers.clear();
+    }
+
+    private void track(String name) {
+        final OperationTracker tracker = new OperationTracker(name);
+        final OperationTracker previous = mTrackers.put(name, tracker);
+        if (previous != null) {
+            previous.stop();
+        }
+        tracker.schedule();
+    }
+
+    private void forget(String name) {
+        final OperationTracker tracker = mTrackers.remove(name);
+        if (tracker != null) {
+            tracker.stop();
+        }
+        mStore.save(name, false);
+    }
+
+    private void onDone(Operation operation) {
+        forget(operation.getName());
+        if (operation.getResultCase() == Operation.ResultCase.ERROR) {
+            mCallback.onFailed(Status.fromCodeValue(operation.getError().getCode())
+                    .withDescription(operation.getError().getMessage())
+                    .asException());
+            return;
+        }
+        final LongRunningRecognizeResponse response;
+        try {
+            response = LongRunningRecognizeResponse.parseFrom(operation.getResponse().getValue());
+        } catch (InvalidProtocolBufferException e) {
+            mCallback.onFailed(e);
+            return;
+        }
+        for (SpeechRecognitionResult result : response.getResultsList()) {
+            if (result.getAlternativesCount() > 0) {
+                mCallback.onTranscript(operation.getName(),
+                        result.getAlternatives(0).getTranscript());
+            }
+        }
+    }
+
+    /**
+     * Polls an operation until it is done.
+     */
+    private class OperationTracker implements Runnable, StreamObserver<Operation> {
+
+        private final String mName;
+
+        private final PollingBackoff mBackoff = new PollingBackoff(mMinPollMillis,
+                mMaxPollMillis);
+
+        private volatile boolean mStopped;
+
+        private volatile ScheduledFuture<?> mPoll;
+
+        OperationTracker(String name) {
+            mName = name;
+        }
+
+        void schedule() {
+            schedule(mBackoff.next(0, 0));
+        }
+
+        /**
+         * Stops polling. The operation itself keeps running.
+         */
+        void stop() {
+            mStopped = true;
+            final ScheduledFuture<?> poll = mPoll;
+            if (poll != null) {
+                poll.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mStopped) {
+                return;
+            }
+            mOperations.getOperation(GetOperationRequest.newBuilder().setName(mName).build(),
+                    this);
+        }
+
+        @Override
+        public void onNext(Operation operation) {
+            if (mStopped) {
+                return;
+            }
+            if (operation.getDone()) {
+                onDone(operation);
+                return;
+            }
+            int progress = 0;
+            long elapsedMillis = 0;
+            try {
+                final LongRunningRecognizeMetadata metadata =
+                        LongRunningRecognizeMetadata.parseFrom(operation.getMetadata().getValue());
+                progress = metadata.getProgressPercent();
+                elapsedMillis = toMillis(metadata.getLastUpdateTime())
+                        - toMillis(metadata.getStartTime());
+            } catch (InvalidProtocolBufferException e) {
+                // Poll without the progress.
+            }
+            schedule(mBackoff.next(progress, elapsedMillis));
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            mCallback.onError(t);
+            if (Status.fromThrowable(t).getCode() == Status.Code.NOT_FOUND) {
+                // The operation is gone.
+                forget(mName);
+                return;
+            }
+            schedule();
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+
+        private void schedule(long delayMillis) {
+            if (mStopped) {
+                return;
+            }
+            try {
+                mPoll = mScheduler.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shutting down; the operation is picked up again on the next start.
+            }
+        }
+
+        private long toMillis(Timestamp timestamp) {
+            return timestamp.getSeconds() * 1000 + timestamp.getNanos() / 1000000;
+        }
+
+    }
+
+}
@@ -23,7 +23,9 @@ import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.res.ResourcesCompat;
@@ -31,7 +33,9 @@ import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.Toolbar;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -39,14 +43,17 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 
 public class MainActivity extends AppCompatActivity implements MessageDialogFragment.Listener {
 
     private static final String FRAGMENT_MESSAGE_DIALOG = "message_dialog";
 
-    private static final String STATE_RESULTS = "results";
+    private static final String HISTORY_DIRECTORY = "history";
 
     private static final int REQUEST_RECORD_AUDIO_PERMISSION = 1;
 
@@ -64,9 +71,12 @@ public class MainActivity extends AppCompatActivity implements MessageDialogFrag
         }
 
         @Override
-        public void onVoice(byte[] data, int size) {
-            if (mSpeechService != null) {
-                mSpeechService.recognize(data, size);
+        public void onVoice(AudioBuffer buffer) {
+            final SpeechService speechService = mSpeechService;
+            if (speechService != null) {
+                speechService.recognize(buffer);
+            } else {
+                buffer.recycle();
             }
         }
 
@@ -78,6 +88,14 @@ public class MainActivity extends AppCompatActivity implements MessageDialogFrag
             }
         }
 
+        @Override
+        public void onAudioDropped(long durationNanos) {
+            final SpeechService speechService = mSpeechService;
+            if (speechService != null) {
+                speechService.recordCaptureDropped(durationNanos);
+            }
+        }
+
     };
 
     // Resource caches
@@ -90,12 +108,15 @@ public class MainActivity extends AppCompatActivity implements MessageDialogFrag
     private ResultAdapter mAdapter;
     private RecyclerView mRecyclerView;
 
+    /** The length of the stable prefix of the transcript in {@link #mText}. */
+    private int mStableLength;
+
     private final ServiceConnection mServiceConnection = new ServiceConnection() {
 
         @Override
         public void onServiceConnected(ComponentName componentName, IBinder binder) {
             mSpeechService = SpeechService.from(binder);
-            mSpeechService.addListener(mSpeechServiceListener);
+            mSpeechService.addTranscriptListener(mTranscriptListener);
             mStatus.setVisibility(View.VISIBLE);
         }
 
@@ -119,12 +140,15 @@ public class MainActivity extends AppCompatActivity implements MessageDialogFrag
         setSupportActionBar((Toolbar) findViewById(R.id.toolbar));
         mStatus = (TextView) findViewById(R.id.status);
         mText = (TextView) findViewById(R.id.text);
+        // The transcript is edited in place as it changes.
+        mText.setText("", TextView.BufferType.EDITABLE);
 
         mRecyclerView = (RecyclerView) findViewById(R.id.recycler_view);
         mRecyclerView.setLayoutManager(new LinearLayoutManager(this));
-        final ArrayList<String> results = savedInstanceState == null ? null :
-                savedInstanceState.getStringArrayList(STATE_RESULTS);
-        mAdapter = new ResultAdapter(results);
+        // The results are kept on disk rather than in the saved state. The log outlives the
+        // activity, so that a recreated one does not open it a second time.
+        mAdapter = new ResultAdapter(
+                TranscriptHistory.of(new File(getFilesDir(), HISTORY_DIRECTORY)));
         mRecyclerView.setAdapter(mAdapter);
     }
 
@@ -154,21 +178,13 @@ public class MainActivity extends AppCompatActivity implements MessageDialogFrag
         stopVoiceRecorder();
 
         // Stop Cloud Speech API
-        mSpeechService.removeListener(mSpeechServiceListener);
+        mSpeechService.removeTranscriptListener(mTranscriptListener);
         unbindService(mServiceConnection);
         mSpeechService = null;
 
         super.onStop();
     }
 
-    @Override
-    protected void onSaveInstanceState(Bundle outState) {
-        super.onSaveInstanceState(outState);
-        if (mAdapter != null) {
-            outState.putStringArrayList(STATE_RESULTS, mAdapter.getResults());
-        }
-    }
-
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions,
             @NonNull int[] grantResults) {
@@ -206,6 +222,7 @@ public class MainActivity extends AppCompatActivity implements MessageDialogFrag
             mVoiceRecorder.stop();
         }
         mVoiceRecorder = new VoiceRecorder(mVoiceCallback);
+        mVoiceRecorder.setSampleRate(SpeechService.SAMPLE_RATE);
         mVoiceRecorder.start();
     }
 
@@ -237,26 +254,31 @@ public class MainActivity extends AppCompatActivity implements MessageDialogFrag
                 REQUEST_RECORD_AUDIO_PERMISSION);
     }
 
-    private final SpeechService.Listener mSpeechServiceListener =
-            new SpeechService.Listener() {
+    private final SpeechService.TranscriptListener mTranscriptListener =
+            new SpeechService.TranscriptListener() {
                 @Override
-                public void onSpeechRecognized(final String text, final boolean isFinal) {
-                    if (isFinal) {
+                public void onTranscriptChanged(TranscriptDelta delta) {
+                    // This is called on the main thread.
+                    if (delta.isFinal() && mVoiceRecorder != null) {
                         mVoiceRecorder.dismiss();
                     }
-                    if (mText != null && !TextUtils.isEmpty(text)) {
-                        runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                if (isFinal) {
-                                    mText.setText(null);
-                                    mAdapter.addResult(text);
-                                    mRecyclerView.smoothScrollToPosition(0);
-                                } else {
-                                    mText.setText(text);
-                                }
-                            }
-                        });
+                    if (mText == null) {
+                        return;
+                    }
+                    // Only the changed end of the transcript is replaced.
+                    final Editable text = mText.getEditableText();
+                    final int start = Math.max(0, mStableLength - delta.getRetracted());
+                    text.replace(start, text.length(), delta.getCommitted());
+                    mStableLength = text.length();
+                    text.append(delta.getUnstable());
+                    if (delta.isFinal()) {
+                        final String result = text.toString();
+                        text.clear();
+                        mStableLength = 0;
+                        if (!TextUtils.isEmpty(result)) {
+                            mAdapter.addResult(result);
+                            mRecyclerView.smoothScrollToPosition(0);
+                        }
                     }
                 }
             };
@@ -272,14 +294,57 @@ public class MainActivity extends AppCompatActivity implements MessageDialogFrag
 
     }
 
+    /**
+     * Shows the results in a {@link TranscriptLog}, newest first.
+     *
+     * <p>Only a few pages of the results are kept in memory; the others are read from the log as
+     * they are scrolled to. The log is read and written on the thread of its
+     * {@link TranscriptHistory}.</p>
+     */
     private static class ResultAdapter extends RecyclerView.Adapter<ViewHolder> {
 
-        private final ArrayList<String> mResults = new ArrayList<>();
+        private static final String TAG = "ResultAdapter";
 
-        ResultAdapter(ArrayList<String> results) {
-            if (results != null) {
-                mResults.addAll(results);
-            }
+        private static final int PAGE_SIZE = 50;
+
+        private static final int MAX_PAGES = 4;
+
+        /** Reads and writes the log in the order they are requested. */
+        private final TranscriptHistory mHistory;
+
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        private final TranscriptPages mPages = new TranscriptPages(PAGE_SIZE, MAX_PAGES);
+
+        /** Whether {@link #mCount} includes the results that were in the log when it was opened. */
+        private boolean mOpened;
+
+        /** The number of the results, including those still being written to the log. */
+        private int mCount;
+
+        ResultAdapter(TranscriptHistory history) {
+            mHistory = history;
+            mHistory.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int size = 0;
+                    try {
+                        size = mHistory.log().size();
+                    } catch (IOException e) {
+                        Log.e(TAG, "Cannot open the transcript history.", e);
+                    }
+                    final int count = size;
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            // The results added meanwhile are appended after these.
+                            mCount += count;
+                            mOpened = true;
+                            notifyDataSetChanged();
+                        }
+                    });
+                }
+            });
         }
 
         @Override
@@ -289,21 +354,69 @@ public class MainActivity extends AppCompatActivity implements MessageDialogFrag
 
         @Override
         public void onBindViewHolder(ViewHolder holder, int position) {
-            holder.text.setText(mResults.get(position));
+            if (!mOpened) {
+                holder.text.setText(null);
+                return;
+            }
+            final int index = mCount - 1 - position;
+            final String result = mPages.get(index);
+            holder.text.setText(result);
+            if (result == null) {
+                load(mPages.pageOf(index));
+            }
         }
 
         @Override
         public int getItemCount() {
-            return mResults.size();
+            return mCount;
         }
 
-        void addResult(String result) {
-            mResults.add(0, result);
+        void addResult(final String result) {
+            if (mOpened) {
+                mPages.onAppended(mCount, result);
+            }
+            mCount++;
+            mHistory.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mHistory.log().append(result);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Cannot write the transcript history.", e);
+                    }
+                }
+            });
             notifyItemInserted(0);
         }
 
-        public ArrayList<String> getResults() {
-            return mResults;
+        private void load(final int page) {
+            if (!mPages.startLoading(page)) {
+                return;
+            }
+            mHistory.execute(new Runnable() {
+                @Override
+                public void run() {
+                    List<String> results = Collections.emptyList();
+                    try {
+                        results = mHistory.log().read(page * PAGE_SIZE, PAGE_SIZE);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Cannot read the transcript history.", e);
+                    }
+                    final List<String> loaded = results;
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            // If the page was appended to meanwhile, it is loaded again on bind.
+                            mPages.onLoaded(page, loaded);
+                            final int from = page * PAGE_SIZE;
+                            final int to = Math.min(from + PAGE_SIZE, mCount);
+                            if (from < to) {
+                                notifyItemRangeChanged(mCount - to, to - from);
+                            }
+                        }
+                    });
+                }
+            });
         }
 
     }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Named counters and histograms of a {@link SpeechService}.
+ *
+ * <p>The metrics are created on first use and live as long as the registry. Updating them never
+ * locks: counters are {@link AtomicLong}s and histograms are {@link LatencyHistogram}s. Callers
+ * on hot paths should look a metric up once and keep it. All the methods can be called from any
+ * thread.</p>
+ */
+class MetricsRegistry {
+
+    private final ConcurrentHashMap<String, AtomicLong> mCounters = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, LatencyHistogram> mHistograms =
+            new ConcurrentHashMap<>();
+
+    /**
+     * @param name The name of the counter.
+     * @return The counter, created if needed.
+     */
+    AtomicLong counter(String name) {
+        AtomicLong counter = mCounters.get(name);
+        if (counter == null) {
+            final AtomicLong created = new AtomicLong();
+            counter = mCounters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * @param name The name of the histogram.
+     * @return The histogram, created if needed.
+     */
+    LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = mHistograms.get(name);
+        if (histogram == null) {
+            final LatencyHistogram created = new LatencyHistogram();
+            histogram = mHistograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * @return The current values of all the metrics. Each metric is read separately, so the
+     * values can be slightly apart in time.
+     */
+    MetricsSnapshot snapshot() {
+        final TreeMap<String, Long> counters = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : mCounters.entrySet()) {
+            counters.put(entry.getKey(), entry.getValue().get());
+        }
+        final TreeMap<String, MetricsSnapshot.Distribution> histograms = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : mHistograms.entrySet()) {
+            histograms.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return new MetricsSnapshot(System.currentTimeMillis(), counters, histograms);
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * The values of the metrics of a {@link SpeechService} at one point in time.
+ *
+ * @see SpeechService#getMetrics()
+ */
+public class MetricsSnapshot {
+
+    /**
+     * The distribution of the durations recorded in a histogram.
+     */
+    public static class Distribution {
+
+        private final long mCount;
+
+        private final long mP50Nanos;
+
+        private final long mP90Nanos;
+
+        private final long mP99Nanos;
+
+        private final long mMaxNanos;
+
+        Distribution(long count, long p50Nanos, long p90Nanos, long p99Nanos, long maxNanos) {
+            mCount = count;
+            mP50Nanos = p50Nanos;
+            mP90Nanos = p90Nanos;
+            mP99Nanos = p99Nanos;
+            mMaxNanos = maxNanos;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMedian(TimeUnit unit) {
+            return unit.convert(mP50Nanos, TimeUnit.NANOSECONDS);
+        }
+
+        public long get90thPercentile(TimeUnit unit) {
+            return unit.convert(mP90Nanos, TimeUnit.NANOSECONDS);
+        }
+
+        public long get99thPercentile(TimeUnit unit) {
+            return unit.convert(mP99Nanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @return The upper bound of the largest duration recorded.
+         */
+        public long getMax(TimeUnit unit) {
+            return unit.convert(mMaxNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "count %d, p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, "
+                    + "max %.1f ms", mCount, mP50Nanos / 1e6, mP90Nanos / 1e6, mP99Nanos / 1e6,
+                    mMaxNanos / 1e6);
+        }
+
+    }
+
+    private final long mTimeMillis;
+
+    private final SortedMap<String, Long> mCounters;
+
+    private final SortedMap<String, Distribution> mHistograms;
+
+    MetricsSnapshot(long timeMillis, SortedMap<String, Long> counters,
+            SortedMap<String, Distribution> histograms) {
+        mTimeMillis = timeMillis;
+        mCounters = Collections.unmodifiableSortedMap(counters);
+        mHistograms = Collections.unmodifiableSortedMap(histograms);
+    }
+
+    /**
+     * @return When this snapshot was taken, in milliseconds since the epoch.
+     */
+    public long getTimeMillis() {
+        return mTimeMillis;
+    }
+
+    /**
+     * @return The value of a counter, or 0 if it has never been used.
+     */
+    public long getCounter(String name) {
+        final Long value = mCounters.get(name);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * @return The distribution of a histogram, or {@code null} if it has never been used.
+     */
+    public Distribution getHistogram(String name) {
+        return mHistograms.get(name);
+    }
+
+    /**
+     * @return All the counters by name, in the order of the names.
+     */
+    public Map<String, Long> getCounters() {
+        return mCounters;
+    }
+
+    /**
+     * @return All the histograms by name, in the order of the names.
+     */
+    public Map<String, Distribution> getHistograms() {
+        return mHistograms;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Long> entry : mCounters.entrySet()) {
+            builder.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        for (Map.Entry<String, Distribution> entry : mHistograms.entrySet()) {
+            builder.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+/**
+ * Decides when to poll a long-running operation next.
+ *
+ * <p>The interval grows exponentially while the operation runs, so that a long operation is not
+ * polled more than necessary. When the operation reports its progress, the remaining time is
+ * estimated from it, and the next poll comes no later than halfway through that time, so that
+ * the result is picked up soon after the operation is done.</p>
+ */
+class PollingBackoff {
+
+    static final long DEFAULT_MIN_DELAY_MILLIS = 1000;
+
+    static final long DEFAULT_MAX_DELAY_MILLIS = 60 * 1000;
+
+    private static final double MULTIPLIER = 1.5;
+
+    private final long mMinDelayMillis;
+
+    private final long mMaxDelayMillis;
+
+    private long mDelayMillis;
+
+    PollingBackoff() {
+        this(DEFAULT_MIN_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    PollingBackoff(long minDelayMillis, long maxDelayMillis) {
+        mMinDelayMillis = minDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mDelayMillis = minDelayMillis;
+    }
+
+    /**
+     * Calculates the delay before the next poll.
+     *
+     * @param progressPercent The progress reported by the operation, or 0 if unknown.
+     * @param elapsedMillis   How long the operation has been running.
+     * @return The delay in milliseconds.
+     */
+    long next(int progressPercent, long elapsedMillis) {
+        final long delay = mDelayMillis;
+        mDelayMillis = Math.min((long) (mDelayMillis * MULTIPLIER), mMaxDelayMillis);
+        if (progressPercent <= 0 || progressPercent >= 100 || elapsedMillis <= 0) {
+            return delay;
+        }
+        final long remaining = elapsedMillis * (100 - progressPercent) / progressPercent;
+        return Math.max(mMinDelayMillis, Math.min(delay, remaining / 2));
+    }
+
+}
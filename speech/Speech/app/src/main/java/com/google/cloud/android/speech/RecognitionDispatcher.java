@@ -0,0 +1,240 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Delivers recognition results to the {@link SpeechService.Listener}s and the
+ * {@link SpeechService.TranscriptListener}s on an {@link Executor}, and the failures to the
+ * {@link SpeechService.ErrorListener}s.
+ *
+ * <p>Results can be dispatched from any thread. They are delivered in batches, one batch per
+ * task run on the executor, so the executor decides how often the listeners are called. While a
+ * batch is waiting, a newer interim result replaces the older one from the same source, and a
+ * final result replaces the interim one before it. The {@link TranscriptDelta}s of the replaced
+ * results are merged into the newer one, so the transcript listeners see the same text in the
+ * end. Final results and failures are never dropped, and they are delivered in the order they
+ * were dispatched.</p>
+ *
+ * <p>Listeners can be added and removed from any thread, including from the listeners
+ * themselves.</p>
+ */
+class RecognitionDispatcher {
+
+    private static class Result {
+
+        final Object source;
+        final String text;
+        final boolean isFinal;
+        final RecognitionLatency latency;
+        final TranscriptDelta delta;
+        final Throwable error;
+
+        Result(Object source, String text, boolean isFinal, RecognitionLatency latency,
+                TranscriptDelta delta, Throwable error) {
+            this.source = source;
+            this.text = text;
+            this.isFinal = isFinal;
+            this.latency = latency;
+            this.delta = delta;
+            this.error = error;
+        }
+
+    }
+
+    private final CopyOnWriteArrayList<SpeechService.Listener> mListeners =
+            new CopyOnWriteArrayList<>();
+
+    private final CopyOnWriteArrayList<SpeechService.TranscriptListener> mTranscriptListeners =
+            new CopyOnWriteArrayList<>();
+
+    private final CopyOnWriteArrayList<SpeechService.ErrorListener> mErrorListeners =
+            new CopyOnWriteArrayList<>();
+
+    private volatile Executor mExecutor;
+
+    /** The results waiting to be delivered. */
+    private ArrayList<Result> mPending = new ArrayList<>();
+
+    /** The results being delivered. Only used by {@link #mDelivery}. */
+    private ArrayList<Result> mDelivering = new ArrayList<>();
+
+    /** Whether {@link #mDelivery} is scheduled or running. */
+    private boolean mScheduled;
+
+    /** The number of interim results replaced before they were delivered. */
+    private final AtomicLong mCoalesced;
+
+    private final Runnable mDelivery = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (RecognitionDispatcher.this) {
+                final ArrayList<Result> pending = mPending;
+                mPending = mDelivering;
+                mDelivering = pending;
+            }
+            for (int i = 0; i < mDelivering.size(); i++) {
+                final Result result = mDelivering.get(i);
+                if (result.error != null) {
+                    for (SpeechService.ErrorListener listener : mErrorListeners) {
+                        listener.onRecognitionFailed(result.error);
+                    }
+                }
+                if (result.text != null) {
+                    for (SpeechService.Listener listener : mListeners) {
+                        listener.onSpeechRecognized(result.text, result.isFinal, result.latency);
+                    }
+                }
+                if (result.delta != null) {
+                    for (SpeechService.TranscriptListener listener : mTranscriptListeners) {
+                        listener.onTranscriptChanged(result.delta);
+                    }
+                }
+            }
+            mDelivering.clear();
+            synchronized (RecognitionDispatcher.this) {
+                if (mPending.isEmpty()) {
+                    mScheduled = false;
+                } else {
+                    // Whatever arrived meanwhile goes in the next batch.
+                    mExecutor.execute(this);
+                }
+            }
+        }
+    };
+
+    /**
+     * @param executor Where to call the listeners.
+     */
+    RecognitionDispatcher(Executor executor) {
+        this(executor, new AtomicLong());
+    }
+
+    /**
+     * @param executor  Where to call the listeners.
+     * @param coalesced Counts the interim results replaced before they were delivered.
+     */
+    RecognitionDispatcher(Executor executor, AtomicLong coalesced) {
+        mExecutor = executor;
+        mCoalesced = coalesced;
+    }
+
+    void setExecutor(Executor executor) {
+        mExecutor = executor;
+    }
+
+    void addListener(SpeechService.Listener listener) {
+        mListeners.add(listener);
+    }
+
+    void removeListener(SpeechService.Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    void addTranscriptListener(SpeechService.TranscriptListener listener) {
+        mTranscriptListeners.add(listener);
+    }
+
+    void removeTranscriptListener(SpeechService.TranscriptListener listener) {
+        mTranscriptListeners.remove(listener);
+    }
+
+    void addErrorListener(SpeechService.ErrorListener listener) {
+        mErrorListeners.add(listener);
+    }
+
+    void removeErrorListener(SpeechService.ErrorListener listener) {
+        mErrorListeners.remove(listener);
+    }
+
+    /**
+     * Schedules a result that completes an utterance on its own, such as the one of a batch
+     * request, to be delivered.
+     *
+     * @see #dispatch(Object, String, boolean, RecognitionLatency, TranscriptDelta)
+     */
+    void dispatch(Object source, String text, boolean isFinal, RecognitionLatency latency) {
+        dispatch(source, text, isFinal, latency,
+                isFinal ? new TranscriptDelta(0, text, "", true) : null);
+    }
+
+    /**
+     * Schedules a result to be delivered.
+     *
+     * @param source  Where the result comes from, such as a stream. The interim results are
+     *                coalesced for each source.
+     * @param text    The recognized text, or {@code null} to only report the delta.
+     * @param isFinal Whether the result is final.
+     * @param latency The latency, if measured.
+     * @param delta   How the transcript changed, or {@code null}.
+     */
+    synchronized void dispatch(Object source, String text, boolean isFinal,
+            RecognitionLatency latency, TranscriptDelta delta) {
+        // Only the last pending result of the source can be interim.
+        for (int i = mPending.size() - 1; i >= 0; i--) {
+            final Result pending = mPending.get(i);
+            if (pending.source == source) {
+                if (!pending.isFinal) {
+                    mPending.remove(i);
+                    mCoalesced.incrementAndGet();
+                    if (pending.delta != null && delta != null) {
+                        delta = pending.delta.merge(delta);
+                    }
+                    if (text == null) {
+                        // The replaced text has not been delivered yet.
+                        text = pending.text;
+                    }
+                }
+                break;
+            }
+        }
+        enqueue(new Result(source, text, isFinal, latency, delta, null));
+    }
+
+    /**
+     * Schedules a failure to be delivered after the results dispatched before it.
+     *
+     * @param source Where the failure comes from.
+     * @param error  What went wrong.
+     */
+    synchronized void dispatchError(Object source, Throwable error) {
+        // Marked final, so that it is never replaced.
+        enqueue(new Result(source, null, true, null, null, error));
+    }
+
+    private void enqueue(Result result) {
+        mPending.add(result);
+        if (!mScheduled) {
+            mScheduled = true;
+            mExecutor.execute(mDelivery);
+        }
+    }
+
+    /**
+     * @return The number of interim results that were replaced by newer ones before they were
+     * delivered.
+     */
+    long getCoalescedCount() {
+        return mCoalesced.get();
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import java.util.Locale;
+
+
+/**
+ * How long it took for recorded audio to become text. All the durations are measured from the
+ * time the audio was captured.
+ */
+public class RecognitionLatency {
+
+    private final long mFirstInterimNanos;
+
+    private final long mFinalNanos;
+
+    private final long mQueueingDelayNanos;
+
+    RecognitionLatency(long firstInterimNanos, long finalNanos, long queueingDelayNanos) {
+        mFirstInterimNanos = firstInterimNanos;
+        mFinalNanos = finalNanos;
+        mQueueingDelayNanos = queueingDelayNanos;
+    }
+
+    /**
+     * @return The time from the capture of the first audio of the utterance to the first result
+     * for it, or -1 if no audio has been sent.
+     */
+    public long getTimeToFirstInterimNanos() {
+        return mFirstInterimNanos;
+    }
+
+    /**
+     * @return The time from the capture of the latest audio sent to the final result, or -1 if
+     * the result is not final.
+     */
+    public long getTimeToFinalNanos() {
+        return mFinalNanos;
+    }
+
+    /**
+     * @return The time the latest audio sent spent between its capture and being handed over to
+     * the network.
+     */
+    public long getQueueingDelayNanos() {
+        return mQueueingDelayNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "first interim: %.1f ms, final: %.1f ms, queueing: %.1f ms",
+                mFirstInterimNanos / 1e6, mFinalNanos / 1e6, mQueueingDelayNanos / 1e6);
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+/**
+ * A {@link VoiceActivityDetector} based on the RMS energy of short frames.
+ *
+ * <p>The detector keeps track of the background noise floor and considers a frame voiced when
+ * its energy is well above that floor as well as above an absolute minimum. To avoid reacting to
+ * clicks, voice has to be heard for several consecutive frames before the detector turns on, and
+ * it stays on for a hangover period after the last voiced frame.</p>
+ */
+public class RmsVoiceActivityDetector implements VoiceActivityDetector {
+
+    /** The length of a frame that is examined at once. */
+    private static final int FRAME_MILLIS = 10;
+
+    public static final int DEFAULT_MIN_RMS = 600;
+    public static final float DEFAULT_NOISE_RATIO = 3.0f;
+    public static final int DEFAULT_START_MILLIS = 60;
+    public static final int DEFAULT_HANGOVER_MILLIS = 300;
+
+    /** How fast the noise floor follows the energy when it goes down. */
+    private static final double FLOOR_FALL_RATE = 0.2;
+    /** How fast the noise floor follows the energy when it goes up. */
+    private static final double FLOOR_RISE_RATE = 0.01;
+    /**
+     * How fast the noise floor follows the energy while voice is heard. Steady noise that keeps
+     * the detector on is eventually absorbed into the floor.
+     */
+    private static final double FLOOR_VOICED_RISE_RATE = 0.0005;
+
+    private final double mMinEnergy;
+    private final double mNoiseRatio;
+    private final int mStartMillis;
+    private final int mHangoverMillis;
+
+    private int mFrameSamples;
+    private int mStartFrames;
+    private int mHangoverFrames;
+
+    /** The mean square of the background noise. */
+    private double mNoiseFloor;
+
+    /** The sum of squares of the samples seen so far in the current frame. */
+    private double mFrameEnergy;
+    private int mFrameCount;
+
+    /** The number of consecutive voiced frames. */
+    private int mVoicedFrames;
+    /** The number of frames the detector will stay on for without hearing voice. */
+    private int mHangover;
+
+    public RmsVoiceActivityDetector() {
+        this(DEFAULT_MIN_RMS, DEFAULT_NOISE_RATIO, DEFAULT_START_MILLIS, DEFAULT_HANGOVER_MILLIS);
+    }
+
+    /**
+     * @param minRms         The RMS amplitude below which a frame is never considered voiced.
+     * @param noiseRatio     How many times louder (in RMS) than the noise floor a frame has to be
+     *                       to be considered voiced.
+     * @param startMillis    How long voice has to be heard before the detector turns on.
+     * @param hangoverMillis How long the detector stays on after voice is last heard.
+     */
+    public RmsVoiceActivityDetector(int minRms, float noiseRatio, int startMillis,
+            int hangoverMillis) {
+        mMinEnergy = (double) minRms * minRms;
+        mNoiseRatio = (double) noiseRatio * noiseRatio;
+        mStartMillis = startMillis;
+        mHangoverMillis = hangoverMillis;
+        reset(16000, 1);
+    }
+
+    @Override
+    public void reset(int sampleRate, int channelCount) {
+        mFrameSamples = Math.max(1, sampleRate * channelCount * FRAME_MILLIS / 1000);
+        mStartFrames = Math.max(1, mStartMillis / FRAME_MILLIS);
+        mHangoverFrames = mHangoverMillis / FRAME_MILLIS;
+        mNoiseFloor = mMinEnergy / mNoiseRatio;
+        mFrameEnergy = 0;
+        mFrameCount = 0;
+        mVoicedFrames = 0;
+        mHangover = 0;
+    }
+
+    @Override
+    public boolean isHearingVoice(byte[] buffer, int size) {
+        boolean heard = false;
+        for (int i = 0; i < size - 1; i += 2) {
+            // The buffer has LINEAR16 in little endian.
+            final int s = (buffer[i] & 0xff) | (buffer[i + 1] << 8);
+            mFrameEnergy += s * s;
+            if (++mFrameCount == mFrameSamples) {
+                heard |= endFrame(mFrameEnergy / mFrameCount);
+                mFrameEnergy = 0;
+                mFrameCount = 0;
+            }
+        }
+        return heard || isActive();
+    }
+
+    /**
+     * @return {@code true} if the detector currently considers voice to be heard.
+     */
+    public boolean isActive() {
+        return mHangover > 0;
+    }
+
+    private boolean endFrame(double energy) {
+        final boolean voiced = energy > mMinEnergy && energy > mNoiseFloor * mNoiseRatio;
+        if (voiced) {
+            if (++mVoicedFrames >= mStartFrames) {
+                mHangover = mHangoverFrames + 1;
+            }
+        } else {
+            mVoicedFrames = 0;
+            if (mHangover > 0) {
+                mHangover--;
+            }
+        }
+        final double rate;
+        if (energy < mNoiseFloor) {
+            rate = FLOOR_FALL_RATE;
+        } else if (voiced) {
+            rate = FLOOR_VOICED_RISE_RATE;
+        } else {
+            rate = FLOOR_RISE_RATE;
+        }
+        mNoiseFloor += (energy - mNoiseFloor) * rate;
+        return mHangover > 0;
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import com.google.logging.type.LogSeverity;
+import com.google.logging.v2.LogEntry;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.Value;
+
+import io.grpc.Status;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * What happened on one streaming recognition call, for the telemetry.
+ */
+class SessionRecord {
+
+    /** Whether the audio was captured live, rather than read from a file. */
+    boolean live;
+
+    long durationNanos;
+
+    long bytesSent;
+
+    long messagesSent;
+
+    long results;
+
+    long finalResults;
+
+    /** The latency of the first result of the first utterance, or -1. */
+    long firstInterimNanos = -1;
+
+    /** The latency of the latest final result, or -1. */
+    long finalNanos = -1;
+
+    Status.Code status = Status.Code.OK;
+
+    /**
+     * @param timeMillis When the call ended, in milliseconds since the epoch.
+     * @return The record as a log entry with a JSON payload.
+     */
+    LogEntry toLogEntry(long timeMillis) {
+        final Struct payload = Struct.newBuilder()
+                .putFields("live", Value.newBuilder().setBoolValue(live).build())
+                .putFields("durationMillis", millis(durationNanos))
+                .putFields("bytesSent", number(bytesSent))
+                .putFields("messagesSent", number(messagesSent))
+                .putFields("results", number(results))
+                .putFields("finalResults", number(finalResults))
+                .putFields("firstInterimMillis", millis(firstInterimNanos))
+                .putFields("finalMillis", millis(finalNanos))
+                .putFields("status", Value.newBuilder().setStringValue(status.name()).build())
+                .build();
+        return LogEntry.newBuilder()
+                .setTimestamp(Timestamp.newBuilder()
+                        .setSeconds(TimeUnit.MILLISECONDS.toSeconds(timeMillis))
+                        .setNanos((int) TimeUnit.MILLISECONDS.toNanos(timeMillis % 1000)))
+                .setSeverity(status == Status.Code.OK ? LogSeverity.INFO : LogSeverity.WARNING)
+                .setJsonPayload(payload)
+                .build();
+    }
+
+    private static Value number(long value) {
+        return Value.newBuilder().setNumberValue(value).build();
+    }
+
+    private static Value millis(long nanos) {
+        return number(nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+}
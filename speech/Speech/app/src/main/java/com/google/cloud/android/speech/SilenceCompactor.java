@@ -0,0 +1,178 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Decides which audio of an utterance is sent, shortening long runs of silence inside it.
+ *
+ * <p>Audio heard outside of an utterance is kept in an {@link AudioHistory} and sent as the
+ * pre-roll when voice starts. Inside an utterance, only the first {@code gapBytes} of a run of
+ * silence is sent; the rest is held back in the same history, and only its end is sent when the
+ * voice resumes, so that the onset of the voice is not lost. The audio sent from the history
+ * carries the capture time right before the audio that follows it.</p>
+ *
+ * <p>This class is not thread-safe; it is used on the process thread of {@link VoiceRecorder}.
+ * Only the counters can be read from other threads.</p>
+ */
+class SilenceCompactor {
+
+    /**
+     * Receives the audio to be sent.
+     */
+    interface Output {
+
+        /**
+         * @param buffer The audio. The output takes the ownership of it.
+         */
+        void write(AudioBuffer buffer);
+
+    }
+
+    private final AudioHistory mHistory;
+
+    private final AudioBufferPool mPool;
+
+    private final Output mOutput;
+
+    /** The number of bytes per second of the audio. */
+    private final int mByteRate;
+
+    /** The longest run of silence sent inside an utterance, or 0 to send all of it. */
+    private final int mGapBytes;
+
+    /** The number of bytes of silence not sent. */
+    private final AtomicLong mCompactedBytes;
+
+    /** The duration of the audio dropped because {@link #mPool} was exhausted. */
+    private final AtomicLong mDroppedNanos;
+
+    /** The size of the current run of silence inside an utterance. */
+    private long mSilentBytes;
+
+    /** The size of the silence held back from the current run. */
+    private long mHeldBackBytes;
+
+    /**
+     * @param history        Where the audio not sent is kept.
+     * @param pool           The pool of buffers to send the audio in {@code history} with.
+     * @param output         Where the audio to be sent goes.
+     * @param byteRate       The number of bytes per second of the audio.
+     * @param gapBytes       The longest run of silence to send, or 0 to send all of it.
+     * @param compactedBytes Counts the silence not sent.
+     * @param droppedNanos   Counts the audio dropped because {@code pool} was exhausted.
+     */
+    SilenceCompactor(AudioHistory history, AudioBufferPool pool, Output output, int byteRate,
+            int gapBytes, AtomicLong compactedBytes, AtomicLong droppedNanos) {
+        mHistory = history;
+        mPool = pool;
+        mOutput = output;
+        mByteRate = byteRate;
+        mGapBytes = gapBytes;
+        mCompactedBytes = compactedBytes;
+        mDroppedNanos = droppedNanos;
+    }
+
+    /**
+     * Keeps audio heard outside of an utterance as the pre-roll of the next one.
+     *
+     * @param buffer The audio. This method recycles it.
+     */
+    void idle(AudioBuffer buffer) {
+        mHistory.write(buffer.data, buffer.size);
+        buffer.recycle();
+    }
+
+    /**
+     * Starts an utterance, sending the pre-roll.
+     *
+     * @param nanos The capture time of the first audio of the utterance.
+     */
+    void start(long nanos) {
+        mSilentBytes = 0;
+        flush(nanos);
+    }
+
+    /**
+     * Sends audio in which voice is heard, preceded by the end of the silence held back.
+     *
+     * @param buffer The audio. This method takes the ownership of it.
+     */
+    void voice(AudioBuffer buffer) {
+        if (mHeldBackBytes > 0) {
+            mCompactedBytes.addAndGet(mHeldBackBytes - mHistory.size());
+            mHeldBackBytes = 0;
+            flush(buffer.captureNanos);
+        }
+        mSilentBytes = 0;
+        mOutput.write(buffer);
+    }
+
+    /**
+     * Sends or holds back silence inside an utterance.
+     *
+     * @param buffer The audio. This method takes the ownership of it.
+     */
+    void silence(AudioBuffer buffer) {
+        if (mGapBytes > 0 && mSilentBytes >= mGapBytes) {
+            mHistory.write(buffer.data, buffer.size);
+            mHeldBackBytes += buffer.size;
+            mSilentBytes += buffer.size;
+            buffer.recycle();
+        } else {
+            mSilentBytes += buffer.size;
+            mOutput.write(buffer);
+        }
+    }
+
+    /**
+     * Ends the utterance. The silence held back is not sent; it stays in the history as the
+     * pre-roll of the next utterance.
+     */
+    void end() {
+        mSilentBytes = 0;
+        if (mHeldBackBytes > 0) {
+            mCompactedBytes.addAndGet(mHeldBackBytes);
+            mHeldBackBytes = 0;
+        }
+    }
+
+    /**
+     * Sends the audio in the history.
+     *
+     * @param endNanos The capture time of the audio right after the history.
+     */
+    private void flush(long endNanos) {
+        while (mHistory.size() > 0) {
+            final AudioBuffer buffer = mPool.acquire();
+            if (buffer == null) {
+                mDroppedNanos.addAndGet(
+                        mHistory.size() * TimeUnit.SECONDS.toNanos(1) / mByteRate);
+                mHistory.clear();
+                return;
+            }
+            buffer.captureNanos = endNanos
+                    - mHistory.size() * TimeUnit.SECONDS.toNanos(1) / mByteRate;
+            buffer.size = mHistory.read(buffer.data);
+            mOutput.write(buffer);
+        }
+    }
+
+}
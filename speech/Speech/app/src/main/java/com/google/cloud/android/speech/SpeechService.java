@@ -20,42 +20,59 @@ import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.content.res.AssetManager;
 import android.os.AsyncTask;
 import android.os.Binder;
+import android.os.Debug;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.Log;
+import android.view.Choreographer;
 
 import com.google.auth.Credentials;
 import com.google.auth.oauth2.AccessToken;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.cloud.speech.v1.RecognitionAudio;
 import com.google.cloud.speech.v1.RecognitionConfig;
-import com.google.cloud.speech.v1.RecognizeRequest;
-import com.google.cloud.speech.v1.RecognizeResponse;
 import com.google.cloud.speech.v1.SpeechGrpc;
 import com.google.cloud.speech.v1.SpeechRecognitionAlternative;
-import com.google.cloud.speech.v1.SpeechRecognitionResult;
 import com.google.cloud.speech.v1.StreamingRecognitionConfig;
 import com.google.cloud.speech.v1.StreamingRecognitionResult;
 import com.google.cloud.speech.v1.StreamingRecognizeRequest;
 import com.google.cloud.speech.v1.StreamingRecognizeResponse;
+import com.google.logging.v2.LoggingServiceV2Grpc;
+import com.google.longrunning.ListOperationsRequest;
+import com.google.longrunning.ListOperationsResponse;
+import com.google.longrunning.OperationsGrpc;
 import com.google.protobuf.ByteString;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.ArrayList;
+import java.security.DigestInputStream;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import io.grpc.CallOptions;
 import io.grpc.Channel;
@@ -68,50 +85,1536 @@ import io.grpc.MethodDescriptor;
 import io.grpc.Status;
 import io.grpc.StatusException;
 import io.grpc.internal.DnsNameResolverProvider;
-import io.grpc.okhttp.OkHttpChannelProvider;
+import io.grpc.okhttp.OkHttpChannelBuilder;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import io.grpc.stub.StreamObserver;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
 
 public class SpeechService extends Service {
 
-    public interface Listener {
+    /**
+     * What to do when the audio is produced faster than the network can take it.
+     *
+     * @see #setSendQueue(int, OverflowPolicy)
+     */
+    public enum OverflowPolicy {
+
+        /** Make {@link #recognize} wait until there is room. No audio is lost. */
+        BLOCK,
+
+        /**
+         * Drop the oldest silent audio waiting to be sent; wait if there is none. This only
+         * applies to LINEAR16; FLAC streams cannot have gaps.
+         */
+        DROP_OLDEST_SILENCE,
+
+        /**
+         * Wait as {@link #BLOCK} does, and send the following utterances in FLAC instead of
+         * LINEAR16.
+         */
+        DOWNGRADE_ENCODING
+
+    }
+
+    public interface Listener {
+
+        /**
+         * Called when a new piece of text was recognized by the Speech API.
+         *
+         * @param text    The text.
+         * @param isFinal {@code true} when the API finished processing audio.
+         * @param latency How long it took to recognize the text, or {@code null} if the audio
+         *                was not streamed.
+         */
+        void onSpeechRecognized(String text, boolean isFinal,
+                @Nullable RecognitionLatency latency);
+
+    }
+
+    /**
+     * Receives the transcript as changes, so that only the changed text has to be redone.
+     */
+    public interface TranscriptListener {
+
+        /**
+         * Called when the transcript of the current utterance has changed. Applying all the
+         * deltas in order gives the current transcript.
+         *
+         * @param delta The change.
+         */
+        void onTranscriptChanged(TranscriptDelta delta);
+
+    }
+
+    /**
+     * Receives the failures of the recognitions that have no stream to retry on, such as a batch
+     * request that kept failing.
+     */
+    public interface ErrorListener {
+
+        /**
+         * Called when a part of a recognition could not be recognized. It is called in order with
+         * the results.
+         *
+         * @param error What went wrong.
+         */
+        void onRecognitionFailed(Throwable error);
+
+    }
+
+    private static final String TAG = "SpeechService";
+
+    private static final String PREFS = "SpeechService";
+    private static final String PREF_ACCESS_TOKEN_VALUE = "access_token_value";
+    private static final String PREF_ACCESS_TOKEN_EXPIRATION_TIME = "access_token_expiration_time";
+    private static final String PREF_OPERATIONS = "long_running_operations";
+
+    /** We reuse an access token if its expiration time is longer than this. */
+    private static final int ACCESS_TOKEN_EXPIRATION_TOLERANCE = 30 * 60 * 1000; // thirty minutes
+    /** We refresh the current access token before it expires. */
+    private static final int ACCESS_TOKEN_FETCH_MARGIN = 60 * 1000; // one minute
+
+    public static final List<String> SCOPE =
+            Collections.singletonList("https://www.googleapis.com/auth/cloud-platform");
+    /** The sample rate of the audio that this service prefers to receive. */
+    public static final int SAMPLE_RATE = 16000;
+
+    private static final String HOSTNAME = "speech.googleapis.com";
+    private static final String LOGGING_HOSTNAME = "logging.googleapis.com";
+    private static final int PORT = 443;
+
+    /**
+     * How often the connection is checked while a stream is open. A dead connection is noticed
+     * within this plus {@link #KEEP_ALIVE_TIMEOUT_SECONDS} instead of at the end of an utterance.
+     */
+    private static final long KEEP_ALIVE_TIME_SECONDS = 30;
+    private static final long KEEP_ALIVE_TIMEOUT_SECONDS = 10;
+
+    /**
+     * How long the connection is kept without any calls. Utterances come in bursts; this keeps
+     * the connection across the pauses in a conversation but not forever.
+     */
+    private static final long IDLE_TIMEOUT_MINUTES = 5;
+
+    /**
+     * The API limits the duration of a stream to about five minutes. In the continuous mode, a
+     * stream older than this is replaced at the end of an utterance so that the next utterance
+     * fits in the new one.
+     */
+    private static final long STREAM_ROLLOVER_NANOS = TimeUnit.SECONDS.toNanos(240);
+
+    /**
+     * A stream older than this is replaced even in the middle of an utterance. The recognition
+     * of the utterance is split, but no audio is lost.
+     */
+    private static final long STREAM_FORCED_ROLLOVER_NANOS = TimeUnit.SECONDS.toNanos(290);
+
+    /** The API aborts a stream that receives no audio for a while; it is not reused after this. */
+    private static final long STREAM_IDLE_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private static final int DEFAULT_SEND_QUEUE_MILLIS = 5000;
+
+    /** How much audio since the last final result can be sent again after a reconnect. */
+    private static final int REPLAY_MILLIS = 10 * 1000;
+
+    private static final int REPLAY_CHUNK_BYTES = 16 * 1024;
+
+    private static final long RECONNECT_BASE_MILLIS = 250;
+    private static final long RECONNECT_MAX_MILLIS = 8 * 1000;
+
+    /** How many times a stream that fails after the end of its utterance is reconnected. */
+    private static final int FINISHED_RECONNECT_ATTEMPTS = 5;
+
+    /** The size of the audio read from a file at a time. */
+    private static final int FILE_CHUNK_BYTES = 16 * 1024;
+
+    /** How much of a file can be read ahead of the network. */
+    private static final long FILE_SEND_QUEUE_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private static final int DEFAULT_BATCH_CONCURRENCY = 4;
+    private static final int DEFAULT_BATCH_SEGMENT_MILLIS = 50 * 1000;
+
+    /** The longest audio that Recognize takes. */
+    private static final int MAX_BATCH_SEGMENT_MILLIS = 60 * 1000;
+
+    private static final String TRANSCRIPT_CACHE_DIRECTORY = "transcripts";
+    private static final int TRANSCRIPT_CACHE_ENTRIES = 32;
+    private static final long TRANSCRIPT_CACHE_BYTES = 1024 * 1024;
+
+    private static final String TELEMETRY_DIRECTORY = "telemetry";
+    /** The size of a spool segment, which is uploaded as one request. */
+    private static final long TELEMETRY_SEGMENT_BYTES = 256 * 1024;
+    private static final long TELEMETRY_MAX_BYTES = 4 * 1024 * 1024;
+    private static final String TELEMETRY_LOG = "speech-client";
+    /** The telemetry is uploaded after no recognition has ended for this long. */
+    private static final long TELEMETRY_IDLE_MILLIS = 60 * 1000;
+
+    private static final long WARM_UP_DEADLINE_SECONDS = 10;
+
+    private final SpeechBinder mBinder = new SpeechBinder();
+    private final MetricsRegistry mMetrics = new MetricsRegistry();
+    private final RecognitionDispatcher mDispatcher = new RecognitionDispatcher(
+            new FrameExecutor(), mMetrics.counter("result.coalesced"));
+    private volatile AccessTokenTask mAccessTokenTask;
+    private ManagedChannel mChannel;
+    private GoogleCredentialsInterceptor mCredentialsInterceptor;
+
+    /** The telemetry goes to another host, so it needs a channel of its own. */
+    private ManagedChannel mLoggingChannel;
+    private GoogleCredentialsInterceptor mLoggingCredentialsInterceptor;
+    private volatile boolean mLoggingAuthenticated;
+
+    private TelemetryReporter mTelemetry;
+
+    /** Runs the retries of the batch recognitions and the polls of the operations. */
+    private ScheduledExecutorService mScheduler;
+    /** Set when the credentials are available. */
+    private SpeechGrpc.SpeechStub mApi;
+    private OperationsGrpc.OperationsStub mOperations;
+    private static Handler mHandler;
+
+    /** Recognizes the audio file requested last. */
+    private FileRecognitionTask mFileRecognitionTask;
+
+    /** The transcripts of the files recognized before. */
+    private TranscriptCache mTranscriptCache;
+
+    private BatchRecognitionTask mBatchRecognitionTask;
+
+    private volatile int mBatchConcurrency = DEFAULT_BATCH_CONCURRENCY;
+
+    private volatile int mBatchSegmentMillis = DEFAULT_BATCH_SEGMENT_MILLIS;
+
+    /** Set when the credentials are available. */
+    private volatile LongRunningRecognizer mLongRunning;
+
+    /** Keeps the names of the running operations in the preferences. */
+    private final LongRunningRecognizer.OperationStore mOperationStore =
+            new LongRunningRecognizer.OperationStore() {
+                @Override
+                public Set<String> load() {
+                    return new HashSet<>(getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+                            .getStringSet(PREF_OPERATIONS, Collections.<String>emptySet()));
+                }
+
+                @Override
+                public void save(String name, boolean running) {
+                    synchronized (this) {
+                        final SharedPreferences prefs =
+                                getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+                        // The set returned by the preferences must not be modified.
+                        final Set<String> names = new HashSet<>(prefs.getStringSet(
+                                PREF_OPERATIONS, Collections.<String>emptySet()));
+                        if (running ? names.add(name) : names.remove(name)) {
+                            prefs.edit().putStringSet(PREF_OPERATIONS, names).apply();
+                        }
+                    }
+                }
+            };
+
+    private final LongRunningRecognizer.Callback mLongRunningCallback =
+            new LongRunningRecognizer.Callback() {
+                @Override
+                public void onTranscript(String operation, String transcript) {
+                    mDispatcher.dispatch(operation, transcript, true, null);
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    recordError(t);
+                    Log.w(TAG, "Error calling the API.", t);
+                }
+
+                @Override
+                public void onFailed(Throwable t) {
+                    Log.e(TAG, "The long-running recognition failed.", t);
+                    mDispatcher.dispatchError(this, t);
+                }
+            };
+
+    /** The stream that the audio is sent to. */
+    private volatile RecognitionStream mStream;
+
+    /** The stream that takes over from {@link #mStream} in the continuous mode. */
+    private RecognitionStream mStandbyStream;
+
+    /** Whether an utterance is being sent to {@link #mStream}. Read by the telemetry thread. */
+    private volatile boolean mRecognizing;
+
+    private volatile boolean mContinuous;
+
+    /** The configuration of {@link #mStream}. */
+    private int mSampleRate;
+
+    /** The capture time of the latest audio passed to {@link #recognize}. */
+    private long mLastCaptureNanos;
+
+    private final LatencyHistogram mFirstInterimLatency =
+            mMetrics.histogram("result.first_interim_latency");
+    private final LatencyHistogram mInterimLatency =
+            mMetrics.histogram("result.interim_latency");
+    private final LatencyHistogram mFinalLatency = mMetrics.histogram("result.final_latency");
+    private final LatencyHistogram mQueueingDelay = mMetrics.histogram("audio.queueing_delay");
+
+    private final AtomicLong mStreamsOpened = mMetrics.counter("stream.opened");
+    private final LatencyHistogram mStreamSetupTime = mMetrics.histogram("stream.setup_time");
+    private final AtomicLong mMessagesSent = mMetrics.counter("stream.messages_sent");
+    private final AtomicLong mBytesSent = mMetrics.counter("stream.bytes_sent");
+
+    private final LatencyHistogram mTokenRefreshTime =
+            mMetrics.histogram("auth.token_refresh_time");
+    private final AtomicLong mTokenRefreshFailures =
+            mMetrics.counter("auth.token_refresh_failures");
+
+    /** The encoding of the audio of the current utterance. */
+    private RecognitionConfig.AudioEncoding mEncoding = RecognitionConfig.AudioEncoding.LINEAR16;
+
+    /** Reused across the utterances as long as the sample rate is the same. */
+    private FlacEncoder mFlacEncoder;
+    private int mFlacEncoderSampleRate;
+
+    /** The size of the audio of the current utterance in LINEAR16. */
+    private long mInputBytes;
+
+    /** The size of the audio of the current utterance that was sent. */
+    private long mOutputBytes;
+
+    /** The CPU time spent encoding the current utterance. */
+    private long mEncoderCpuNanos;
+
+    private volatile EncodingStats mLastEncodingStats;
+
+    /** The duration of the audio that can wait for the network in each stream. */
+    private volatile long mSendQueueNanos =
+            TimeUnit.MILLISECONDS.toNanos(DEFAULT_SEND_QUEUE_MILLIS);
+
+    private volatile OverflowPolicy mOverflowPolicy = OverflowPolicy.BLOCK;
+
+    /** Set when the send queue overflows under {@link OverflowPolicy#DOWNGRADE_ENCODING}. */
+    private volatile boolean mDowngraded;
+
+    /** Tells silence from voice for {@link OverflowPolicy#DROP_OLDEST_SILENCE}. */
+    private final RmsVoiceActivityDetector mSilenceDetector = new RmsVoiceActivityDetector();
+
+    /** The duration of the audio passed to the FLAC encoder but not sent yet. */
+    private long mFlacPendingNanos;
+
+    private final AtomicLong mDroppedAudioNanos = mMetrics.counter("audio.dropped_nanos");
+
+    private final AtomicLong mCaptureDroppedNanos = mMetrics.counter("capture.dropped_nanos");
+
+    /** The audio of the current utterance since the last final result. */
+    private AudioHistory mReplay;
+    private int mReplaySampleRate;
+
+    /** The capture time of the oldest audio in {@link #mReplay}. */
+    private long mReplayStartNanos;
+
+    private final byte[] mReplayChunk = new byte[REPLAY_CHUNK_BYTES];
+
+    /** The number of final results received on the live streams. */
+    private final AtomicLong mFinalResults = new AtomicLong();
+
+    /** The value of {@link #mFinalResults} when {@link #mReplay} was last cleared. */
+    private long mSeenFinalResults;
+
+    private final JitteredBackoff mReconnectBackoff = new JitteredBackoff(RECONNECT_BASE_MILLIS,
+            RECONNECT_MAX_MILLIS, new Random());
+
+    private boolean mReconnectScheduled;
+
+    /** When to reconnect, if {@link #mReconnectScheduled}. */
+    private long mReconnectNanos;
+
+    private final LatencyHistogram mRecoveryTime = mMetrics.histogram("stream.recovery_time");
+    private final AtomicLong mReplayedBytes = mMetrics.counter("stream.replayed_bytes");
+    private final AtomicLong mReconnects = mMetrics.counter("stream.reconnects");
+
+    public static SpeechService from(IBinder binder) {
+        return ((SpeechBinder) binder).getService();
+    }
+
+    /**
+     * Takes a snapshot of the metrics of the service.
+     *
+     * @param binder The binder from {@link #onBind(Intent)}.
+     * @see #getMetrics()
+     */
+    public static MetricsSnapshot metricsFrom(IBinder binder) {
+        return ((SpeechBinder) binder).getMetrics();
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mHandler = new Handler();
+        mTranscriptCache = new TranscriptCache(new File(getCacheDir(), TRANSCRIPT_CACHE_DIRECTORY),
+                TRANSCRIPT_CACHE_ENTRIES, TRANSCRIPT_CACHE_BYTES);
+        mCredentialsInterceptor = new GoogleCredentialsInterceptor();
+        mChannel = newChannel(HOSTNAME, mCredentialsInterceptor);
+        mLoggingCredentialsInterceptor = new GoogleCredentialsInterceptor();
+        mLoggingChannel = newChannel(LOGGING_HOSTNAME, mLoggingCredentialsInterceptor);
+        mTelemetry = new TelemetryReporter(new TelemetrySpool(
+                new File(getFilesDir(), TELEMETRY_DIRECTORY), TELEMETRY_SEGMENT_BYTES,
+                TELEMETRY_MAX_BYTES), TELEMETRY_LOG, Executors.newSingleThreadScheduledExecutor(),
+                TELEMETRY_IDLE_MILLIS, mTelemetryHost);
+        mScheduler = Executors.newSingleThreadScheduledExecutor();
+        fetchAccessToken();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mHandler.removeCallbacks(mFetchAccessTokenRunnable);
+        // The operations are still running; they are picked up again on the next start.
+        if (mLongRunning != null) {
+            mLongRunning.stop();
+            mLongRunning = null;
+        }
+        mHandler = null;
+        closeStreams();
+        mRecognizing = false;
+        if (mFileRecognitionTask != null) {
+            mFileRecognitionTask.cancel(true);
+            mFileRecognitionTask = null;
+        }
+        if (mBatchRecognitionTask != null) {
+            mBatchRecognitionTask.cancel(true);
+            mBatchRecognitionTask = null;
+        }
+        mScheduler.shutdownNow();
+        // Release the gRPC channel.
+        mApi = null;
+        if (mChannel != null && !mChannel.isShutdown()) {
+            try {
+                mChannel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Log.e(TAG, "Error shutting down the gRPC channel.", e);
+            }
+        }
+        mChannel = null;
+        mTelemetry.close();
+        mLoggingAuthenticated = false;
+        mLoggingChannel.shutdown();
+        mLoggingChannel = null;
+    }
+
+    private static ManagedChannel newChannel(String host, ClientInterceptor interceptor) {
+        return OkHttpChannelBuilder.forAddress(host, PORT)
+                .nameResolverFactory(new DnsNameResolverProvider())
+                .keepAliveTime(KEEP_ALIVE_TIME_SECONDS, TimeUnit.SECONDS)
+                .keepAliveTimeout(KEEP_ALIVE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .keepAliveWithoutCalls(false)
+                .idleTimeout(IDLE_TIMEOUT_MINUTES, TimeUnit.MINUTES)
+                .intercept(interceptor)
+                .build();
+    }
+
+    /**
+     * Spools the record of a call. This can be called from any thread.
+     */
+    private void recordSession(SessionRecord record) {
+        mTelemetry.record(record.toLogEntry(System.currentTimeMillis()));
+    }
+
+    private final TelemetryReporter.Host mTelemetryHost = new TelemetryReporter.Host() {
+        @Override
+        public boolean isRecognizing() {
+            return mRecognizing;
+        }
+
+        @Override
+        public String readProjectId() {
+            final InputStream stream = getResources().openRawResource(R.raw.credential);
+            try {
+                final ByteArrayOutputStream json = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[4096];
+                int read;
+                while ((read = stream.read(buffer)) > 0) {
+                    json.write(buffer, 0, read);
+                }
+                return new JSONObject(json.toString("UTF-8")).getString("project_id");
+            } catch (IOException | JSONException e) {
+                Log.w(TAG, "Cannot read the project of the credential.", e);
+                return null;
+            } finally {
+                closeQuietly(stream);
+            }
+        }
+
+        @Override
+        public void onUploaded(int records) {
+            Log.i(TAG, "Uploaded " + records + " telemetry records.");
+        }
+
+        @Override
+        public void onError(Exception e) {
+            Log.w(TAG, "Error spooling or uploading telemetry; retrying later.", e);
+        }
+    };
+
+    /**
+     * Connects the channel so that the first utterance does not wait for the DNS lookup and the
+     * TLS and HTTP/2 handshakes. The channel only connects for a call, so this makes the cheapest
+     * authenticated call there is: listing at most one of our own operations. Called once the
+     * first access token is set.
+     */
+    private void warmUpChannel() {
+        mOperations.withDeadlineAfter(WARM_UP_DEADLINE_SECONDS, TimeUnit.SECONDS).listOperations(
+                ListOperationsRequest.newBuilder().setPageSize(1).build(),
+                new StreamObserver<ListOperationsResponse>() {
+                    @Override
+                    public void onNext(ListOperationsResponse response) {
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        Log.w(TAG, "Error warming up the channel.", t);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        Log.d(TAG, "Channel warmed up.");
+                    }
+                });
+    }
+
+    private void fetchAccessToken() {
+        if (mAccessTokenTask != null) {
+            return;
+        }
+        mAccessTokenTask = new AccessTokenTask();
+        mAccessTokenTask.execute();
+    }
+
+    private String getDefaultLanguageCode() {
+        final Locale locale = Locale.getDefault();
+        final StringBuilder language = new StringBuilder(locale.getLanguage());
+        final String country = locale.getCountry();
+        if (!TextUtils.isEmpty(country)) {
+            language.append("-");
+            language.append(country);
+        }
+        return language.toString();
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    /**
+     * Adds a listener for the results. This can be called from any thread.
+     */
+    public void addListener(@NonNull Listener listener) {
+        mDispatcher.addListener(listener);
+    }
+
+    /**
+     * Removes a listener for the results. This can be called from any thread.
+     */
+    public void removeListener(@NonNull Listener listener) {
+        mDispatcher.removeListener(listener);
+    }
+
+    /**
+     * Adds a listener for the changes of the transcript. This can be called from any thread.
+     */
+    public void addTranscriptListener(@NonNull TranscriptListener listener) {
+        mDispatcher.addTranscriptListener(listener);
+    }
+
+    /**
+     * Removes a listener for the changes of the transcript. This can be called from any thread.
+     */
+    public void removeTranscriptListener(@NonNull TranscriptListener listener) {
+        mDispatcher.removeTranscriptListener(listener);
+    }
+
+    /**
+     * Adds a listener for the failures. This can be called from any thread.
+     */
+    public void addErrorListener(@NonNull ErrorListener listener) {
+        mDispatcher.addErrorListener(listener);
+    }
+
+    /**
+     * Removes a listener for the failures. This can be called from any thread.
+     */
+    public void removeErrorListener(@NonNull ErrorListener listener) {
+        mDispatcher.removeErrorListener(listener);
+    }
+
+    /**
+     * Sets where the listeners are called.
+     *
+     * <p>By default, the listeners are called on the main thread at the start of a frame. The
+     * results that arrive in the meantime are delivered together, and only the newest interim
+     * result of each stream among them is delivered. Final results are never dropped.</p>
+     *
+     * @param executor The executor to call the listeners on, or {@code null} for the default.
+     */
+    public void setResultExecutor(@Nullable Executor executor) {
+        mDispatcher.setExecutor(executor != null ? executor : new FrameExecutor());
+    }
+
+    /**
+     * Sets whether to keep a stream open across utterances.
+     *
+     * <p>By default, every utterance opens a new stream and pays for its setup. In the continuous
+     * mode, the stream is kept open after {@link #finishRecognizing()} and reused for the next
+     * utterance. Since the API limits the duration of a stream, a standby stream is opened when
+     * the current one gets old, and takes over at the start of the next utterance. Results of
+     * the old stream keep arriving until it is done. This takes effect on the next call to
+     * {@link #startRecognizing(int)}.</p>
+     *
+     * @param continuous {@code true} to enable the continuous mode.
+     */
+    public void setContinuous(boolean continuous) {
+        mContinuous = continuous;
+    }
+
+    /**
+     * Sets how much audio can wait for the network before {@link #recognize} reacts, and how it
+     * does. The audio is queued while the transport is not ready to send more, so that a slow
+     * uplink does not make the buffers grow without bound. This takes effect on the next stream.
+     *
+     * @param millis The maximum duration of the queued audio in milliseconds.
+     * @param policy What to do when the queue is full.
+     */
+    public void setSendQueue(int millis, OverflowPolicy policy) {
+        mSendQueueNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        mOverflowPolicy = policy;
+        mDowngraded = false;
+    }
+
+    /**
+     * Starts recognizing speech audio. The audio is sent in LINEAR16.
+     *
+     * @param sampleRate The sample rate of the audio.
+     */
+    public void startRecognizing(int sampleRate) {
+        startRecognizing(sampleRate, RecognitionConfig.AudioEncoding.LINEAR16);
+    }
+
+    /**
+     * Starts recognizing speech audio.
+     *
+     * @param sampleRate The sample rate of the audio.
+     * @param encoding   How to encode the audio for upload; either
+     *                   {@link RecognitionConfig.AudioEncoding#LINEAR16} or
+     *                   {@link RecognitionConfig.AudioEncoding#FLAC}. The audio passed to
+     *                   {@link #recognize} is always in LINEAR16. LINEAR16 is replaced by FLAC
+     *                   once the send queue has overflowed under
+     *                   {@link OverflowPolicy#DOWNGRADE_ENCODING}.
+     */
+    public void startRecognizing(int sampleRate, RecognitionConfig.AudioEncoding encoding) {
+        if (encoding != RecognitionConfig.AudioEncoding.LINEAR16
+                && encoding != RecognitionConfig.AudioEncoding.FLAC) {
+            throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+        }
+        if (mApi == null) {
+            Log.w(TAG, "API not ready. Ignoring the request.");
+            return;
+        }
+        if (mRecognizing) {
+            finishRecognizing();
+        }
+        if (mDowngraded && encoding == RecognitionConfig.AudioEncoding.LINEAR16) {
+            encoding = RecognitionConfig.AudioEncoding.FLAC;
+        }
+        mInputBytes = 0;
+        mOutputBytes = 0;
+        mEncoderCpuNanos = 0;
+        mFlacPendingNanos = 0;
+        mSilenceDetector.reset(sampleRate, 1);
+        if (mReplay == null || mReplaySampleRate != sampleRate) {
+            mReplay = new AudioHistory(sampleRate * 2 / 1000 * REPLAY_MILLIS, 2);
+            mReplaySampleRate = sampleRate;
+        }
+        mReplay.clear();
+        mSeenFinalResults = mFinalResults.get();
+        mReconnectScheduled = false;
+        final boolean continuous = mContinuous;
+        if (mStream != null && (!continuous || sampleRate != mSampleRate
+                || encoding != mEncoding || !mStream.isReusable())) {
+            closeStreams();
+        }
+        if (mStream != null && (mStandbyStream != null
+                || mStream.getAge() > STREAM_ROLLOVER_NANOS)) {
+            rollOver();
+        }
+        if (mStream == null) {
+            mSampleRate = sampleRate;
+            mEncoding = encoding;
+            mStream = openStream(continuous);
+            resetEncoder();
+        }
+        mStream.startUtterance();
+        mRecognizing = true;
+    }
+
+    /**
+     * Recognizes the speech audio. This method should be called every time a chunk of byte buffer
+     * is ready.
+     *
+     * @param data The audio data.
+     * @param size The number of elements that are actually relevant in the {@code data}.
+     */
+    public void recognize(byte[] data, int size) {
+        if (!mRecognizing) {
+            return;
+        }
+        // The capture time is not known; this is as good as it gets.
+        mLastCaptureNanos = System.nanoTime();
+        mInputBytes += size;
+        process(data, size);
+    }
+
+    /**
+     * Recognizes the speech audio without copying it. This method should be called every time a
+     * chunk of audio is ready.
+     *
+     * <p>The gRPC transport serializes the request into its own frame buffers before
+     * {@link StreamObserver#onNext} returns, so the buffer is recycled as soon as the request has
+     * been handed over. The audio is only copied when it has to wait for the transport.</p>
+     *
+     * <p>This may block when the network falls behind; see
+     * {@link #setSendQueue(int, OverflowPolicy)}.</p>
+     *
+     * @param buffer The audio data. This method takes the ownership of it.
+     */
+    public void recognize(AudioBuffer buffer) {
+        try {
+            if (!mRecognizing) {
+                return;
+            }
+            mLastCaptureNanos = buffer.captureNanos;
+            mInputBytes += buffer.size;
+            process(buffer.data, buffer.size);
+        } finally {
+            buffer.recycle();
+        }
+    }
+
+    private void process(byte[] data, int size) {
+        remember(data, size);
+        if (mStream.hasFailed()) {
+            // This audio is sent with the rest of the replay if the stream is recovered.
+            recover(false);
+            return;
+        }
+        checkForcedRollover();
+        if (mEncoding == RecognitionConfig.AudioEncoding.FLAC) {
+            encodeFlac(data, size);
+            return;
+        }
+        sendAudio(data, size, durationOf(size), isSilent(data, size));
+    }
+
+    /**
+     * Finishes recognizing speech audio. In the continuous mode, the stream stays open for the
+     * next utterance.
+     */
+    public void finishRecognizing() {
+        if (!mRecognizing) {
+            return;
+        }
+        if (mStream.hasFailed()) {
+            // The transcript of the utterance is lost unless the stream is recovered now.
+            recover(true);
+        }
+        mRecognizing = false;
+        if (mEncoding == RecognitionConfig.AudioEncoding.FLAC) {
+            final long start = Debug.threadCpuTimeNanos();
+            if (mStream.isContinuous()) {
+                // Send the rest of the utterance now, but keep the FLAC stream going.
+                mFlacEncoder.padFrame();
+            } else {
+                mFlacEncoder.finish();
+            }
+            mEncoderCpuNanos += Debug.threadCpuTimeNanos() - start;
+            sendFlacOutput();
+        }
+        if (!mStream.isContinuous()) {
+            mStream.close();
+            if (mReplay.size() > 0) {
+                // The transcript of the utterance is still to come from this stream.
+                final byte[] audio = new byte[mReplay.size()];
+                mReplay.copy(0, audio);
+                mStream.keepForRecovery(new PendingUtterance(audio, mReplayStartNanos,
+                        mSampleRate));
+            }
+            mStream = null;
+        } else if (mStandbyStream == null
+                && mStream.getAge() > STREAM_ROLLOVER_NANOS - STREAM_IDLE_NANOS) {
+            // The next utterance will not fit in this stream; have the next one ready.
+            mStandbyStream = openStream(true);
+        }
+        mLastEncodingStats = new EncodingStats(mEncoding, mInputBytes, mOutputBytes,
+                mEncoderCpuNanos);
+        Log.i(TAG, "Encoded the utterance. " + mLastEncodingStats);
+    }
+
+    /**
+     * @return The duration of the audio waiting for the network, in milliseconds.
+     */
+    public long getQueuedAudioMillis() {
+        final RecognitionStream stream = mStream;
+        return stream == null ? 0 : TimeUnit.NANOSECONDS.toMillis(stream.getQueuedNanos());
+    }
+
+    /**
+     * @return The total duration of the audio dropped because the network could not keep up,
+     * in milliseconds.
+     */
+    public long getDroppedAudioMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mDroppedAudioNanos.get());
+    }
+
+    /**
+     * Counts audio that was dropped before it reached this service, such as by
+     * {@link VoiceRecorder.Callback#onAudioDropped(long)}. This can be called from any thread.
+     *
+     * @param durationNanos The duration of the dropped audio.
+     */
+    public void recordCaptureDropped(long durationNanos) {
+        mCaptureDroppedNanos.addAndGet(durationNanos);
+    }
+
+    /**
+     * Takes a snapshot of the metrics: the audio and messages sent, the streams opened and their
+     * setup time, the result latencies, the errors by their status code, and the access token
+     * refresh time, among others. This can be called from any thread.
+     */
+    public MetricsSnapshot getMetrics() {
+        return mMetrics.snapshot();
+    }
+
+    /**
+     * Counts an error of an API call by its status code.
+     */
+    private void recordError(Throwable t) {
+        mMetrics.counter("errors." + Status.fromThrowable(t).getCode().name()).incrementAndGet();
+    }
+
+    /**
+     * @return The time from a transport error to the audio being sent again on a new stream.
+     */
+    public LatencyHistogram getRecoveryTime() {
+        return mRecoveryTime;
+    }
+
+    /**
+     * @return The total size of the audio sent again after reconnecting, in LINEAR16.
+     */
+    public long getReplayedBytes() {
+        return mReplayedBytes.get();
+    }
+
+    /**
+     * @return The number of times a stream was reconnected after a transport error.
+     */
+    public long getReconnectCount() {
+        return mReconnects.get();
+    }
+
+    /**
+     * @return How the audio of the last finished utterance was encoded, or {@code null} if no
+     * utterance has finished yet.
+     */
+    @Nullable
+    public EncodingStats getLastEncodingStats() {
+        return mLastEncodingStats;
+    }
+
+    /**
+     * @return The latency from the capture of the first audio of each utterance to its first
+     * result.
+     */
+    public LatencyHistogram getFirstInterimLatency() {
+        return mFirstInterimLatency;
+    }
+
+    /**
+     * @return The latency from the capture of the latest audio sent to the final result of each
+     * utterance.
+     */
+    public LatencyHistogram getFinalLatency() {
+        return mFinalLatency;
+    }
+
+    /**
+     * @return The time each chunk of audio spent between its capture and being handed over to
+     * the network.
+     */
+    public LatencyHistogram getQueueingDelay() {
+        return mQueueingDelay;
+    }
+
+    private void encodeFlac(byte[] data, int size) {
+        mFlacPendingNanos += durationOf(size);
+        final long start = Debug.threadCpuTimeNanos();
+        mFlacEncoder.encode(data, size);
+        mEncoderCpuNanos += Debug.threadCpuTimeNanos() - start;
+        sendFlacOutput();
+    }
+
+    private void sendFlacOutput() {
+        if (mFlacEncoder.getOutputSize() == 0) {
+            return;
+        }
+        sendAudio(mFlacEncoder.getOutput(), mFlacEncoder.getOutputSize(), mFlacPendingNanos,
+                false);
+        mFlacEncoder.clearOutput();
+        mFlacPendingNanos = 0;
+    }
+
+    /**
+     * Sends the audio, or queues it until the transport is ready. The data can be reused as soon
+     * as this returns.
+     */
+    private void sendAudio(byte[] data, int size, long durationNanos, boolean silent) {
+        final OverflowPolicy policy = mOverflowPolicy;
+        // Call the streaming recognition API
+        final boolean full = mStream.send(data, size, durationNanos, mLastCaptureNanos, silent,
+                policy == OverflowPolicy.DROP_OLDEST_SILENCE);
+        mOutputBytes += size;
+        if (full && policy == OverflowPolicy.DOWNGRADE_ENCODING && !mDowngraded
+                && mEncoding == RecognitionConfig.AudioEncoding.LINEAR16) {
+            Log.w(TAG, "The network cannot keep up; switching to FLAC from the next utterance.");
+            mDowngraded = true;
+        }
+    }
+
+    /**
+     * Keeps the audio for replaying. The audio before the last final result is forgotten.
+     */
+    private void remember(byte[] data, int size) {
+        final long finalResults = mFinalResults.get();
+        if (finalResults != mSeenFinalResults) {
+            mSeenFinalResults = finalResults;
+            mReplay.clear();
+            // The stream works.
+            mReconnectBackoff.reset();
+        }
+        if (mReplay.size() == 0) {
+            mReplayStartNanos = mLastCaptureNanos;
+        } else {
+            final int overflow = mReplay.size() + size - mReplay.getCapacity();
+            if (overflow > 0) {
+                mReplayStartNanos += durationOf(overflow);
+            }
+        }
+        mReplay.write(data, size);
+    }
+
+    /**
+     * Reconnects the failed stream and sends the audio since the last final result again, if
+     * the error is transient.
+     *
+     * @param now {@code true} to reconnect right away; otherwise, this waits for the backoff.
+     */
+    private void recover(boolean now) {
+        if (!mStream.isRecoverable()) {
+            return;
+        }
+        final long time = System.nanoTime();
+        if (!now) {
+            if (!mReconnectScheduled) {
+                final long delay = mReconnectBackoff.next();
+                Log.w(TAG, "The stream failed; reconnecting in " + delay + " ms.");
+                mReconnectNanos = time + TimeUnit.MILLISECONDS.toNanos(delay);
+                mReconnectScheduled = true;
+            }
+            if (time - mReconnectNanos < 0) {
+                return;
+            }
+        }
+        mReconnectScheduled = false;
+        mReconnects.incrementAndGet();
+        final long failedNanos = mStream.getFailedNanos();
+        // The failed stream has nothing left to close.
+        mStream.abandonTranscript();
+        mStream = openStream(mStream.isContinuous());
+        resetEncoder();
+        mFlacPendingNanos = 0;
+        mStream.startUtterance();
+        final long lastCaptureNanos = mLastCaptureNanos;
+        final int size = mReplay.size();
+        long captureNanos = mReplayStartNanos;
+        int offset = 0;
+        int read;
+        while ((read = mReplay.copy(offset, mReplayChunk)) > 0) {
+            mLastCaptureNanos = captureNanos;
+            if (mEncoding == RecognitionConfig.AudioEncoding.FLAC) {
+                encodeFlac(mReplayChunk, read);
+            } else {
+                sendAudio(mReplayChunk, read, durationOf(read), false);
+            }
+            offset += read;
+            captureNanos += durationOf(read);
+        }
+        mLastCaptureNanos = lastCaptureNanos;
+        mReplayedBytes.addAndGet(size);
+        mRecoveryTime.record(System.nanoTime() - failedNanos);
+        Log.i(TAG, "Reconnected and replayed " + size + " bytes.");
+    }
+
+    /**
+     * Reconnects a stream that failed after its utterance had ended, and sends the audio of the
+     * utterance again. This runs on the main thread, so it does not touch the state of the
+     * utterance being recorded.
+     */
+    private void recover(RecognitionStream failed, PendingUtterance utterance) {
+        if (mApi == null) {
+            return;
+        }
+        mReconnects.incrementAndGet();
+        failed.abandonTranscript();
+        // The queue fits all the audio, so sending it does not block.
+        final RecognitionStream stream = new RecognitionStream(false,
+                TimeUnit.MILLISECONDS.toNanos(REPLAY_MILLIS), true);
+        stream.open(mApi, StreamingRequests.config(getDefaultLanguageCode(),
+                RecognitionConfig.AudioEncoding.LINEAR16, utterance.sampleRate, true, true));
+        stream.startUtterance();
+        final byte[] chunk = new byte[REPLAY_CHUNK_BYTES];
+        long captureNanos = utterance.captureNanos;
+        for (int offset = 0; offset < utterance.audio.length; offset += chunk.length) {
+            final int size = Math.min(chunk.length, utterance.audio.length - offset);
+            System.arraycopy(utterance.audio, offset, chunk, 0, size);
+            final long duration = TimeUnit.SECONDS.toNanos(size / 2) / utterance.sampleRate;
+            stream.send(chunk, size, duration, captureNanos, false, false);
+            captureNanos += duration;
+        }
+        stream.close();
+        stream.keepForRecovery(utterance);
+        mReplayedBytes.addAndGet(utterance.audio.length);
+        mRecoveryTime.record(System.nanoTime() - failed.getFailedNanos());
+        Log.i(TAG, "Reconnected and replayed " + utterance.audio.length
+                + " bytes of a finished utterance.");
+    }
+
+    private long durationOf(int size) {
+        return TimeUnit.SECONDS.toNanos(size / 2) / mSampleRate;
+    }
+
+    /**
+     * @return {@code true} if the audio can be dropped when the send queue is full.
+     */
+    private boolean isSilent(byte[] data, int size) {
+        return mOverflowPolicy == OverflowPolicy.DROP_OLDEST_SILENCE
+                && !mSilenceDetector.isHearingVoice(data, size);
+    }
+
+    private RecognitionStream openStream(boolean continuous) {
+        final RecognitionStream stream = new RecognitionStream(continuous, mSendQueueNanos,
+                true);
+        stream.open(mApi, StreamingRequests.config(getDefaultLanguageCode(), mEncoding,
+                mSampleRate, true, !continuous));
+        return stream;
+    }
+
+    /**
+     * Prepares the encoder for a new stream.
+     */
+    private void resetEncoder() {
+        if (mEncoding != RecognitionConfig.AudioEncoding.FLAC) {
+            return;
+        }
+        if (mFlacEncoder == null || mFlacEncoderSampleRate != mSampleRate) {
+            mFlacEncoder = new FlacEncoder(mSampleRate);
+            mFlacEncoderSampleRate = mSampleRate;
+        } else {
+            mFlacEncoder.reset();
+        }
+    }
+
+    /**
+     * Hands over from the current stream to the standby stream. This is only called between
+     * utterances, or when the current stream is about to hit the limit. The audio sent so far
+     * stays with the current stream, which keeps delivering its results until it is done.
+     */
+    private void rollOver() {
+        if (mRecognizing && mEncoding == RecognitionConfig.AudioEncoding.FLAC) {
+            mFlacEncoder.finish();
+            sendFlacOutput();
+        }
+        mStream.close();
+        mStream = mStandbyStream != null && mStandbyStream.isReusable()
+                ? mStandbyStream : null;
+        if (mStream == null) {
+            if (mStandbyStream != null) {
+                mStandbyStream.close();
+            }
+            mStream = openStream(true);
+        }
+        mStandbyStream = null;
+        resetEncoder();
+        if (mRecognizing) {
+            mStream.startUtterance();
+        }
+    }
+
+    private void checkForcedRollover() {
+        if (mStream.isContinuous() && mStream.getAge() > STREAM_FORCED_ROLLOVER_NANOS) {
+            Log.w(TAG, "The utterance is too long for the stream; rolling over.");
+            rollOver();
+        }
+    }
+
+    private void closeStreams() {
+        if (mStream != null) {
+            mStream.close();
+            mStream = null;
+        }
+        if (mStandbyStream != null) {
+            mStandbyStream.close();
+            mStandbyStream = null;
+        }
+    }
+
+    /**
+     * Recognize all data from the specified {@link InputStream}.
+     *
+     * <p>The audio is either a WAV file or raw LINEAR16 at {@link #SAMPLE_RATE}. It is read a
+     * chunk at a time on a background thread and streamed as fast as the network takes it, so
+     * the memory used does not depend on the size of the file. Only the final results are
+     * delivered to the listeners. A recognition already in progress is cancelled.</p>
+     *
+     * <p>The transcripts are cached by the content of the file and the configuration. A raw
+     * resource is digested in place and looked up before anything is sent, so the same resource
+     * is only sent once. Other streams cannot be read twice without copying them, so they are
+     * digested as they are sent, and their transcripts are stored when they are done.</p>
+     *
+     * @param stream The audio data. This is closed when it has been read.
+     */
+    public void recognizeInputStream(InputStream stream) {
+        if (mApi == null) {
+            Log.w(TAG, "API not ready. Ignoring the request.");
+            closeQuietly(stream);
+            return;
+        }
+        if (mFileRecognitionTask != null) {
+            mFileRecognitionTask.cancel(true);
+        }
+        mFileRecognitionTask = new FileRecognitionTask(mApi, stream, getDefaultLanguageCode());
+        mFileRecognitionTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Sets the limits of {@link #recognizeInBatch(InputStream)}. This takes effect on the next
+     * recording.
+     *
+     * @param concurrency      The maximum number of segments being recognized at once. This
+     *                         also bounds the memory used.
+     * @param maxSegmentMillis The maximum length of a segment in milliseconds. This is limited
+     *                         to a minute by the API.
+     */
+    public void setBatchLimits(int concurrency, int maxSegmentMillis) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Invalid concurrency: " + concurrency);
+        }
+        mBatchConcurrency = concurrency;
+        mBatchSegmentMillis = Math.max(BatchRecognizer.CHUNK_MILLIS,
+                Math.min(maxSegmentMillis, MAX_BATCH_SEGMENT_MILLIS));
+    }
+
+    /**
+     * Recognizes a long recording in segments that are recognized at the same time.
+     *
+     * <p>The audio is either a WAV file or raw LINEAR16 at {@link #SAMPLE_RATE}. It is cut into
+     * segments at pauses, and each segment is encoded in FLAC and sent in a Recognize call of its
+     * own. The calls share the channel, so they are multiplexed on a single HTTP/2 connection.
+     * The transcripts of the segments are delivered to the listeners as final results, in the
+     * order of the segments. A segment that keeps failing is reported to the
+     * {@link ErrorListener}s in its place. A recording already in progress is cancelled.</p>
+     *
+     * @param stream The audio data. This is closed when it has been read.
+     * @see #setBatchLimits(int, int)
+     */
+    public void recognizeInBatch(InputStream stream) {
+        if (mApi == null) {
+            Log.w(TAG, "API not ready. Ignoring the request.");
+            closeQuietly(stream);
+            return;
+        }
+        if (mBatchRecognitionTask != null) {
+            mBatchRecognitionTask.cancel(true);
+        }
+        mBatchRecognitionTask = new BatchRecognitionTask(mApi, stream, getDefaultLanguageCode(),
+                mBatchConcurrency, TimeUnit.MILLISECONDS.toNanos(mBatchSegmentMillis),
+                mScheduler);
+        mBatchRecognitionTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Recognizes a long recording with LongRunningRecognize, without tying up a streaming
+     * session.
+     *
+     * <p>The audio is either a WAV file or raw LINEAR16 at {@link #SAMPLE_RATE}. It is encoded in
+     * FLAC on a background thread and sent inline, so it is limited to 10 MB of FLAC by the API;
+     * use {@link #recognizeLongRunning(String, RecognitionConfig.AudioEncoding, int)} for longer
+     * recordings. The operation is polled until it is done, and the results are delivered to the
+     * listeners as final ones. The operation survives the service being restarted. A recording
+     * that is too long or that fails is reported to the {@link ErrorListener}s.</p>
+     *
+     * @param stream The audio data. This is closed when it has been read.
+     */
+    public void recognizeLongRunning(InputStream stream) {
+        if (mLongRunning == null) {
+            Log.w(TAG, "API not ready. Ignoring the request.");
+            closeQuietly(stream);
+            return;
+        }
+        new LongRunningUploadTask(mLongRunning, stream, getDefaultLanguageCode())
+                .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Recognizes a recording in Google Cloud Storage with LongRunningRecognize.
+     *
+     * @param uri        The URI of the audio in the form of {@code gs://bucket_name/object_name}.
+     * @param encoding   The encoding of the audio.
+     * @param sampleRate The sample rate of the audio.
+     * @see #recognizeLongRunning(InputStream)
+     */
+    public void recognizeLongRunning(String uri, RecognitionConfig.AudioEncoding encoding,
+            int sampleRate) {
+        if (mLongRunning == null) {
+            Log.w(TAG, "API not ready. Ignoring the request.");
+            return;
+        }
+        mLongRunning.submit(RecognitionConfig.newBuilder()
+                        .setEncoding(encoding)
+                        .setSampleRateHertz(sampleRate)
+                        .setLanguageCode(getDefaultLanguageCode())
+                        .build(),
+                RecognitionAudio.newBuilder().setUri(uri).build());
+    }
+
+    /**
+     * @return The names of the long-running operations that have not finished yet.
+     */
+    public Set<String> getLongRunningOperations() {
+        return mOperationStore.load();
+    }
+
+    /**
+     * Cancels a long-running operation. Its results are not delivered.
+     *
+     * @param name The name of the operation.
+     * @see #getLongRunningOperations()
+     */
+    public void cancelLongRunningRecognition(String name) {
+        final LongRunningRecognizer longRunning = mLongRunning;
+        if (longRunning == null) {
+            mOperationStore.save(name, false);
+            return;
+        }
+        longRunning.cancel(name);
+    }
+
+    private static void closeQuietly(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing the input", e);
+        }
+    }
+
+    /**
+     * A streaming recognition call. This receives the responses and measures how long the audio
+     * sent on it takes to be recognized. The audio is sent only as fast as the transport is
+     * ready for it; the rest waits in an {@link AudioSendQueue}.
+     */
+    private class RecognitionStream implements
+            ClientResponseObserver<StreamingRecognizeRequest, StreamingRecognizeResponse>,
+            AudioSendQueue.Sink {
+
+        private final boolean mContinuous;
+
+        /** Whether the audio is being captured now, rather than read from a file. */
+        private final boolean mLive;
+
+        private final AudioSendQueue mQueue;
+
+        /** Where to collect the final results, if anywhere. */
+        private TranscriptCollector mCollector;
+
+        /** The index of this stream in {@link #mCollector}. */
+        private int mCollectorIndex;
+
+        private ClientCallStreamObserver<StreamingRecognizeRequest> mRequestObserver;
+
+        private long mOpenedNanos;
+
+        /** When the latest audio was sent, or when this was opened. */
+        private volatile long mLastSentNanos;
+
+        /** Set when the server has ended the call. */
+        private volatile boolean mDone;
+
+        /** When the call failed, if {@link #mFailed}. */
+        private volatile long mFailedNanos;
+
+        private volatile boolean mFailed;
+
+        /** Only used on the gRPC thread until the call fails. */
+        private final TranscriptAssembler mAssembler = new TranscriptAssembler();
+
+        /** Set if the call failed for a reason that may go away by retrying. */
+        private volatile boolean mRecoverable;
+
+        /** Set when the first audio of the current utterance is sent. */
+        private volatile boolean mAudioSent;
+
+        /** The capture time of the first audio of the current utterance. */
+        private volatile long mFirstCaptureNanos;
+
+        /** The capture time of the latest audio sent. */
+        private volatile long mLatestCaptureNanos;
+
+        /** The queueing delay of the latest audio sent. */
+        private volatile long mLatestQueueingNanos;
+
+        /** Incremented for each utterance. */
+        private volatile int mUtterance;
+
+        /** The utterance that {@link #mFirstInterimNanos} is for. Only used on the gRPC thread. */
+        private int mFirstInterimUtterance = -1;
+
+        /** The latency of the first result of the utterance. Only used on the gRPC thread. */
+        private long mFirstInterimNanos = -1;
+
+        /**
+         * The counts of the audio sent are written under the lock of {@link #mQueue}, and read
+         * after {@link AudioSendQueue#abort()}. The rest is only used on the gRPC thread.
+         */
+        private final SessionRecord mRecord = new SessionRecord();
+
+        /** Set when the transport has first become ready. Only used on the gRPC thread. */
+        private boolean mReady;
+
+        /** Set when a final result is received. Guarded by {@code this}. */
+        private boolean mFinalReceived;
+
+        /** The utterance to send again if this fails before its final result. */
+        private PendingUtterance mPending;
+
+        RecognitionStream(boolean continuous, long queueNanos, boolean live) {
+            mContinuous = continuous;
+            mLive = live;
+            mQueue = new AudioSendQueue(this, queueNanos);
+            mRecord.live = live;
+        }
+
+        void open(SpeechGrpc.SpeechStub api, StreamingRecognitionConfig config) {
+            mOpenedNanos = System.nanoTime();
+            mLastSentNanos = mOpenedNanos;
+            mStreamsOpened.incrementAndGet();
+            api.streamingRecognize(this);
+            mMessagesSent.incrementAndGet();
+            mRecord.messagesSent++;
+            // Nothing is queued yet, so the queue does not touch the call concurrently.
+            mRequestObserver.onNext(StreamingRequests.configRequest(config));
+        }
+
+        boolean isContinuous() {
+            return mContinuous;
+        }
+
+        /**
+         * Collects the final results of this stream. Must be called before {@link #open}.
+         */
+        void collectTranscripts(TranscriptCollector collector) {
+            mCollector = collector;
+            mCollectorIndex = collector.addStream();
+        }
+
+        long getAge() {
+            return System.nanoTime() - mOpenedNanos;
+        }
+
+        /**
+         * @return {@code true} if the call ended with an error.
+         */
+        boolean hasFailed() {
+            return mFailed;
+        }
+
+        /**
+         * @return {@code true} if the call failed for a reason that may go away by retrying, such
+         * as a dropped connection.
+         */
+        boolean isRecoverable() {
+            return mRecoverable;
+        }
+
+        long getFailedNanos() {
+            return mFailedNanos;
+        }
+
+        private void finishRecord(Status.Code status) {
+            mRecord.durationNanos = System.nanoTime() - mOpenedNanos;
+            mRecord.status = status;
+            recordSession(mRecord);
+        }
+
+        /**
+         * Clears the unfinished transcript of this failed stream for the transcript listeners.
+         * The replayed audio is recognized again on the new stream.
+         */
+        void abandonTranscript() {
+            final TranscriptDelta delta = mAssembler.abandon();
+            if (delta != null) {
+                mDispatcher.dispatch(this, null, false, null, delta);
+            }
+        }
+
+        /**
+         * Keeps the audio of the utterance sent on this half-closed stream, so that it can be
+         * sent again on a new stream if this fails before the final result of the utterance.
+         */
+        synchronized void keepForRecovery(PendingUtterance utterance) {
+            if (mFinalReceived || mDone && !mFailed) {
+                return;
+            }
+            mPending = utterance;
+            if (mFailed) {
+                scheduleRecovery();
+            }
+        }
 
         /**
-         * Called when a new piece of text was recognized by the Speech API.
+         * Reconnects on the main thread if this failed while keeping an utterance.
+         */
+        private synchronized void scheduleRecovery() {
+            final PendingUtterance utterance = mPending;
+            mPending = null;
+            final Handler handler = mHandler;
+            if (utterance == null || !mRecoverable || handler == null) {
+                return;
+            }
+            if (utterance.attempts >= FINISHED_RECONNECT_ATTEMPTS) {
+                Log.w(TAG, "Giving up on the utterance after " + utterance.attempts
+                        + " reconnects.");
+                return;
+            }
+            final long delay = utterance.attempts == 0 ? 0 : utterance.backoff.next();
+            utterance.attempts++;
+            handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    recover(RecognitionStream.this, utterance);
+                }
+            }, delay);
+        }
+
+        /**
+         * @return {@code true} if another utterance can be sent on this stream.
+         */
+        boolean isReusable() {
+            return mContinuous && !mDone
+                    && System.nanoTime() - mLastSentNanos < STREAM_IDLE_NANOS;
+        }
+
+        void startUtterance() {
+            mAudioSent = false;
+            mUtterance++;
+        }
+
+        /**
+         * Sends the audio, or queues it until the transport is ready.
          *
-         * @param text    The text.
-         * @param isFinal {@code true} when the API finished processing audio.
+         * @return {@code true} if the queue was full.
+         * @see AudioSendQueue#put
          */
-        void onSpeechRecognized(String text, boolean isFinal);
+        boolean send(byte[] data, int size, long durationNanos, long captureNanos,
+                boolean silent, boolean dropSilence) {
+            try {
+                return mQueue.put(data, size, durationNanos, captureNanos, silent, dropSilence);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return true;
+            }
+        }
 
-    }
+        long getQueuedNanos() {
+            return mQueue.getQueuedNanos();
+        }
 
-    private static final String TAG = "SpeechService";
+        @Override
+        public boolean isReady() {
+            return mRequestObserver.isReady();
+        }
 
-    private static final String PREFS = "SpeechService";
-    private static final String PREF_ACCESS_TOKEN_VALUE = "access_token_value";
-    private static final String PREF_ACCESS_TOKEN_EXPIRATION_TIME = "access_token_expiration_time";
+        /**
+         * Hands the audio over to the transport. The latency is calculated from the capture time.
+         */
+        @Override
+        public void send(ByteString audio, long captureNanos) {
+            mRequestObserver.onNext(StreamingRequests.audioRequest(audio));
+            mMessagesSent.incrementAndGet();
+            mBytesSent.addAndGet(audio.size());
+            mRecord.messagesSent++;
+            mRecord.bytesSent += audio.size();
+            final long now = System.nanoTime();
+            mLastSentNanos = now;
+            if (!mLive) {
+                return;
+            }
+            final long queueing = now - captureNanos;
+            mQueueingDelay.record(queueing);
+            mLatestCaptureNanos = captureNanos;
+            mLatestQueueingNanos = queueing;
+            if (!mAudioSent) {
+                mFirstCaptureNanos = captureNanos;
+                mAudioSent = true;
+            }
+        }
 
-    /** We reuse an access token if its expiration time is longer than this. */
-    private static final int ACCESS_TOKEN_EXPIRATION_TOLERANCE = 30 * 60 * 1000; // thirty minutes
-    /** We refresh the current access token before it expires. */
-    private static final int ACCESS_TOKEN_FETCH_MARGIN = 60 * 1000; // one minute
+        /**
+         * Half-closes the call once the queued audio has been sent. The results for the audio
+         * sent so far are still delivered.
+         */
+        void close() {
+            mQueue.finish();
+        }
 
-    public static final List<String> SCOPE =
-            Collections.singletonList("https://www.googleapis.com/auth/cloud-platform");
-    private static final String HOSTNAME = "speech.googleapis.com";
-    private static final int PORT = 443;
+        @Override
+        public void finish() {
+            mRequestObserver.onCompleted();
+        }
 
-    private final SpeechBinder mBinder = new SpeechBinder();
-    private final ArrayList<Listener> mListeners = new ArrayList<>();
-    private volatile AccessTokenTask mAccessTokenTask;
-    private SpeechGrpc.SpeechStub mApi;
-    private static Handler mHandler;
+        @Override
+        public void onDropped(long durationNanos) {
+            mDroppedAudioNanos.addAndGet(durationNanos);
+        }
+
+        @Override
+        public void beforeStart(ClientCallStreamObserver<StreamingRecognizeRequest> observer) {
+            mRequestObserver = observer;
+            observer.setOnReadyHandler(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mReady) {
+                        mReady = true;
+                        mStreamSetupTime.record(System.nanoTime() - mOpenedNanos);
+                    }
+                    mQueue.onReady();
+                }
+            });
+        }
 
-    private final StreamObserver<StreamingRecognizeResponse> mResponseObserver
-            = new StreamObserver<StreamingRecognizeResponse>() {
         @Override
         public void onNext(StreamingRecognizeResponse response) {
+            final long now = System.nanoTime();
             String text = null;
             boolean isFinal = false;
             if (response.getResultsCount() > 0) {
@@ -122,196 +1625,346 @@ public class SpeechService extends Service {
                     text = alternative.getTranscript();
                 }
             }
-            if (text != null) {
-                for (Listener listener : mListeners) {
-                    listener.onSpeechRecognized(text, isFinal);
+            if (isFinal && mLive) {
+                mFinalResults.incrementAndGet();
+            }
+            if (isFinal) {
+                synchronized (this) {
+                    mFinalReceived = true;
+                    mPending = null;
+                }
+            }
+            mRecord.results++;
+            if (isFinal) {
+                mRecord.finalResults++;
+            }
+            if (text != null && isFinal && mCollector != null) {
+                mCollector.add(mCollectorIndex, text);
+            }
+            final TranscriptDelta delta = mAssembler.update(response);
+            if (text == null && delta == null) {
+                return;
+            }
+            if (!mLive) {
+                mDispatcher.dispatch(this, text, isFinal, null, delta);
+            } else {
+                long finalNanos = -1;
+                if (mAudioSent) {
+                    final int utterance = mUtterance;
+                    if (mFirstInterimUtterance != utterance) {
+                        mFirstInterimUtterance = utterance;
+                        mFirstInterimNanos = now - mFirstCaptureNanos;
+                        mFirstInterimLatency.record(mFirstInterimNanos);
+                        if (mRecord.firstInterimNanos < 0) {
+                            mRecord.firstInterimNanos = mFirstInterimNanos;
+                        }
+                    }
+                    if (isFinal) {
+                        finalNanos = now - mLatestCaptureNanos;
+                        mFinalLatency.record(finalNanos);
+                        mRecord.finalNanos = finalNanos;
+                    } else {
+                        mInterimLatency.record(now - mLatestCaptureNanos);
+                    }
                 }
+                final RecognitionLatency latency = new RecognitionLatency(mFirstInterimNanos,
+                        finalNanos, mLatestQueueingNanos);
+                mDispatcher.dispatch(this, text, isFinal, latency, delta);
             }
         }
 
         @Override
         public void onError(Throwable t) {
+            recordError(t);
+            final Status.Code code = Status.fromThrowable(t).getCode();
+            mRecoverable = code == Status.Code.UNAVAILABLE
+                    || code == Status.Code.DEADLINE_EXCEEDED
+                    || code == Status.Code.ABORTED
+                    || code == Status.Code.INTERNAL;
+            mFailedNanos = System.nanoTime();
+            mFailed = true;
+            mDone = true;
+            mQueue.abort();
+            finishRecord(code);
+            collectorStreamDone(false);
             Log.e(TAG, "Error calling the API.", t);
+            scheduleRecovery();
         }
 
         @Override
         public void onCompleted() {
+            synchronized (this) {
+                mPending = null;
+            }
+            mDone = true;
+            mQueue.abort();
+            finishRecord(Status.Code.OK);
+            collectorStreamDone(true);
             Log.i(TAG, "API completed.");
         }
 
-    };
+        private void collectorStreamDone(boolean successful) {
+            if (mCollector == null) {
+                return;
+            }
+            try {
+                mCollector.onStreamDone(successful);
+            } catch (IOException e) {
+                Log.w(TAG, "Error storing the transcripts.", e);
+            }
+        }
+
+    }
+
+    /**
+     * Streams an audio file for recognition. A new stream is opened for every
+     * {@link #STREAM_ROLLOVER_NANOS} of audio, since the API limits the duration of a stream.
+     */
+    private class FileRecognitionTask extends AsyncTask<Void, Void, Void> {
+
+        private final SpeechGrpc.SpeechStub mApi;
+
+        private final InputStream mInput;
+
+        private final String mLanguageCode;
+
+        FileRecognitionTask(SpeechGrpc.SpeechStub api, InputStream input, String languageCode) {
+            mApi = api;
+            mInput = input;
+            mLanguageCode = languageCode;
+        }
 
-    private final StreamObserver<RecognizeResponse> mFileResponseObserver
-            = new StreamObserver<RecognizeResponse>() {
         @Override
-        public void onNext(RecognizeResponse response) {
-            String text = null;
-            if (response.getResultsCount() > 0) {
-                final SpeechRecognitionResult result = response.getResults(0);
-                if (result.getAlternativesCount() > 0) {
-                    final SpeechRecognitionAlternative alternative = result.getAlternatives(0);
-                    text = alternative.getTranscript();
+        protected Void doInBackground(Void... voids) {
+            RecognitionStream stream = null;
+            try {
+                // A resource can be digested in place, so that the cache is looked up before
+                // anything is sent. Anything else is digested as it is sent, and only stored.
+                byte[] digest = null;
+                InputStream input = mInput;
+                if (isCheapToRewind(mInput)) {
+                    digest = TranscriptCache.digestAndRewind(mInput);
+                } else {
+                    input = new DigestInputStream(mInput, TranscriptCache.newDigest());
                 }
-            }
-            if (text != null) {
-                for (Listener listener : mListeners) {
-                    listener.onSpeechRecognized(text, true);
+                final AudioFileReader reader = new AudioFileReader(input, SAMPLE_RATE);
+                final int sampleRate = reader.getSampleRate();
+                final StreamingRecognitionConfig config = StreamingRequests.config(
+                        mLanguageCode, RecognitionConfig.AudioEncoding.LINEAR16, sampleRate,
+                        false, false);
+                if (digest != null) {
+                    final List<String> cached = mTranscriptCache.get(
+                            TranscriptCache.key(digest, config.toByteArray()));
+                    if (cached != null) {
+                        Log.i(TAG, "Found the transcripts of the file in the cache.");
+                        for (String transcript : cached) {
+                            mDispatcher.dispatch(this, transcript, true, null);
+                        }
+                        return null;
+                    }
+                }
+                Log.i(TAG, "Recognizing a file: " + sampleRate + " Hz, "
+                        + reader.getChannelCount() + " channel(s)");
+                final TranscriptCollector collector = new TranscriptCollector(mTranscriptCache);
+                final byte[] buffer = new byte[FILE_CHUNK_BYTES];
+                long streamNanos = 0;
+                int size;
+                while (!isCancelled() && (size = reader.read(buffer)) > 0) {
+                    if (stream == null || streamNanos >= STREAM_ROLLOVER_NANOS) {
+                        if (stream != null) {
+                            stream.close();
+                        }
+                        stream = new RecognitionStream(false, FILE_SEND_QUEUE_NANOS, false);
+                        stream.collectTranscripts(collector);
+                        stream.open(mApi, config);
+                        streamNanos = 0;
+                    }
+                    final long duration = TimeUnit.SECONDS.toNanos(size / 2) / sampleRate;
+                    // Blocks while the network is behind, which keeps the memory use constant.
+                    stream.send(buffer, size, duration, System.nanoTime(), false, false);
+                    streamNanos += duration;
                 }
+                if (!isCancelled()) {
+                    if (digest == null) {
+                        // Whatever follows the audio is part of the file, too.
+                        while (input.read(buffer) != -1) {
+                            // Digested as it is read.
+                        }
+                        digest = ((DigestInputStream) input).getMessageDigest().digest();
+                    }
+                    collector.onReadingDone(TranscriptCache.key(digest, config.toByteArray()));
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error loading the input", e);
+            } finally {
+                if (stream != null) {
+                    stream.close();
+                }
+                closeQuietly(mInput);
             }
+            return null;
         }
 
-        @Override
-        public void onError(Throwable t) {
-            Log.e(TAG, "Error calling the API.", t);
+        /**
+         * @return Whether the stream can be marked and reset without buffering it.
+         */
+        private boolean isCheapToRewind(InputStream input) {
+            return input instanceof AssetManager.AssetInputStream
+                    || input instanceof ByteArrayInputStream;
         }
 
-        @Override
-        public void onCompleted() {
-            Log.i(TAG, "API completed.");
-        }
+    }
 
-    };
+    /**
+     * Runs a {@link BatchRecognizer} in the background and delivers its transcripts as final
+     * results.
+     */
+    private class BatchRecognitionTask extends AsyncTask<Void, Void, Void>
+            implements BatchRecognizer.Callback {
 
-    private StreamObserver<StreamingRecognizeRequest> mRequestObserver;
+        private final InputStream mInput;
 
-    public static SpeechService from(IBinder binder) {
-        return ((SpeechBinder) binder).getService();
-    }
+        private final BatchRecognizer mRecognizer;
 
-    @Override
-    public void onCreate() {
-        super.onCreate();
-        mHandler = new Handler();
-        fetchAccessToken();
-    }
+        private long mStartNanos;
 
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
-        mHandler.removeCallbacks(mFetchAccessTokenRunnable);
-        mHandler = null;
-        // Release the gRPC channel.
-        if (mApi != null) {
-            final ManagedChannel channel = (ManagedChannel) mApi.getChannel();
-            if (channel != null && !channel.isShutdown()) {
-                try {
-                    channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
-                } catch (InterruptedException e) {
-                    Log.e(TAG, "Error shutting down the gRPC channel.", e);
-                }
+        BatchRecognitionTask(SpeechGrpc.SpeechStub api, InputStream input, String languageCode,
+                int concurrency, long segmentNanos, ScheduledExecutorService scheduler) {
+            mInput = input;
+            mRecognizer = new BatchRecognizer(api, languageCode, concurrency, segmentNanos,
+                    scheduler, this);
+        }
+
+        @Override
+        protected Void doInBackground(Void... voids) {
+            mStartNanos = System.nanoTime();
+            try {
+                mRecognizer.recognize(mInput, SAMPLE_RATE);
+            } catch (IOException e) {
+                Log.e(TAG, "Error loading the input", e);
+            } catch (InterruptedException e) {
+                Log.i(TAG, "Cancelled the batch recognition.");
+            } finally {
+                closeQuietly(mInput);
             }
-            mApi = null;
+            return null;
         }
-    }
 
-    private void fetchAccessToken() {
-        if (mAccessTokenTask != null) {
-            return;
+        @Override
+        public void onTranscript(String transcript) {
+            mDispatcher.dispatch(this, transcript, true, null);
         }
-        mAccessTokenTask = new AccessTokenTask();
-        mAccessTokenTask.execute();
-    }
 
-    private String getDefaultLanguageCode() {
-        final Locale locale = Locale.getDefault();
-        final StringBuilder language = new StringBuilder(locale.getLanguage());
-        final String country = locale.getCountry();
-        if (!TextUtils.isEmpty(country)) {
-            language.append("-");
-            language.append(country);
+        @Override
+        public void onError(int segment, Throwable t) {
+            recordError(t);
+            Log.e(TAG, "Error recognizing segment " + segment + ".", t);
         }
-        return language.toString();
-    }
 
-    @Nullable
-    @Override
-    public IBinder onBind(Intent intent) {
-        return mBinder;
-    }
+        @Override
+        public void onFailed(int segment, Throwable t) {
+            // Status alone is AsyncTask.Status here.
+            mDispatcher.dispatchError(this, io.grpc.Status.fromThrowable(t)
+                    .augmentDescription("Gave up on segment " + segment)
+                    .asRuntimeException());
+        }
 
-    public void addListener(@NonNull Listener listener) {
-        mListeners.add(listener);
-    }
+        @Override
+        public void onCompleted(int segments) {
+            Log.i(TAG, "Recognized " + segments + " segments in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartNanos) + " ms.");
+        }
 
-    public void removeListener(@NonNull Listener listener) {
-        mListeners.remove(listener);
     }
 
     /**
-     * Starts recognizing speech audio.
-     *
-     * @param sampleRate The sample rate of the audio.
+     * Encodes an audio file in FLAC and submits it to LongRunningRecognize.
      */
-    public void startRecognizing(int sampleRate) {
-        if (mApi == null) {
-            Log.w(TAG, "API not ready. Ignoring the request.");
-            return;
+    private class LongRunningUploadTask extends AsyncTask<Void, Void, Void> {
+
+        private final LongRunningRecognizer mRecognizer;
+
+        private final InputStream mInput;
+
+        private final String mLanguageCode;
+
+        LongRunningUploadTask(LongRunningRecognizer recognizer, InputStream input,
+                String languageCode) {
+            mRecognizer = recognizer;
+            mInput = input;
+            mLanguageCode = languageCode;
         }
-        // Configure the API
-        mRequestObserver = mApi.streamingRecognize(mResponseObserver);
-        mRequestObserver.onNext(StreamingRecognizeRequest.newBuilder()
-                .setStreamingConfig(StreamingRecognitionConfig.newBuilder()
-                        .setConfig(RecognitionConfig.newBuilder()
-                                .setLanguageCode(getDefaultLanguageCode())
-                                .setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
-                                .setSampleRateHertz(sampleRate)
-                                .build())
-                        .setInterimResults(true)
-                        .setSingleUtterance(true)
-                        .build())
-                .build());
-    }
 
-    /**
-     * Recognizes the speech audio. This method should be called every time a chunk of byte buffer
-     * is ready.
-     *
-     * @param data The audio data.
-     * @param size The number of elements that are actually relevant in the {@code data}.
-     */
-    public void recognize(byte[] data, int size) {
-        if (mRequestObserver == null) {
-            return;
+        @Override
+        protected Void doInBackground(Void... voids) {
+            try {
+                mRecognizer.upload(mInput, SAMPLE_RATE, mLanguageCode);
+            } catch (IOException e) {
+                Log.e(TAG, "Error loading the input", e);
+                mDispatcher.dispatchError(this, e);
+            } finally {
+                closeQuietly(mInput);
+            }
+            return null;
         }
-        // Call the streaming recognition API
-        mRequestObserver.onNext(StreamingRecognizeRequest.newBuilder()
-                .setAudioContent(ByteString.copyFrom(data, 0, size))
-                .build());
+
     }
 
     /**
-     * Finishes recognizing speech audio.
+     * Runs tasks on the main thread at the start of the next frame.
      */
-    public void finishRecognizing() {
-        if (mRequestObserver == null) {
-            return;
+    /**
+     * The audio of an utterance whose stream has been half-closed, kept until its final result
+     * in case the stream fails.
+     */
+    private static class PendingUtterance {
+
+        final byte[] audio;
+
+        /** The capture time of the start of {@link #audio}. */
+        final long captureNanos;
+
+        final int sampleRate;
+
+        /**
+         * Paces the reconnects after the first one. Only one stream of the utterance fails at a
+         * time, and this is only used under its lock, as is {@link #attempts}.
+         */
+        final JitteredBackoff backoff = new JitteredBackoff(RECONNECT_BASE_MILLIS,
+                RECONNECT_MAX_MILLIS, new Random());
+
+        /** The number of reconnects so far. */
+        int attempts;
+
+        PendingUtterance(byte[] audio, long captureNanos, int sampleRate) {
+            this.audio = audio;
+            this.captureNanos = captureNanos;
+            this.sampleRate = sampleRate;
         }
-        mRequestObserver.onCompleted();
-        mRequestObserver = null;
+
     }
 
-    /**
-     * Recognize all data from the specified {@link InputStream}.
-     *
-     * @param stream The audio data.
-     */
-    public void recognizeInputStream(InputStream stream) {
-        try {
-            mApi.recognize(
-                    RecognizeRequest.newBuilder()
-                            .setConfig(RecognitionConfig.newBuilder()
-                                    .setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
-                                    .setLanguageCode("en-US")
-                                    .setSampleRateHertz(16000)
-                                    .build())
-                            .setAudio(RecognitionAudio.newBuilder()
-                                    .setContent(ByteString.readFrom(stream))
-                                    .build())
-                            .build(),
-                    mFileResponseObserver);
-        } catch (IOException e) {
-            Log.e(TAG, "Error loading the input", e);
+    private static class FrameExecutor implements Executor {
+
+        private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(@NonNull final Runnable command) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // The Choreographer is only available on the thread with the looper.
+                    Choreographer.getInstance().postFrameCallback(
+                            new Choreographer.FrameCallback() {
+                                @Override
+                                public void doFrame(long frameTimeNanos) {
+                                    command.run();
+                                }
+                            });
+                }
+            });
         }
+
     }
 
     private class SpeechBinder extends Binder {
@@ -320,6 +1973,10 @@ public class SpeechService extends Service {
             return SpeechService.this;
         }
 
+        MetricsSnapshot getMetrics() {
+            return mMetrics.snapshot();
+        }
+
     }
 
     private final Runnable mFetchAccessTokenRunnable = new Runnable() {
@@ -355,7 +2012,16 @@ public class SpeechService extends Service {
             try {
                 final GoogleCredentials credentials = GoogleCredentials.fromStream(stream)
                         .createScoped(SCOPE);
-                final AccessToken token = credentials.refreshAccessToken();
+                final long start = System.nanoTime();
+                final AccessToken token;
+                try {
+                    token = credentials.refreshAccessToken();
+                } catch (IOException e) {
+                    mTokenRefreshFailures.incrementAndGet();
+                    throw e;
+                } finally {
+                    mTokenRefreshTime.record(System.nanoTime() - start);
+                }
                 prefs.edit()
                         .putString(PREF_ACCESS_TOKEN_VALUE, token.getTokenValue())
                         .putLong(PREF_ACCESS_TOKEN_EXPIRATION_TIME,
@@ -371,13 +2037,27 @@ public class SpeechService extends Service {
         @Override
         protected void onPostExecute(AccessToken accessToken) {
             mAccessTokenTask = null;
-            final ManagedChannel channel = new OkHttpChannelProvider()
-                    .builderForAddress(HOSTNAME, PORT)
-                    .nameResolverFactory(new DnsNameResolverProvider())
-                    .intercept(new GoogleCredentialsInterceptor(new GoogleCredentials(accessToken)
-                            .createScoped(SCOPE)))
-                    .build();
-            mApi = SpeechGrpc.newStub(channel);
+            if (accessToken == null || mChannel == null) {
+                return;
+            }
+            // The channel stays; the calls started from now on use the new token.
+            final Credentials credentials =
+                    new GoogleCredentials(accessToken).createScoped(SCOPE);
+            mCredentialsInterceptor.setCredentials(credentials);
+            mLoggingCredentialsInterceptor.setCredentials(credentials);
+            if (!mLoggingAuthenticated) {
+                mLoggingAuthenticated = true;
+                // Uploads what is left from before if nothing happens for a while.
+                mTelemetry.setApi(LoggingServiceV2Grpc.newBlockingStub(mLoggingChannel));
+            }
+            if (mApi == null) {
+                mApi = SpeechGrpc.newStub(mChannel);
+                mOperations = OperationsGrpc.newStub(mChannel);
+                warmUpChannel();
+                mLongRunning = new LongRunningRecognizer(mApi, mOperations, mScheduler,
+                        mOperationStore, mLongRunningCallback);
+                mLongRunning.resume();
+            }
 
             // Schedule access token refresh before it expires
             if (mHandler != null) {
@@ -390,18 +2070,30 @@ public class SpeechService extends Service {
     }
 
     /**
-     * Authenticates the gRPC channel using the specified {@link GoogleCredentials}.
+     * Authenticates the gRPC channel using the {@link GoogleCredentials} set by
+     * {@link #setCredentials(Credentials)}. Calls fail with {@link Status#UNAUTHENTICATED} until
+     * then, without reaching the server.
+     *
+     * <p>The headers are derived from the credentials once for each service and reused until the
+     * credentials are replaced, so starting a call takes no lock. This assumes that the
+     * credentials do not change their metadata by themselves; the access token is refreshed by
+     * replacing the credentials. An instance is only used for a single channel.</p>
      */
     private static class GoogleCredentialsInterceptor implements ClientInterceptor {
 
-        private final Credentials mCredentials;
+        /** Replaced as a whole when the access token is refreshed. */
+        private final AtomicReference<AuthSnapshot> mSnapshot = new AtomicReference<>();
 
-        private Metadata mCached;
+        /** The service URI of each method. */
+        private final ConcurrentHashMap<MethodDescriptor<?, ?>, URI> mServiceUris =
+                new ConcurrentHashMap<>();
 
-        private Map<String, List<String>> mLastMetadata;
-
-        GoogleCredentialsInterceptor(Credentials credentials) {
-            mCredentials = credentials;
+        /**
+         * Replaces the credentials for the calls started from now on. This can be called from
+         * any thread; the calls already started are not affected.
+         */
+        void setCredentials(Credentials credentials) {
+            mSnapshot.set(new AuthSnapshot(credentials));
         }
 
         @Override
@@ -413,17 +2105,18 @@ public class SpeechService extends Service {
                 @Override
                 protected void checkedStart(Listener<RespT> responseListener, Metadata headers)
                         throws StatusException {
-                    Metadata cachedSaved;
-                    URI uri = serviceUri(next, method);
-                    synchronized (this) {
-                        Map<String, List<String>> latestMetadata = getRequestMetadata(uri);
-                        if (mLastMetadata == null || mLastMetadata != latestMetadata) {
-                            mLastMetadata = latestMetadata;
-                            mCached = toHeaders(mLastMetadata);
-                        }
-                        cachedSaved = mCached;
+                    final AuthSnapshot snapshot = mSnapshot.get();
+                    if (snapshot == null) {
+                        throw Status.UNAUTHENTICATED
+                                .withDescription("No access token yet")
+                                .asException();
+                    }
+                    URI uri = mServiceUris.get(method);
+                    if (uri == null) {
+                        uri = serviceUri(next, method);
+                        mServiceUris.put(method, uri);
                     }
-                    headers.merge(cachedSaved);
+                    headers.merge(snapshot.getHeaders(uri));
                     delegate().start(responseListener, headers);
                 }
             };
@@ -472,9 +2165,10 @@ public class SpeechService extends Service {
             }
         }
 
-        private Map<String, List<String>> getRequestMetadata(URI uri) throws StatusException {
+        private static Map<String, List<String>> getRequestMetadata(Credentials credentials,
+                URI uri) throws StatusException {
             try {
-                return mCredentials.getRequestMetadata(uri);
+                return credentials.getRequestMetadata(uri);
             } catch (IOException e) {
                 throw Status.UNAUTHENTICATED.withCause(e).asException();
             }
@@ -494,6 +2188,35 @@ public class SpeechService extends Service {
             return headers;
         }
 
+        /**
+         * Credentials and the headers derived from them. Immutable except for the lazily filled
+         * cache of headers.
+         */
+        private static class AuthSnapshot {
+
+            private final Credentials mCredentials;
+
+            /** The headers for each service URI. */
+            private final ConcurrentHashMap<URI, Metadata> mHeaders = new ConcurrentHashMap<>();
+
+            AuthSnapshot(Credentials credentials) {
+                mCredentials = credentials;
+            }
+
+            /**
+             * @return The headers for the service. They must not be modified.
+             */
+            Metadata getHeaders(URI uri) throws StatusException {
+                Metadata headers = mHeaders.get(uri);
+                if (headers == null) {
+                    headers = toHeaders(getRequestMetadata(mCredentials, uri));
+                    mHeaders.put(uri, headers);
+                }
+                return headers;
+            }
+
+        }
+
     }
 
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import com.google.cloud.speech.v1.RecognitionConfig;
+import com.google.cloud.speech.v1.StreamingRecognitionConfig;
+import com.google.cloud.speech.v1.StreamingRecognizeRequest;
+import com.google.protobuf.ByteString;
+
+
+/**
+ * Builds the requests of streaming recognition calls. The load tests send the same requests as
+ * the app by using this.
+ */
+final class StreamingRequests {
+
+    private StreamingRequests() {
+    }
+
+    /**
+     * @param languageCode    The language of the audio.
+     * @param encoding        The encoding of the audio.
+     * @param sampleRate      The sample rate of the audio.
+     * @param interimResults  Whether to receive interim results.
+     * @param singleUtterance Whether to end the call at the end of the first utterance.
+     * @return The configuration of the call.
+     */
+    static StreamingRecognitionConfig config(String languageCode,
+            RecognitionConfig.AudioEncoding encoding, int sampleRate, boolean interimResults,
+            boolean singleUtterance) {
+        return StreamingRecognitionConfig.newBuilder()
+                .setConfig(RecognitionConfig.newBuilder()
+                        .setLanguageCode(languageCode)
+                        .setEncoding(encoding)
+                        .setSampleRateHertz(sampleRate)
+                        .build())
+                .setInterimResults(interimResults)
+                .setSingleUtterance(singleUtterance)
+                .build();
+    }
+
+    /**
+     * @return The first request of a call.
+     */
+    static StreamingRecognizeRequest configRequest(StreamingRecognitionConfig config) {
+        return StreamingRecognizeRequest.newBuilder()
+                .setStreamingConfig(config)
+                .build();
+    }
+
+    /**
+     * @return A request carrying audio.
+     */
+    static StreamingRecognizeRequest audioRequest(ByteString audio) {
+        return StreamingRecognizeRequest.newBuilder()
+                .setAudioContent(audio)
+                .build();
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import com.google.logging.v2.LogEntry;
+import com.google.logging.v2.LoggingServiceV2Grpc;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.StatusRuntimeException;
+
+
+/**
+ * Spools the telemetry records and uploads them when the recognition has been idle for a while.
+ *
+ * <p>The spool is written and uploaded on a single thread, one thing at a time. An upload is
+ * scheduled every time a record is added, and pushed back while a recognition is in progress.
+ * The uploads wait for {@link #setApi} to be called once the logging API is authenticated; an
+ * upload that came due before that is made as soon as it is called. A failed upload is retried
+ * after the next record, or the next time the service starts. The methods can be called from
+ * any thread.</p>
+ */
+class TelemetryReporter {
+
+    static final long UPLOAD_DEADLINE_SECONDS = 60;
+
+    /**
+     * The surroundings of the reporter.
+     */
+    interface Host {
+
+        /**
+         * @return Whether a recognition is in progress, which postpones the upload.
+         */
+        boolean isRecognizing();
+
+        /**
+         * Reads the project to upload the telemetry to. Called on the telemetry thread.
+         *
+         * @return The project, or {@code null} if it cannot be read.
+         */
+        String readProjectId();
+
+        /**
+         * Called on the telemetry thread when an upload has finished.
+         *
+         * @param records The number of the records uploaded.
+         */
+        void onUploaded(int records);
+
+        /**
+         * Called on the telemetry thread when the spool cannot be written or uploaded.
+         */
+        void onError(Exception e);
+
+    }
+
+    private final TelemetrySpool mSpool;
+
+    private final String mLogId;
+
+    private final ScheduledExecutorService mExecutor;
+
+    private final long mIdleMillis;
+
+    private final Host mHost;
+
+    private volatile LoggingServiceV2Grpc.LoggingServiceV2BlockingStub mApi;
+
+    /** Guarded by this. */
+    private ScheduledFuture<?> mUpload;
+
+    /** Whether an upload came due before {@link #mApi} was set. Guarded by this. */
+    private boolean mUploadPending;
+
+    /** Only used on {@link #mExecutor}. */
+    private String mLogName;
+
+    private final Runnable mUploadRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mHost.isRecognizing()) {
+                schedule(mIdleMillis);
+                return;
+            }
+            final LoggingServiceV2Grpc.LoggingServiceV2BlockingStub api;
+            synchronized (TelemetryReporter.this) {
+                api = mApi;
+                if (api == null) {
+                    mUploadPending = true;
+                    return;
+                }
+            }
+            upload(api);
+        }
+    };
+
+    /**
+     * @param spool      The records waiting to be uploaded.
+     * @param logId      The log to write to in the project.
+     * @param executor   A single thread to write and upload the spool on.
+     * @param idleMillis How long to wait after the last record before uploading.
+     * @param host       The surroundings.
+     */
+    TelemetryReporter(TelemetrySpool spool, String logId, ScheduledExecutorService executor,
+            long idleMillis, Host host) {
+        mSpool = spool;
+        mLogId = logId;
+        mExecutor = executor;
+        mIdleMillis = idleMillis;
+        mHost = host;
+    }
+
+    /**
+     * Spools a record, and pushes back the upload.
+     */
+    void record(final LogEntry entry) {
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mSpool.append(entry);
+                    } catch (IOException e) {
+                        mHost.onError(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Closed.
+            return;
+        }
+        schedule(mIdleMillis);
+    }
+
+    /**
+     * Sets the logging API once it is authenticated. The first time, an upload is scheduled for
+     * what is left from before; an upload that came due meanwhile is made right away.
+     */
+    synchronized void setApi(LoggingServiceV2Grpc.LoggingServiceV2BlockingStub api) {
+        final boolean first = mApi == null;
+        mApi = api;
+        if (mUploadPending) {
+            mUploadPending = false;
+            schedule(0);
+        } else if (first) {
+            schedule(mIdleMillis);
+        }
+    }
+
+    /**
+     * Stops the uploads and closes the spool once the records already given are written. The
+     * records are uploaded next time if this is cut short.
+     */
+    synchronized void close() {
+        if (mUpload != null) {
+            mUpload.cancel(false);
+            mUpload = null;
+        }
+        mApi = null;
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mSpool.close();
+                    } catch (IOException e) {
+                        mHost.onError(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Already closed.
+        }
+        mExecutor.shutdown();
+    }
+
+    private synchronized void schedule(long delayMillis) {
+        if (mUpload != null) {
+            mUpload.cancel(false);
+        }
+        try {
+            mUpload = mExecutor.schedule(mUploadRunnable, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Closed.
+            mUpload = null;
+        }
+    }
+
+    /**
+     * Uploads the spool. Called on {@link #mExecutor}.
+     */
+    private void upload(LoggingServiceV2Grpc.LoggingServiceV2BlockingStub api) {
+        if (mLogName == null) {
+            final String projectId = mHost.readProjectId();
+            if (projectId == null) {
+                return;
+            }
+            mLogName = "projects/" + projectId + "/logs/" + mLogId;
+        }
+        final TelemetryUploader uploader = new TelemetryUploader(mSpool, mLogName);
+        try {
+            mHost.onUploaded(uploader.upload(
+                    api.withDeadlineAfter(UPLOAD_DEADLINE_SECONDS, TimeUnit.SECONDS)));
+        } catch (IOException | StatusRuntimeException e) {
+            mHost.onError(e);
+        }
+    }
+
+}
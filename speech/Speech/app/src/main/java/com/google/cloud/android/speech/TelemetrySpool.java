@@ -0,0 +1,231 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import com.google.logging.v2.LogEntry;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Keeps telemetry records on disk until they are uploaded.
+ *
+ * <p>The records are appended to segment files in a directory, each record prefixed by its
+ * length. When a segment reaches the size limit, a new one is started. Segments are uploaded
+ * and removed as a whole, oldest first, so a segment is one batch. If the spool grows beyond its
+ * limit, the oldest segments are removed without being uploaded. A record cut short by a crash
+ * is skipped together with the rest of its segment.</p>
+ *
+ * <p>All the methods can be called from any thread, but they do disk I/O.</p>
+ */
+class TelemetrySpool {
+
+    /**
+     * The records of a segment.
+     */
+    static class Batch {
+
+        final List<LogEntry> entries;
+
+        private final File mFile;
+
+        Batch(File file, List<LogEntry> entries) {
+            mFile = file;
+            this.entries = entries;
+        }
+
+    }
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private final File mDirectory;
+
+    private final long mSegmentBytes;
+
+    private final long mMaxBytes;
+
+    /** The number of the segment being appended to. */
+    private long mSegment;
+
+    private OutputStream mOutput;
+
+    private long mOutputBytes;
+
+    private long mDroppedSegments;
+
+    /**
+     * @param directory    Where to keep the segments.
+     * @param segmentBytes The size from which a segment is not appended to any more.
+     * @param maxBytes     The maximum total size of the segments.
+     */
+    TelemetrySpool(File directory, long segmentBytes, long maxBytes) {
+        mDirectory = directory;
+        mSegmentBytes = segmentBytes;
+        mMaxBytes = maxBytes;
+        final File[] segments = listSegments();
+        // The last segment may end with a partial record, so it is not appended to.
+        mSegment = segments.length == 0 ? 0 : numberOf(segments[segments.length - 1]) + 1;
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @throws IOException If the record cannot be written.
+     */
+    synchronized void append(LogEntry entry) throws IOException {
+        if (mOutput == null) {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                throw new IOException("Cannot create " + mDirectory);
+            }
+            trim();
+            mOutput = new FileOutputStream(fileOf(mSegment), true);
+            mOutputBytes = fileOf(mSegment).length();
+        }
+        final byte[] record = entry.toByteArray();
+        final byte[] buffer = new byte[5 + record.length];
+        final int prefix = writeVarint(buffer, record.length);
+        System.arraycopy(record, 0, buffer, prefix, record.length);
+        // One write, so that a crash leaves at most one partial record.
+        mOutput.write(buffer, 0, prefix + record.length);
+        mOutputBytes += prefix + record.length;
+        if (mOutputBytes >= mSegmentBytes) {
+            closeSegment();
+        }
+    }
+
+    /**
+     * Reads the oldest segment. The segment being appended to is closed if it is the only one.
+     *
+     * @return The records of the segment, or {@code null} if there are none.
+     * @throws IOException If the segment cannot be read.
+     */
+    synchronized Batch next() throws IOException {
+        final File[] segments = listSegments();
+        if (segments.length == 0) {
+            return null;
+        }
+        if (mOutput != null && segments.length == 1) {
+            closeSegment();
+        }
+        final File file = segments[0];
+        final ArrayList<LogEntry> entries = new ArrayList<>();
+        final InputStream input = new BufferedInputStream(new FileInputStream(file));
+        try {
+            LogEntry entry;
+            while ((entry = LogEntry.parseDelimitedFrom(input)) != null) {
+                entries.add(entry);
+            }
+        } catch (InvalidProtocolBufferException e) {
+            // A partial record; the ones before it are fine.
+        } finally {
+            input.close();
+        }
+        return new Batch(file, entries);
+    }
+
+    /**
+     * Removes a segment after it has been uploaded.
+     */
+    synchronized void remove(Batch batch) {
+        batch.mFile.delete();
+    }
+
+    /**
+     * @return The number of segments removed without being uploaded because the spool was full.
+     */
+    synchronized long getDroppedSegments() {
+        return mDroppedSegments;
+    }
+
+    /**
+     * Closes the segment being appended to, if any.
+     */
+    synchronized void close() throws IOException {
+        if (mOutput != null) {
+            closeSegment();
+        }
+    }
+
+    private void closeSegment() throws IOException {
+        mOutput.close();
+        mOutput = null;
+        mSegment++;
+    }
+
+    /**
+     * Removes the oldest segments until the spool has room for a new one.
+     */
+    private void trim() {
+        final File[] segments = listSegments();
+        long total = mSegmentBytes;
+        for (File segment : segments) {
+            total += segment.length();
+        }
+        for (int i = 0; i < segments.length && total > mMaxBytes; i++) {
+            total -= segments[i].length();
+            segments[i].delete();
+            mDroppedSegments++;
+        }
+    }
+
+    private File[] listSegments() {
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        final ArrayList<File> segments = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().startsWith(SEGMENT_PREFIX)) {
+                segments.add(file);
+            }
+        }
+        final File[] sorted = segments.toArray(new File[segments.size()]);
+        // The numbers are zero-padded, so the names sort in order.
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private File fileOf(long segment) {
+        return new File(mDirectory, String.format(Locale.US, "%s%019d", SEGMENT_PREFIX, segment));
+    }
+
+    private static long numberOf(File segment) {
+        return Long.parseLong(segment.getName().substring(SEGMENT_PREFIX.length()));
+    }
+
+    private static int writeVarint(byte[] buffer, int value) {
+        int i = 0;
+        while ((value & ~0x7f) != 0) {
+            buffer[i++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[i++] = (byte) value;
+        return i;
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import com.google.api.MonitoredResource;
+import com.google.logging.v2.LoggingServiceV2Grpc;
+import com.google.logging.v2.WriteLogEntriesRequest;
+
+import java.io.IOException;
+
+
+/**
+ * Uploads the records in a {@link TelemetrySpool} with {@code WriteLogEntries}, one request per
+ * segment. The requests are compressed with gzip.
+ */
+class TelemetryUploader {
+
+    private static final String COMPRESSION = "gzip";
+
+    private final TelemetrySpool mSpool;
+
+    private final String mLogName;
+
+    private final MonitoredResource mResource;
+
+    /**
+     * @param spool   The records to upload.
+     * @param logName The log to write to, such as {@code projects/my-project/logs/speech}.
+     */
+    TelemetryUploader(TelemetrySpool spool, String logName) {
+        mSpool = spool;
+        mLogName = logName;
+        mResource = MonitoredResource.newBuilder().setType("global").build();
+    }
+
+    /**
+     * Uploads all the records. A segment is removed once it has been written, so the upload
+     * continues from where it stopped on the next call if it fails.
+     *
+     * @param stub The logging API.
+     * @return The number of the records uploaded.
+     * @throws IOException If the spool cannot be read.
+     * @throws io.grpc.StatusRuntimeException If a request fails.
+     */
+    int upload(LoggingServiceV2Grpc.LoggingServiceV2BlockingStub stub) throws IOException {
+        final LoggingServiceV2Grpc.LoggingServiceV2BlockingStub compressed =
+                stub.withCompression(COMPRESSION);
+        int uploaded = 0;
+        TelemetrySpool.Batch batch;
+        while ((batch = mSpool.next()) != null) {
+            if (!batch.entries.isEmpty()) {
+                compressed.writeLogEntries(WriteLogEntriesRequest.newBuilder()
+                        .setLogName(mLogName)
+                        .setResource(mResource)
+                        .addAllEntries(batch.entries)
+                        .build());
+                uploaded += batch.entries.size();
+            }
+            mSpool.remove(batch);
+        }
+        return uploaded;
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import com.google.cloud.speech.v1.StreamingRecognitionResult;
+import com.google.cloud.speech.v1.StreamingRecognizeResponse;
+
+
+/**
+ * Turns the responses of a stream into {@link TranscriptDelta}s.
+ *
+ * <p>The transcript of a response is the top alternatives of all its results put together. The
+ * leading results that are final or at least {@link #STABILITY_THRESHOLD} stable make up the
+ * stable prefix. This class is not thread-safe.</p>
+ */
+class TranscriptAssembler {
+
+    /** The stability from which a result is considered settled. */
+    static final float STABILITY_THRESHOLD = 0.8f;
+
+    /** The stable prefix reported so far for the current utterance. */
+    private String mStable = "";
+
+    /** Whether the unstable suffix reported last is empty. */
+    private boolean mUnstableEmpty = true;
+
+    /**
+     * Takes a response and reports how the transcript changed.
+     *
+     * <p>When the response starts with final results, the delta completes the utterance with
+     * them. The interim results after them, if any, are sent again by the API with the next
+     * response.</p>
+     *
+     * @param response The response.
+     * @return The change, or {@code null} if the response has no results.
+     */
+    TranscriptDelta update(StreamingRecognizeResponse response) {
+        final int count = response.getResultsCount();
+        if (count == 0) {
+            return null;
+        }
+        final StringBuilder stable = new StringBuilder();
+        int i = 0;
+        boolean isFinal = false;
+        for (; i < count; i++) {
+            final StreamingRecognitionResult result = response.getResults(i);
+            if (result.getIsFinal()) {
+                isFinal = true;
+            } else if (isFinal || result.getStability() < STABILITY_THRESHOLD) {
+                break;
+            }
+            stable.append(transcriptOf(result));
+        }
+        final StringBuilder unstable = new StringBuilder();
+        if (!isFinal) {
+            for (; i < count; i++) {
+                unstable.append(transcriptOf(response.getResults(i)));
+            }
+        }
+        return commit(stable.toString(), unstable.toString(), isFinal);
+    }
+
+    /**
+     * Abandons the current utterance, such as when its stream has failed.
+     *
+     * @return The delta that clears the transcript, or {@code null} if it is already empty.
+     */
+    TranscriptDelta abandon() {
+        if (mStable.isEmpty() && mUnstableEmpty) {
+            return null;
+        }
+        return commit("", "", false);
+    }
+
+    private TranscriptDelta commit(String stable, String unstable, boolean isFinal) {
+        final int common = commonPrefixLength(mStable, stable);
+        final TranscriptDelta delta = new TranscriptDelta(mStable.length() - common,
+                stable.substring(common), unstable, isFinal);
+        mStable = isFinal ? "" : stable;
+        mUnstableEmpty = unstable.isEmpty();
+        return delta;
+    }
+
+    private static String transcriptOf(StreamingRecognitionResult result) {
+        return result.getAlternativesCount() > 0 ? result.getAlternatives(0).getTranscript() : "";
+    }
+
+    private static int commonPrefixLength(String a, String b) {
+        final int length = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < length && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+}
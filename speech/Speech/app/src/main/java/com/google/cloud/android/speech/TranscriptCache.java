@@ -0,0 +1,233 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * Remembers the transcripts of audio that has been recognized, so that the same audio does not
+ * have to be sent again.
+ *
+ * <p>The transcripts are looked up by a key derived from the audio and the configuration it was
+ * recognized with; see {@link #key(byte[], byte[])}. The most recently used entries are kept in
+ * memory, and all of them are stored in a directory. When the directory grows larger than the
+ * limit, the least recently used entries are removed from it. All the methods can be called from
+ * any thread.</p>
+ */
+class TranscriptCache {
+
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static final int DIGEST_BUFFER_BYTES = 16 * 1024;
+
+    private final File mDirectory;
+
+    private final long mMaxDiskBytes;
+
+    private final LinkedHashMap<String, List<String>> mMemory;
+
+    /**
+     * @param directory     Where to store the entries.
+     * @param memoryEntries The number of the entries to keep in memory.
+     * @param maxDiskBytes  The maximum total size of the stored entries.
+     */
+    TranscriptCache(File directory, final int memoryEntries, long maxDiskBytes) {
+        mDirectory = directory;
+        mMaxDiskBytes = maxDiskBytes;
+        mMemory = new LinkedHashMap<String, List<String>>(memoryEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+                return size() > memoryEntries;
+            }
+        };
+    }
+
+    /**
+     * Derives the key of an entry.
+     *
+     * @param audioDigest The SHA-256 digest of the audio.
+     * @param config      The serialized configuration the audio is recognized with.
+     * @return The key.
+     */
+    static String key(byte[] audioDigest, byte[] config) {
+        final MessageDigest digest = newDigest();
+        digest.update(audioDigest);
+        digest.update(config);
+        final StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format(Locale.US, "%02x", b & 0xff));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Digests the rest of a stream, and rewinds it to where it was, so that the key can be looked
+     * up before the audio is read. Only for streams that are cheap to rewind, such as a
+     * resource; others would buffer the whole stream.
+     *
+     * @param input The stream. Its {@link InputStream#markSupported()} must be {@code true}.
+     * @return The SHA-256 digest of the rest of the stream.
+     */
+    static byte[] digestAndRewind(InputStream input) throws IOException {
+        final MessageDigest digest = newDigest();
+        input.mark(Integer.MAX_VALUE);
+        final byte[] buffer = new byte[DIGEST_BUFFER_BYTES];
+        int size;
+        while ((size = input.read(buffer)) != -1) {
+            digest.update(buffer, 0, size);
+        }
+        input.reset();
+        return digest.digest();
+    }
+
+    /**
+     * @return A new SHA-256 digest.
+     */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Looks up the transcripts.
+     *
+     * @param key The key from {@link #key(byte[], byte[])}.
+     * @return The transcripts, or {@code null} if they are not cached.
+     */
+    synchronized List<String> get(String key) {
+        List<String> transcripts = mMemory.get(key);
+        if (transcripts != null) {
+            return transcripts;
+        }
+        final File file = new File(mDirectory, key);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            transcripts = read(file);
+        } catch (IOException e) {
+            file.delete();
+            return null;
+        }
+        // The eviction goes by the modification time.
+        file.setLastModified(System.currentTimeMillis());
+        mMemory.put(key, transcripts);
+        return transcripts;
+    }
+
+    /**
+     * Stores the transcripts.
+     *
+     * @param key         The key from {@link #key(byte[], byte[])}.
+     * @param transcripts The final transcripts of the audio, in order.
+     * @throws IOException If the transcripts cannot be stored. They are still kept in memory.
+     */
+    synchronized void put(String key, List<String> transcripts) throws IOException {
+        final List<String> copy = Collections.unmodifiableList(new ArrayList<>(transcripts));
+        mMemory.put(key, copy);
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + mDirectory);
+        }
+        final File temporary = new File(mDirectory, key + TEMPORARY_SUFFIX);
+        write(temporary, copy);
+        if (!temporary.renameTo(new File(mDirectory, key))) {
+            temporary.delete();
+            throw new IOException("Cannot store " + key);
+        }
+        trim();
+    }
+
+    /**
+     * Removes the least recently used entries from the directory until it fits in the limit.
+     */
+    private void trim() {
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= mMaxDiskBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                final long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+            }
+        });
+        for (int i = 0; i < files.length && total > mMaxDiskBytes; i++) {
+            total -= files[i].length();
+            mMemory.remove(files[i].getName());
+            files[i].delete();
+        }
+    }
+
+    private static List<String> read(File file) throws IOException {
+        final DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            final int count = input.readInt();
+            final ArrayList<String> transcripts = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                transcripts.add(input.readUTF());
+            }
+            return Collections.unmodifiableList(transcripts);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void write(File file, List<String> transcripts) throws IOException {
+        final DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            output.writeInt(transcripts.size());
+            for (String transcript : transcripts) {
+                output.writeUTF(transcript);
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+}
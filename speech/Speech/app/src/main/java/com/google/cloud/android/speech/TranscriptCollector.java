@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+
+/**
+ * Collects the final results of the streams recognizing a file, and stores them in a
+ * {@link TranscriptCache} once all of them have been recognized.
+ *
+ * <p>The key of the file may only be known once the whole file has been read, so it is given
+ * to {@link #onReadingDone(String)}. Nothing is stored if any of the streams failed. All the
+ * methods can be called from any thread.</p>
+ */
+class TranscriptCollector {
+
+    private final TranscriptCache mCache;
+
+    /** The final results of each stream. */
+    private final ArrayList<ArrayList<String>> mTranscripts = new ArrayList<>();
+
+    /** The number of the streams that have not finished yet. */
+    private int mPendingStreams;
+
+    /** The key of the file; {@code null} until the whole file has been read. */
+    private String mKey;
+
+    private boolean mFailed;
+
+    private boolean mStored;
+
+    TranscriptCollector(TranscriptCache cache) {
+        mCache = cache;
+    }
+
+    /**
+     * @return The index of the new stream.
+     */
+    synchronized int addStream() {
+        mTranscripts.add(new ArrayList<String>());
+        mPendingStreams++;
+        return mTranscripts.size() - 1;
+    }
+
+    synchronized void add(int stream, String transcript) {
+        mTranscripts.get(stream).add(transcript);
+    }
+
+    /**
+     * @throws IOException If this completed the transcripts, and they could not be stored.
+     */
+    synchronized void onStreamDone(boolean successful) throws IOException {
+        mPendingStreams--;
+        mFailed |= !successful;
+        store();
+    }
+
+    /**
+     * Called when the whole file has been sent.
+     *
+     * @param key The key of the file in the cache.
+     * @throws IOException If this completed the transcripts, and they could not be stored.
+     */
+    synchronized void onReadingDone(String key) throws IOException {
+        mKey = key;
+        store();
+    }
+
+    private void store() throws IOException {
+        if (mKey == null || mPendingStreams > 0 || mFailed || mStored) {
+            return;
+        }
+        final ArrayList<String> transcripts = new ArrayList<>();
+        for (ArrayList<String> stream : mTranscripts) {
+            transcripts.addAll(stream);
+        }
+        mStored = true;
+        mCache.put(mKey, transcripts);
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+
+/**
+ * A change to the transcript of the current utterance.
+ *
+ * <p>The transcript consists of a stable prefix, which the API is not likely to change any more,
+ * and an unstable suffix after it. A delta removes {@link #getRetracted()} characters from the end
+ * of the stable prefix, appends {@link #getCommitted()} to it, and replaces the whole unstable
+ * suffix with {@link #getUnstable()}. The stable prefix normally only grows, so a consumer only
+ * has to redo the short unstable part.</p>
+ *
+ * <p>After a final delta, the stable prefix is the final transcript of the utterance and the
+ * unstable suffix is empty. The next delta starts a new utterance from an empty transcript.</p>
+ */
+public class TranscriptDelta {
+
+    private final int mRetracted;
+
+    private final String mCommitted;
+
+    private final String mUnstable;
+
+    private final boolean mFinal;
+
+    TranscriptDelta(int retracted, String committed, String unstable, boolean isFinal) {
+        mRetracted = retracted;
+        mCommitted = committed;
+        mUnstable = unstable;
+        mFinal = isFinal;
+    }
+
+    /**
+     * @return The number of characters removed from the end of the stable prefix. This is 0
+     * unless the API revised text that it had reported as stable.
+     */
+    public int getRetracted() {
+        return mRetracted;
+    }
+
+    /**
+     * @return The text appended to the stable prefix.
+     */
+    public String getCommitted() {
+        return mCommitted;
+    }
+
+    /**
+     * @return The new unstable suffix.
+     */
+    public String getUnstable() {
+        return mUnstable;
+    }
+
+    /**
+     * @return {@code true} if this completes the utterance.
+     */
+    public boolean isFinal() {
+        return mFinal;
+    }
+
+    /**
+     * Combines this delta and the one after it into one.
+     *
+     * @param next The delta that follows this one. This one must not be final.
+     * @return The delta with the same effect as applying both.
+     */
+    TranscriptDelta merge(TranscriptDelta next) {
+        // The next delta retracts what this one committed first.
+        final int kept = Math.max(0, mCommitted.length() - next.mRetracted);
+        final int retracted = mRetracted + Math.max(0, next.mRetracted - mCommitted.length());
+        return new TranscriptDelta(retracted, mCommitted.substring(0, kept) + next.mCommitted,
+                next.mUnstable, next.mFinal);
+    }
+
+    @Override
+    public String toString() {
+        return "-" + mRetracted + " +\"" + mCommitted + "\" ~\"" + mUnstable + "\""
+                + (mFinal ? " final" : "");
+    }
+
+}
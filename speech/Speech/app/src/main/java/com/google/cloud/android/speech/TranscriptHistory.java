@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * The {@link TranscriptLog} of a directory, shared by the whole process.
+ *
+ * <p>A log keeps the end of its files in memory, so two logs open on the same directory write
+ * over each other's transcripts. This happens when an activity is recreated, as the new one
+ * opens the history before the old one has closed it. There is therefore a single log for each
+ * directory, together with the single thread that reads and writes it, and they live as long as
+ * the process. The log is never closed; it writes straight to the files, so nothing is lost when
+ * the process goes away.</p>
+ */
+class TranscriptHistory implements Executor {
+
+    private static final HashMap<File, TranscriptHistory> sHistories = new HashMap<>();
+
+    private final File mDirectory;
+
+    /** Runs the reads and writes of the log in the order they are requested. */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /** Only used on {@link #mExecutor}. */
+    private TranscriptLog mLog;
+
+    /**
+     * @param directory Where the files of the log are.
+     * @return The history of the directory.
+     */
+    static TranscriptHistory of(File directory) {
+        final File key = directory.getAbsoluteFile();
+        synchronized (sHistories) {
+            TranscriptHistory history = sHistories.get(key);
+            if (history == null) {
+                history = new TranscriptHistory(key);
+                sHistories.put(key, history);
+            }
+            return history;
+        }
+    }
+
+    private TranscriptHistory(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Runs a task on the thread of the log.
+     */
+    @Override
+    public void execute(Runnable task) {
+        mExecutor.execute(task);
+    }
+
+    /**
+     * Opens the log the first time it is called. Must be called from a task given to
+     * {@link #execute(Runnable)}.
+     *
+     * @return The log.
+     * @throws IOException If the log cannot be opened. It is tried again on the next call.
+     */
+    TranscriptLog log() throws IOException {
+        if (mLog == null) {
+            mLog = new TranscriptLog(mDirectory);
+        }
+        return mLog;
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * An append-only log of final transcripts on disk.
+ *
+ * <p>The transcripts are stored one after another in a data file, each prefixed by its length in
+ * bytes. An index file has the offset of each transcript in the data file, so any range of
+ * transcripts can be read with two seeks. A transcript is written to the data file before its
+ * offset is written to the index, so the index never points to a partial one; whatever a crash
+ * leaves past the last indexed transcript is cut off when the log is opened again.</p>
+ *
+ * <p>This class is not thread-safe, and all the methods do disk I/O.</p>
+ */
+class TranscriptLog {
+
+    private static final String DATA_FILE = "transcripts.dat";
+
+    private static final String INDEX_FILE = "transcripts.idx";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final RandomAccessFile mData;
+
+    private final RandomAccessFile mIndex;
+
+    private int mCount;
+
+    /** The end of the last transcript in the data file. */
+    private long mDataEnd;
+
+    /**
+     * Opens the log, creating it if needed.
+     *
+     * @param directory Where to keep the files of the log.
+     * @throws IOException If the log cannot be opened.
+     */
+    TranscriptLog(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        mData = new RandomAccessFile(new File(directory, DATA_FILE), "rw");
+        mIndex = new RandomAccessFile(new File(directory, INDEX_FILE), "rw");
+        mCount = (int) (mIndex.length() / 8);
+        mDataEnd = 0;
+        if (mCount > 0) {
+            final long last = offsetOf(mCount - 1);
+            final long end = mData.length() >= last + 4 ? last + 4 + readLengthAt(last) : -1;
+            if (end < 0 || end > mData.length()) {
+                // The data of the last transcript was not written completely.
+                mCount--;
+                mDataEnd = last;
+            } else {
+                mDataEnd = end;
+            }
+        }
+        mIndex.setLength((long) mCount * 8);
+        mData.setLength(mDataEnd);
+    }
+
+    /**
+     * @return The number of the transcripts in the log.
+     */
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * Appends a transcript.
+     *
+     * @return The index of the transcript.
+     * @throws IOException If the transcript cannot be written.
+     */
+    int append(String transcript) throws IOException {
+        final byte[] text = transcript.getBytes(UTF_8);
+        final ByteBuffer record = ByteBuffer.allocate(4 + text.length);
+        record.putInt(text.length).put(text);
+        mData.seek(mDataEnd);
+        mData.write(record.array());
+        mIndex.seek((long) mCount * 8);
+        mIndex.writeLong(mDataEnd);
+        mDataEnd += record.capacity();
+        return mCount++;
+    }
+
+    /**
+     * Reads a range of the transcripts.
+     *
+     * @param from  The index of the first transcript to read.
+     * @param count The number of the transcripts to read. Fewer are read at the end of the log.
+     * @return The transcripts in the order they were appended.
+     * @throws IOException If the log cannot be read.
+     */
+    List<String> read(int from, int count) throws IOException {
+        final int to = Math.min(mCount, from + count);
+        final ArrayList<String> transcripts = new ArrayList<>(Math.max(0, to - from));
+        if (from >= to) {
+            return transcripts;
+        }
+        final long start = offsetOf(from);
+        final long end = to == mCount ? mDataEnd : offsetOf(to);
+        final byte[] data = new byte[(int) (end - start)];
+        mData.seek(start);
+        mData.readFully(data);
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        for (int i = from; i < to; i++) {
+            final int length = buffer.getInt();
+            transcripts.add(new String(data, buffer.position(), length, UTF_8));
+            buffer.position(buffer.position() + length);
+        }
+        return transcripts;
+    }
+
+    void close() throws IOException {
+        mData.close();
+        mIndex.close();
+    }
+
+    private long offsetOf(int index) throws IOException {
+        mIndex.seek((long) index * 8);
+        return mIndex.readLong();
+    }
+
+    private int readLengthAt(long offset) throws IOException {
+        mData.seek(offset);
+        return mData.readInt();
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A bounded window of a {@link TranscriptLog} in memory, in pages of a fixed number of
+ * transcripts.
+ *
+ * <p>The pages are loaded by the caller on demand; this only keeps track of which pages are
+ * loaded or being loaded, and forgets the least recently used page when there are too many. This
+ * class is not thread-safe.</p>
+ */
+class TranscriptPages {
+
+    private final int mPageSize;
+
+    private final LinkedHashMap<Integer, List<String>> mPages;
+
+    /** The pages being loaded, and whether a transcript was appended to each meanwhile. */
+    private final HashMap<Integer, Boolean> mLoading = new HashMap<>();
+
+    /**
+     * @param pageSize The number of the transcripts in a page.
+     * @param maxPages The number of the pages to keep in memory.
+     */
+    TranscriptPages(int pageSize, final int maxPages) {
+        mPageSize = pageSize;
+        mPages = new LinkedHashMap<Integer, List<String>>(maxPages, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<String>> eldest) {
+                return size() > maxPages;
+            }
+        };
+    }
+
+    int getPageSize() {
+        return mPageSize;
+    }
+
+    int pageOf(int index) {
+        return index / mPageSize;
+    }
+
+    /**
+     * @return The transcript, or {@code null} if its page is not loaded.
+     */
+    String get(int index) {
+        final List<String> page = mPages.get(pageOf(index));
+        final int offset = index % mPageSize;
+        return page != null && offset < page.size() ? page.get(offset) : null;
+    }
+
+    /**
+     * Marks a page as being loaded.
+     *
+     * @return {@code true} if the page has to be loaded; {@code false} if it is already loaded or
+     * being loaded.
+     */
+    boolean startLoading(int page) {
+        if (mPages.containsKey(page) || mLoading.containsKey(page)) {
+            return false;
+        }
+        mLoading.put(page, false);
+        return true;
+    }
+
+    /**
+     * Keeps a page that has been loaded.
+     *
+     * @param page        The page.
+     * @param transcripts The transcripts of the page as read from the log.
+     * @return {@code false} if a transcript was appended to the page while it was loaded, so it
+     * has to be loaded again.
+     */
+    boolean onLoaded(int page, List<String> transcripts) {
+        final Boolean appended = mLoading.remove(page);
+        if (appended != null && appended) {
+            return false;
+        }
+        mPages.put(page, new ArrayList<>(transcripts));
+        return true;
+    }
+
+    /**
+     * Called when a transcript was appended to the log, so that its page stays up to date.
+     */
+    void onAppended(int index, String transcript) {
+        final int page = pageOf(index);
+        if (mLoading.containsKey(page)) {
+            mLoading.put(page, true);
+            return;
+        }
+        final List<String> transcripts = mPages.get(page);
+        if (transcripts != null && transcripts.size() == index % mPageSize) {
+            transcripts.add(transcript);
+        } else if (transcripts == null && index % mPageSize == 0) {
+            // A new page; nothing to load.
+            final ArrayList<String> created = new ArrayList<>(mPageSize);
+            created.add(transcript);
+            mPages.put(page, created);
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+/**
+ * Decides whether a chunk of captured audio contains voice.
+ *
+ * <p>{@link VoiceRecorder} calls these methods from its process thread only, so implementations
+ * do not need to be thread-safe. They should not allocate in {@link #isHearingVoice}.</p>
+ */
+public interface VoiceActivityDetector {
+
+    /**
+     * Called before the first chunk of audio of a recording session.
+     *
+     * @param sampleRate   The sample rate of the audio.
+     * @param channelCount The number of interleaved channels in the audio.
+     */
+    void reset(int sampleRate, int channelCount);
+
+    /**
+     * Examines the next chunk of audio.
+     *
+     * @param buffer The audio data in LINEAR16 (little endian).
+     * @param size   The size of the actual data in {@code buffer}.
+     * @return {@code true} if voice is heard in this chunk.
+     */
+    boolean isHearingVoice(byte[] buffer, int size);
+
+}
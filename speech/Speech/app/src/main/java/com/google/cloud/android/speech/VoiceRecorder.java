@@ -16,10 +16,17 @@
 
 package com.google.cloud.android.speech;
 
+import android.annotation.TargetApi;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
+import android.media.AudioTimestamp;
 import android.media.MediaRecorder;
+import android.os.Build;
 import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -28,18 +35,38 @@ import android.support.annotation.NonNull;
  *
  * <p>The recorded audio format is always {@link AudioFormat#ENCODING_PCM_16BIT} and
  * {@link AudioFormat#CHANNEL_IN_MONO}. This class will automatically pick the right sample rate
- * for the device. Use {@link #getSampleRate()} to get the selected value.</p>
+ * for the device and convert the audio to the rate set by {@link #setSampleRate(int)}. Use
+ * {@link #getSampleRate()} to get the rate of the audio handed to the {@link Callback}.</p>
+ *
+ * <p>Every {@link AudioBuffer} carries the time its audio was captured on the
+ * {@link System#nanoTime()} clock, and all the timing of this class is based on it.</p>
  */
 public class VoiceRecorder {
 
+    private static final String TAG = "VoiceRecorder";
+
     private static final int[] SAMPLE_RATE_CANDIDATES = new int[]{16000, 11025, 22050, 44100};
 
     private static final int CHANNEL = AudioFormat.CHANNEL_IN_STEREO;
     private static final int ENCODING = AudioFormat.ENCODING_PCM_16BIT;
 
-    private static final int AMPLITUDE_THRESHOLD = 1500;
-    private static final int SPEECH_TIMEOUT_MILLIS = 2000;
-    private static final int MAX_SPEECH_LENGTH_MILLIS = 30 * 1000;
+    private static final long SPEECH_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(2000);
+    private static final long MAX_SPEECH_LENGTH_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    /** How much audio before the detected start of voice is sent by default. */
+    public static final int DEFAULT_PRE_ROLL_MILLIS = 300;
+
+    /** The sample rate of the audio handed to {@link Callback} by default. */
+    public static final int DEFAULT_SAMPLE_RATE = 16000;
+
+    /** The duration of the audio frames handed to {@link Callback} by default. */
+    public static final int DEFAULT_FRAME_MILLIS = 100;
+
+    /** The number of captured buffers that can be queued up for delivery. */
+    private static final int RING_SLOTS = 32;
+
+    /** The number of buffers that can be held by the {@link Callback} at the same time. */
+    private static final int IN_FLIGHT_BUFFERS = 16;
 
     public static abstract class Callback {
 
@@ -50,7 +77,8 @@ public class VoiceRecorder {
         }
 
         /**
-         * Called when the recorder is hearing voice.
+         * Called when the recorder is hearing voice. Right after {@link #onVoiceStart()}, this is
+         * called with the audio that was recorded just before voice was detected.
          *
          * @param data The audio data in {@link AudioFormat#ENCODING_PCM_16BIT}.
          * @param size The size of the actual data in {@code data}.
@@ -58,31 +86,147 @@ public class VoiceRecorder {
         public void onVoice(byte[] data, int size) {
         }
 
+        /**
+         * Called when the recorder is hearing voice. This hands over a pooled buffer without
+         * copying the audio.
+         *
+         * <p>The callback owns {@code buffer} and has to call {@link AudioBuffer#recycle()} when
+         * it no longer needs it; the recorder drops audio when too many buffers are held. The
+         * default implementation calls {@link #onVoice(byte[], int)} and recycles the buffer.</p>
+         *
+         * @param buffer The audio data in {@link AudioFormat#ENCODING_PCM_16BIT}.
+         */
+        public void onVoice(AudioBuffer buffer) {
+            try {
+                onVoice(buffer.data, buffer.size);
+            } finally {
+                buffer.recycle();
+            }
+        }
+
         /**
          * Called when the recorder stops hearing voice.
          */
         public void onVoiceEnd() {
         }
+
+        /**
+         * Called when captured audio has been dropped, either because the process thread did not
+         * keep up with the recording or because the callback was holding all the buffers. This
+         * is called on the process thread, at most once for each captured buffer.
+         *
+         * @param durationNanos The duration of the audio dropped since the last call.
+         */
+        public void onAudioDropped(long durationNanos) {
+        }
     }
 
     private final Callback mCallback;
 
+    private final VoiceActivityDetector mDetector;
+
+    private final int mPreRollMillis;
+
+    private int mFrameMillis = DEFAULT_FRAME_MILLIS;
+
+    private int mSampleRate = DEFAULT_SAMPLE_RATE;
+
+    /** The longest run of silence sent inside an utterance, or 0 to send all of it. */
+    private int mSilenceCompactionMillis;
+
+    /** The sample rate of the audio handed to {@link #mCallback} in the current session. */
+    private int mOutputSampleRate;
+
     private AudioRecord mAudioRecord;
 
-    private Thread mThread;
+    /** Reads audio from {@link #mAudioRecord} into {@link #mRingBuffer}. */
+    private Thread mCaptureThread;
 
-    private byte[] mBuffer;
+    /** Takes audio out of {@link #mRingBuffer} and notifies {@link #mCallback}. */
+    private Thread mProcessThread;
 
-    private final Object mLock = new Object();
+    private AudioRingBuffer mRingBuffer;
 
-    /** The timestamp of the last time that voice is heard. */
-    private long mLastVoiceHeardMillis = Long.MAX_VALUE;
+    private int mBufferSize;
 
-    /** The timestamp when the current voice is started. */
-    private long mVoiceStartedMillis;
+    /** Set when the current utterance should be ended by the process thread. */
+    private volatile boolean mDismissRequested;
+
+    /** The number of bytes of silence not sent because of the silence compaction. */
+    private final AtomicLong mCompactedBytes = new AtomicLong();
+
+    /** The duration of the captured audio that was dropped. */
+    private final AtomicLong mDroppedNanos = new AtomicLong();
 
     public VoiceRecorder(@NonNull Callback callback) {
+        this(callback, new RmsVoiceActivityDetector());
+    }
+
+    /**
+     * @param callback The callback to be notified of voice events.
+     * @param detector The detector that decides whether voice is heard. It is only used on the
+     *                 process thread.
+     */
+    public VoiceRecorder(@NonNull Callback callback, @NonNull VoiceActivityDetector detector) {
+        this(callback, detector, DEFAULT_PRE_ROLL_MILLIS);
+    }
+
+    /**
+     * @param callback      The callback to be notified of voice events.
+     * @param detector      The detector that decides whether voice is heard. It is only used on
+     *                      the process thread.
+     * @param preRollMillis How much audio before the detected start of voice should be sent to
+     *                      {@link Callback#onVoice(byte[], int)}. This recovers the onset of an
+     *                      utterance that is too quiet for the detector.
+     */
+    public VoiceRecorder(@NonNull Callback callback, @NonNull VoiceActivityDetector detector,
+            int preRollMillis) {
         mCallback = callback;
+        mDetector = detector;
+        mPreRollMillis = preRollMillis;
+    }
+
+    /**
+     * Sets the duration of the audio frames handed to {@link Callback#onVoice(AudioBuffer)}.
+     *
+     * <p>Captured audio is packed into frames of this duration so that the receiver gets fewer
+     * but larger chunks. This is also the maximum latency the packing adds; the last frame of an
+     * utterance is sent early, right before {@link Callback#onVoiceEnd()}. This takes effect on
+     * the next call to {@link #start()}.</p>
+     *
+     * @param frameMillis The duration of a frame, or 0 to hand over the captured buffers as
+     *                    they are.
+     */
+    public void setFrameMillis(int frameMillis) {
+        mFrameMillis = frameMillis;
+    }
+
+    /**
+     * Sets the sample rate of the audio handed to the {@link Callback}.
+     *
+     * <p>The audio is recorded at a rate supported by the device, downmixed to mono and resampled
+     * to this rate. This takes effect on the next call to {@link #start()}.</p>
+     *
+     * @param sampleRate The sample rate.
+     */
+    public void setSampleRate(int sampleRate) {
+        mSampleRate = sampleRate;
+    }
+
+    /**
+     * Shortens long runs of silence inside an utterance.
+     *
+     * <p>An utterance only ends after two seconds of silence, and all of it is sent to the
+     * {@link Callback} by default. With the compaction, only the first
+     * {@code gapMillis} of a silent run is sent, followed by the pre-roll right before the voice
+     * resumes. The utterance still ends at the same time. This takes effect on the next call to
+     * {@link #start()}.</p>
+     *
+     * @param gapMillis The longest run of silence to send, or 0 to disable the compaction.
+     * @see #getCompactedBytes()
+     */
+    public void setSilenceCompaction(int gapMillis) {
+        mSilenceCompactionMillis = gapMillis;
     }
 
     /**
@@ -98,54 +242,155 @@ public class VoiceRecorder {
         if (mAudioRecord == null) {
             throw new RuntimeException("Cannot instantiate VoiceRecorder");
         }
+        final int channels = mAudioRecord.getChannelCount();
+        final int recordedSampleRate = mAudioRecord.getSampleRate();
+        final AudioBufferPool capturePool;
+        final AudioBufferPool outputPool;
+        final AudioResampler resampler;
+        if (AudioResampler.isNeeded(channels, recordedSampleRate, mSampleRate)) {
+            capturePool = new AudioBufferPool(RING_SLOTS, mBufferSize);
+            resampler = new AudioResampler(channels, recordedSampleRate, mSampleRate);
+            outputPool = new AudioBufferPool(IN_FLIGHT_BUFFERS,
+                    resampler.getMaxOutputSize(mBufferSize));
+            mOutputSampleRate = mSampleRate;
+        } else {
+            capturePool = new AudioBufferPool(RING_SLOTS + IN_FLIGHT_BUFFERS, mBufferSize);
+            resampler = null;
+            outputPool = capturePool;
+            mOutputSampleRate = recordedSampleRate;
+        }
+        mRingBuffer = new AudioRingBuffer(RING_SLOTS, capturePool);
+        // Everything after the resampler works on mono audio at the output sample rate.
+        mDetector.reset(mOutputSampleRate, 1);
+        mDismissRequested = false;
+        mCompactedBytes.set(0);
+        mDroppedNanos.set(0);
         // Start recording.
         mAudioRecord.startRecording();
         // Start processing the captured audio.
-        mThread = new Thread(new ProcessVoice());
-        mThread.start();
+        final AudioHistory history = new AudioHistory(
+                mOutputSampleRate * 2 * mPreRollMillis / 1000, 2);
+        final int frameBytes = mOutputSampleRate * mFrameMillis / 1000 * 2;
+        final AudioFrameAggregator aggregator = frameBytes > 0
+                ? new AudioFrameAggregator(frameBytes, mOutputSampleRate, mDroppedNanos) : null;
+        final int compactionBytes = mOutputSampleRate * mSilenceCompactionMillis / 1000 * 2;
+        mProcessThread = new Thread(new ProcessVoice(mRingBuffer, resampler, outputPool, history,
+                aggregator, mOutputSampleRate, compactionBytes),
+                "VoiceRecorder-process");
+        mProcessThread.start();
+        mCaptureThread = new Thread(new CaptureAudio(mAudioRecord, mRingBuffer, mBufferSize,
+                channels, recordedSampleRate, mDroppedNanos),
+                "VoiceRecorder-capture");
+        mCaptureThread.setPriority(Thread.MAX_PRIORITY);
+        mCaptureThread.start();
     }
 
     /**
      * Stops recording audio.
+     *
+     * <p>This does not wait for a pending {@link Callback} invocation to return. The ongoing
+     * utterance, if any, is ended on the process thread.</p>
      */
     public void stop() {
-        synchronized (mLock) {
-            dismiss();
-            if (mThread != null) {
-                mThread.interrupt();
-                mThread = null;
-            }
-            if (mAudioRecord != null) {
-                mAudioRecord.stop();
-                mAudioRecord.release();
-                mAudioRecord = null;
+        if (mProcessThread != null) {
+            mProcessThread.interrupt();
+            mProcessThread = null;
+        }
+        if (mCaptureThread != null) {
+            mCaptureThread.interrupt();
+        }
+        if (mAudioRecord != null) {
+            // This unblocks the pending read on the capture thread.
+            mAudioRecord.stop();
+        }
+        if (mCaptureThread != null) {
+            try {
+                mCaptureThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-            mBuffer = null;
+            mCaptureThread = null;
         }
+        if (mAudioRecord != null) {
+            mAudioRecord.release();
+            mAudioRecord = null;
+        }
+        if (mDroppedNanos.get() > 0) {
+            Log.w(TAG, "Dropped " + getDroppedMillis() + " ms of audio.");
+        }
+        if (mCompactedBytes.get() > 0) {
+            Log.i(TAG, "Compacted " + getCompactedMillis() + " ms of silence.");
+        }
+        mRingBuffer = null;
     }
 
     /**
      * Dismisses the currently ongoing utterance.
+     *
+     * <p>This can be called from any thread. {@link Callback#onVoiceEnd()} is called on the
+     * process thread shortly afterwards.</p>
      */
     public void dismiss() {
-        if (mLastVoiceHeardMillis != Long.MAX_VALUE) {
-            mLastVoiceHeardMillis = Long.MAX_VALUE;
-            mCallback.onVoiceEnd();
-        }
+        mDismissRequested = true;
     }
 
     /**
-     * Retrieves the sample rate currently used to record audio.
+     * Retrieves the sample rate of the audio handed to the {@link Callback}. This is the rate
+     * set by {@link #setSampleRate(int)} unless the recorder could not convert to it.
      *
-     * @return The sample rate of recorded audio.
+     * @return The sample rate of recorded audio, or 0 if not recording.
      */
     public int getSampleRate() {
         if (mAudioRecord != null) {
-            return mAudioRecord.getSampleRate();
+            return mOutputSampleRate;
         }
         return 0;
     }
 
+    /**
+     * Retrieves the number of captured buffers that were dropped because the {@link Callback}
+     * did not keep up with the recording.
+     *
+     * @return The number of dropped buffers since {@link #start()}.
+     */
+    public long getOverrunCount() {
+        final AudioRingBuffer ringBuffer = mRingBuffer;
+        return ringBuffer == null ? 0 : ringBuffer.getOverrunCount();
+    }
+
+    /**
+     * Retrieves the duration of the captured audio that was dropped. Besides the overruns of
+     * {@link #getOverrunCount()}, this includes the audio dropped because the {@link Callback}
+     * was holding all the buffers, which leaves a gap inside an utterance.
+     *
+     * @return The duration of the dropped audio since {@link #start()} in milliseconds.
+     * @see Callback#onAudioDropped(long)
+     */
+    public long getDroppedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mDroppedNanos.get());
+    }
+
+    /**
+     * Retrieves the amount of silence that was not sent because of the silence compaction.
+     *
+     * @return The number of bytes of audio removed since {@link #start()}.
+     * @see #setSilenceCompaction(int)
+     */
+    public long getCompactedBytes() {
+        return mCompactedBytes.get();
+    }
+
+    /**
+     * Retrieves the amount of silence that was not sent because of the silence compaction.
+     *
+     * @return The duration of the audio removed since {@link #start()} in milliseconds.
+     * @see #setSilenceCompaction(int)
+     */
+    public long getCompactedMillis() {
+        final int sampleRate = mOutputSampleRate;
+        return sampleRate == 0 ? 0 : mCompactedBytes.get() * 1000 / (sampleRate * 2);
+    }
+
     /**
      * Creates a new {@link AudioRecord}.
      *
@@ -161,7 +406,7 @@ public class VoiceRecorder {
             final AudioRecord audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC,
                     sampleRate, CHANNEL, ENCODING, sizeInBytes);
             if (audioRecord.getState() == AudioRecord.STATE_INITIALIZED) {
-                mBuffer = new byte[sizeInBytes];
+                mBufferSize = sizeInBytes;
                 return audioRecord;
             } else {
                 audioRecord.release();
@@ -170,58 +415,237 @@ public class VoiceRecorder {
         return null;
     }
 
+    /**
+     * Continuously reads the captured audio into the {@link AudioRingBuffer}. This does nothing
+     * else so that a slow {@link Callback} never stalls the recording.
+     */
+    private static class CaptureAudio implements Runnable {
+
+        private final AudioRecord mAudioRecord;
+
+        private final AudioRingBuffer mRingBuffer;
+
+        /** Where the audio goes when the ring is full; it has to be read out anyway. */
+        private final byte[] mDiscard;
+
+        /** The size of one sample of all the channels in bytes. */
+        private final int mFrameSize;
+
+        private final int mSampleRate;
+
+        /** The number of frames read so far. */
+        private long mFramesRead;
+
+        /** The timestamp reported by {@link #mAudioRecord}; {@code null} before API 24. */
+        private final AudioTimestamp mTimestamp;
+
+        /** The duration of the audio discarded because the ring was full. */
+        private final AtomicLong mDroppedNanos;
+
+        CaptureAudio(AudioRecord audioRecord, AudioRingBuffer ringBuffer, int bufferSize,
+                int channels, int sampleRate, AtomicLong droppedNanos) {
+            mAudioRecord = audioRecord;
+            mDroppedNanos = droppedNanos;
+            mRingBuffer = ringBuffer;
+            mDiscard = new byte[bufferSize];
+            mFrameSize = channels * 2;
+            mSampleRate = sampleRate;
+            mTimestamp = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                    ? new AudioTimestamp() : null;
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                final AudioBuffer buffer = mRingBuffer.claim();
+                if (buffer == null) {
+                    final int size = mAudioRecord.read(mDiscard, 0, mDiscard.length);
+                    if (size > 0) {
+                        mFramesRead += size / mFrameSize;
+                        mDroppedNanos.addAndGet(size / mFrameSize
+                                * TimeUnit.SECONDS.toNanos(1) / mSampleRate);
+                    }
+                    continue;
+                }
+                final int size = mAudioRecord.read(buffer.data, 0, buffer.data.length);
+                if (size > 0) {
+                    buffer.size = size;
+                    buffer.captureNanos = captureTime(size / mFrameSize);
+                    mRingBuffer.publish();
+                }
+            }
+        }
+
+        /**
+         * Calculates when the first of the frames that have just been read was captured.
+         *
+         * @param frames The number of frames that have just been read.
+         * @return The capture time on the {@link System#nanoTime()} clock.
+         */
+        private long captureTime(int frames) {
+            final long first = mFramesRead;
+            mFramesRead += frames;
+            if (mTimestamp != null && getTimestamp()) {
+                return mTimestamp.nanoTime + (first - mTimestamp.framePosition)
+                        * TimeUnit.SECONDS.toNanos(1) / mSampleRate;
+            }
+            // The last frame that has just been read was captured right now.
+            return System.nanoTime() - frames * TimeUnit.SECONDS.toNanos(1) / mSampleRate;
+        }
+
+        @TargetApi(Build.VERSION_CODES.N)
+        private boolean getTimestamp() {
+            return mAudioRecord.getTimestamp(mTimestamp, AudioTimestamp.TIMEBASE_MONOTONIC)
+                    == AudioRecord.SUCCESS;
+        }
+
+    }
+
     /**
      * Continuously processes the captured audio and notifies {@link #mCallback} of corresponding
      * events.
      */
-    private class ProcessVoice implements Runnable {
+    private class ProcessVoice implements Runnable, SilenceCompactor.Output {
+
+        private final AudioRingBuffer mRingBuffer;
+
+        /** Converts the captured audio, or {@code null} if it can be used as it is. */
+        private final AudioResampler mResampler;
+
+        /** The pool of buffers for the converted audio. */
+        private final AudioBufferPool mPool;
+
+        /** Packs the audio into frames, or {@code null} to send the buffers as they are. */
+        private final AudioFrameAggregator mAggregator;
+
+        /** Decides which of the converted audio is sent. */
+        private final SilenceCompactor mCompactor;
+
+        /** The capture time of the last audio in which voice is heard. */
+        private long mLastVoiceHeardNanos = Long.MAX_VALUE;
+
+        /** The capture time of the audio where the current voice is started. */
+        private long mVoiceStartedNanos;
+
+        /** The part of {@link #mDroppedNanos} already reported to {@link #mCallback}. */
+        private long mReportedDroppedNanos;
+
+        ProcessVoice(AudioRingBuffer ringBuffer, AudioResampler resampler, AudioBufferPool pool,
+                AudioHistory history, AudioFrameAggregator aggregator, int sampleRate,
+                int compactionBytes) {
+            mRingBuffer = ringBuffer;
+            mResampler = resampler;
+            mPool = pool;
+            mAggregator = aggregator;
+            mCompactor = new SilenceCompactor(history, pool, this, sampleRate * 2,
+                    compactionBytes, mCompactedBytes, mDroppedNanos);
+        }
 
         @Override
         public void run() {
-            while (true) {
-                synchronized (mLock) {
-                    if (Thread.currentThread().isInterrupted()) {
-                        break;
-                    }
-                    final int size = mAudioRecord.read(mBuffer, 0, mBuffer.length);
-                    final long now = System.currentTimeMillis();
-                    if (isHearingVoice(mBuffer, size)) {
-                        if (mLastVoiceHeardMillis == Long.MAX_VALUE) {
-                            mVoiceStartedMillis = now;
-                            mCallback.onVoiceStart();
-                        }
-                        mCallback.onVoice(mBuffer, size);
-                        mLastVoiceHeardMillis = now;
-                        if (now - mVoiceStartedMillis > MAX_SPEECH_LENGTH_MILLIS) {
-                            end();
-                        }
-                    } else if (mLastVoiceHeardMillis != Long.MAX_VALUE) {
-                        mCallback.onVoice(mBuffer, size);
-                        if (now - mLastVoiceHeardMillis > SPEECH_TIMEOUT_MILLIS) {
-                            end();
-                        }
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    final AudioBuffer captured = mRingBuffer.take();
+                    mRingBuffer.release();
+                    final AudioBuffer buffer = convert(captured);
+                    if (buffer != null) {
+                        process(buffer);
                     }
+                    reportDropped();
                 }
+            } catch (InterruptedException e) {
+                // Stopped.
+            }
+            if (mLastVoiceHeardNanos != Long.MAX_VALUE) {
+                end();
             }
         }
 
-        private void end() {
-            mLastVoiceHeardMillis = Long.MAX_VALUE;
-            mCallback.onVoiceEnd();
+        /**
+         * Converts the captured audio to mono at the output sample rate.
+         *
+         * @param captured The captured audio. This method takes the ownership of it.
+         * @return The converted audio, or {@code null} if the {@link #mCallback} is holding all
+         * the buffers.
+         */
+        private AudioBuffer convert(AudioBuffer captured) {
+            if (mResampler == null) {
+                return captured;
+            }
+            final AudioBuffer buffer = mPool.acquire();
+            if (buffer != null) {
+                buffer.size = mResampler.process(captured.data, captured.size, buffer.data);
+                buffer.captureNanos = captured.captureNanos;
+            } else {
+                mDroppedNanos.addAndGet(mResampler.getInputDurationNanos(captured.size));
+            }
+            captured.recycle();
+            return buffer;
         }
 
-        private boolean isHearingVoice(byte[] buffer, int size) {
-            for (int i = 0; i < size - 1; i += 2) {
-                // The buffer has LINEAR16 in little endian.
-                int s = buffer[i + 1];
-                if (s < 0) s *= -1;
-                s <<= 8;
-                s += Math.abs(buffer[i]);
-                if (s > AMPLITUDE_THRESHOLD) {
-                    return true;
+        /**
+         * Processes a buffer of captured audio and either hands it over to {@link #mCallback} or
+         * recycles it.
+         */
+        private void process(AudioBuffer buffer) {
+            if (mDismissRequested) {
+                mDismissRequested = false;
+                if (mLastVoiceHeardNanos != Long.MAX_VALUE) {
+                    end();
+                }
+            }
+            final long now = buffer.captureNanos;
+            if (mDetector.isHearingVoice(buffer.data, buffer.size)) {
+                if (mLastVoiceHeardNanos == Long.MAX_VALUE) {
+                    mVoiceStartedNanos = now;
+                    mCallback.onVoiceStart();
+                    mCompactor.start(now);
                 }
+                mCompactor.voice(buffer);
+                mLastVoiceHeardNanos = now;
+                if (now - mVoiceStartedNanos > MAX_SPEECH_LENGTH_NANOS) {
+                    end();
+                }
+            } else if (mLastVoiceHeardNanos != Long.MAX_VALUE) {
+                mCompactor.silence(buffer);
+                if (now - mLastVoiceHeardNanos > SPEECH_TIMEOUT_NANOS) {
+                    end();
+                }
+            } else {
+                mCompactor.idle(buffer);
+            }
+        }
+
+        /**
+         * Tells {@link #mCallback} about the audio dropped since the last call, if any.
+         */
+        private void reportDropped() {
+            final long dropped = mDroppedNanos.get();
+            if (dropped > mReportedDroppedNanos) {
+                mCallback.onAudioDropped(dropped - mReportedDroppedNanos);
+                mReportedDroppedNanos = dropped;
+            }
+        }
+
+        /**
+         * Hands the audio over to {@link #mCallback}, packing it into frames if configured.
+         */
+        @Override
+        public void write(AudioBuffer buffer) {
+            if (mAggregator != null) {
+                mAggregator.write(buffer, mCallback);
+            } else {
+                mCallback.onVoice(buffer);
             }
-            return false;
+        }
+
+        private void end() {
+            mLastVoiceHeardNanos = Long.MAX_VALUE;
+            mCompactor.end();
+            if (mAggregator != null) {
+                mAggregator.flush(mCallback);
+            }
+            mCallback.onVoiceEnd();
         }
 
     }
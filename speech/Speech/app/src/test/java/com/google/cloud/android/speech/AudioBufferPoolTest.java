@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class AudioBufferPoolTest {
+
+    @Test
+    public void acquire_untilExhausted() {
+        final AudioBufferPool pool = new AudioBufferPool(3, 8);
+        assertThat(pool.available(), is(3));
+        final AudioBuffer first = pool.acquire();
+        assertThat(pool.acquire(), is(notNullValue()));
+        assertThat(pool.acquire(), is(notNullValue()));
+        assertThat(pool.acquire(), is(nullValue()));
+        assertThat(pool.available(), is(0));
+        first.recycle();
+        assertThat(pool.available(), is(1));
+        assertThat(pool.acquire(), is(first));
+    }
+
+    @Test
+    public void release_detectsDoubleRecycleWhenNotFull() {
+        final AudioBufferPool pool = new AudioBufferPool(4, 8);
+        final AudioBuffer buffer = pool.acquire();
+        pool.acquire();
+        buffer.recycle();
+        try {
+            buffer.recycle();
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        assertThat(pool.available(), is(3));
+    }
+
+    @Test
+    public void acquireAndRecycle_fromManyThreads() throws InterruptedException {
+        final AudioBufferPool pool = new AudioBufferPool(4, 8);
+        final AtomicInteger failures = new AtomicInteger();
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        final AudioBuffer buffer = pool.acquire();
+                        if (buffer == null) {
+                            continue;
+                        }
+                        // Nobody else may own this buffer meanwhile.
+                        buffer.size = i;
+                        Thread.yield();
+                        if (buffer.size != i) {
+                            failures.incrementAndGet();
+                        }
+                        buffer.recycle();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(failures.get(), is(0));
+        assertThat(pool.available(), is(4));
+    }
+
+}
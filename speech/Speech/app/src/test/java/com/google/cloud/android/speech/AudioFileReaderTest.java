@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+
+public class AudioFileReaderTest {
+
+    @Test
+    public void wav_mono() throws IOException {
+        final byte[] samples = samples(1, -2, 300, -400, 5);
+        final AudioFileReader reader = new AudioFileReader(
+                new ByteArrayInputStream(wav(1, 8000, 16, samples, false)), 16000);
+        assertThat(reader.getSampleRate(), is(8000));
+        assertThat(reader.getChannelCount(), is(1));
+        assertArrayEquals(samples, readAll(reader, 4));
+    }
+
+    @Test
+    public void wav_stereoIsMixedDown() throws IOException {
+        final AudioFileReader reader = new AudioFileReader(new ByteArrayInputStream(
+                wav(2, 44100, 16, samples(100, 300, -100, -300, 32767, 32767), true)), 16000);
+        assertThat(reader.getSampleRate(), is(44100));
+        assertThat(reader.getChannelCount(), is(2));
+        assertArrayEquals(samples(200, -200, 32767), readAll(reader, 4));
+    }
+
+    @Test
+    public void raw() throws IOException {
+        final byte[] samples = samples(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+        final AudioFileReader reader = new AudioFileReader(new ByteArrayInputStream(samples),
+                16000);
+        assertThat(reader.getSampleRate(), is(16000));
+        assertArrayEquals(samples, readAll(reader, 6));
+    }
+
+    @Test(expected = IOException.class)
+    public void wav_unsupportedFormat() throws IOException {
+        new AudioFileReader(new ByteArrayInputStream(wav(1, 8000, 8, new byte[4], false)),
+                16000);
+    }
+
+    private static byte[] readAll(AudioFileReader reader, int bufferSize) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[bufferSize];
+        int size;
+        while ((size = reader.read(buffer)) > 0) {
+            output.write(buffer, 0, size);
+        }
+        assertThat(reader.read(buffer), is(-1));
+        return output.toByteArray();
+    }
+
+    private static byte[] samples(int... values) {
+        final byte[] bytes = new byte[values.length * 2];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i * 2] = (byte) values[i];
+            bytes[i * 2 + 1] = (byte) (values[i] >> 8);
+        }
+        return bytes;
+    }
+
+    /**
+     * @param extraChunk Whether to put an odd-sized chunk between the format and the data.
+     */
+    private static byte[] wav(int channels, int sampleRate, int bits, byte[] data,
+            boolean extraChunk) {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writeTag(output, "RIFF");
+        writeInt(output, 0);
+        writeTag(output, "WAVE");
+        writeTag(output, "fmt ");
+        writeInt(output, 16);
+        writeShort(output, 1);
+        writeShort(output, channels);
+        writeInt(output, sampleRate);
+        writeInt(output, sampleRate * channels * bits / 8);
+        writeShort(output, channels * bits / 8);
+        writeShort(output, bits);
+        if (extraChunk) {
+            writeTag(output, "LIST");
+            writeInt(output, 3);
+            output.write(new byte[4], 0, 4); // Padded to an even size.
+        }
+        writeTag(output, "data");
+        writeInt(output, data.length);
+        output.write(data, 0, data.length);
+        return output.toByteArray();
+    }
+
+    private static void writeTag(ByteArrayOutputStream output, String tag) {
+        for (int i = 0; i < 4; i++) {
+            output.write(tag.charAt(i));
+        }
+    }
+
+    private static void writeShort(ByteArrayOutputStream output, int value) {
+        output.write(value);
+        output.write(value >> 8);
+    }
+
+    private static void writeInt(ByteArrayOutputStream output, int value) {
+        writeShort(output, value);
+        writeShort(output, value >> 16);
+    }
+
+}
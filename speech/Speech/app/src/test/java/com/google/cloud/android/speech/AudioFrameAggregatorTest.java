@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+public class AudioFrameAggregatorTest {
+
+    private final AudioBufferPool mInput = new AudioBufferPool(4, 16);
+
+    private final RecordingCallback mCallback = new RecordingCallback();
+
+    private final AtomicLong mDroppedNanos = new AtomicLong();
+
+    @Test
+    public void write_emitsFullFrames() {
+        final AudioFrameAggregator aggregator = new AudioFrameAggregator(10, 16000, mDroppedNanos);
+        aggregator.write(input(0, 6), mCallback);
+        assertThat(mCallback.sizes.size(), is(0));
+        aggregator.write(input(6, 16), mCallback);
+        assertThat(mCallback.sizes.toString(), is("[10, 10]"));
+        aggregator.flush(mCallback);
+        assertThat(mCallback.sizes.toString(), is("[10, 10, 2]"));
+        assertThat(mCallback.audio(), is(expected(22)));
+        assertThat(mInput.available(), is(4));
+        assertThat(mDroppedNanos.get(), is(0L));
+    }
+
+    @Test
+    public void write_keepsCaptureTimeOfFirstSample() {
+        // 1000 bytes per second; a byte is a millisecond.
+        final AudioFrameAggregator aggregator = new AudioFrameAggregator(10, 500, mDroppedNanos);
+        final AudioBuffer first = input(0, 6);
+        first.captureNanos = 1000000000L;
+        aggregator.write(first, mCallback);
+        final AudioBuffer second = input(6, 16);
+        second.captureNanos = 1006000000L;
+        aggregator.write(second, mCallback);
+        assertThat(mCallback.captureTimes.toString(), is("[1000000000, 1010000000]"));
+    }
+
+    @Test
+    public void flush_withoutAudio_emitsNothing() {
+        final AudioFrameAggregator aggregator = new AudioFrameAggregator(10, 16000, mDroppedNanos);
+        aggregator.flush(mCallback);
+        assertThat(mCallback.sizes.size(), is(0));
+    }
+
+    @Test
+    public void write_dropsWhenFramesAreHeld() {
+        final AudioFrameAggregator aggregator = new AudioFrameAggregator(2, 16000, mDroppedNanos);
+        mCallback.hold = true;
+        for (int i = 0; i < 5; i++) {
+            aggregator.write(input(0, 4), mCallback);
+        }
+        assertThat(mCallback.sizes.size(), is(8));
+        // 4 bytes at 32000 bytes per second.
+        assertThat(mDroppedNanos.get(), is(125000L));
+    }
+
+    private AudioBuffer input(int start, int size) {
+        final AudioBuffer buffer = mInput.acquire();
+        for (int i = 0; i < size; i++) {
+            buffer.data[i] = (byte) (start + i);
+        }
+        buffer.size = size;
+        return buffer;
+    }
+
+    private static byte[] expected(int size) {
+        final byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    private static class RecordingCallback extends VoiceRecorder.Callback {
+
+        final ArrayList<Integer> sizes = new ArrayList<>();
+
+        final ArrayList<Long> captureTimes = new ArrayList<>();
+
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+        boolean hold;
+
+        @Override
+        public void onVoice(AudioBuffer buffer) {
+            sizes.add(buffer.size);
+            captureTimes.add(buffer.captureNanos);
+            stream.write(buffer.data, 0, buffer.size);
+            if (!hold) {
+                buffer.recycle();
+            }
+        }
+
+        byte[] audio() {
+            return stream.toByteArray();
+        }
+
+    }
+
+}
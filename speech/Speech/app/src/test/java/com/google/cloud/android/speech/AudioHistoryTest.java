@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+
+public class AudioHistoryTest {
+
+    @Test
+    public void capacity_isRoundedToFrames() {
+        assertThat(new AudioHistory(11, 4).getCapacity(), is(8));
+    }
+
+    @Test
+    public void drain_beforeWrapping() {
+        final AudioHistory history = new AudioHistory(8, 2);
+        history.write(bytes(1, 2, 3, 4), 4);
+        final byte[] out = new byte[8];
+        assertThat(history.read(out), is(4));
+        assertArrayEquals(bytes(1, 2, 3, 4), Arrays.copyOf(out, 4));
+        assertThat(history.size(), is(0));
+    }
+
+    @Test
+    public void drain_afterWrapping_keepsLatestInOrder() {
+        final AudioHistory history = new AudioHistory(8, 2);
+        history.write(bytes(1, 2, 3, 4, 5, 6), 6);
+        history.write(bytes(7, 8, 9, 10, 0, 0), 4);
+        final byte[] out = new byte[8];
+        assertThat(history.read(out), is(8));
+        assertArrayEquals(bytes(3, 4, 5, 6, 7, 8, 9, 10), out);
+    }
+
+    @Test
+    public void read_inSmallerChunks() {
+        final AudioHistory history = new AudioHistory(8, 2);
+        history.write(bytes(1, 2, 3, 4, 5, 6), 6);
+        history.write(bytes(7, 8, 9, 10), 4);
+        final byte[] out = new byte[6];
+        assertThat(history.read(out), is(6));
+        assertArrayEquals(bytes(3, 4, 5, 6, 7, 8), out);
+        assertThat(history.read(out), is(2));
+        assertArrayEquals(bytes(9, 10), Arrays.copyOf(out, 2));
+        assertThat(history.size(), is(0));
+    }
+
+    @Test
+    public void copy_doesNotForget() {
+        final AudioHistory history = new AudioHistory(8, 2);
+        history.write(bytes(1, 2, 3, 4, 5, 6), 6);
+        history.write(bytes(7, 8, 9, 10), 4);
+        final byte[] out = new byte[6];
+        assertThat(history.copy(0, out), is(6));
+        assertArrayEquals(bytes(3, 4, 5, 6, 7, 8), out);
+        assertThat(history.copy(6, out), is(2));
+        assertArrayEquals(bytes(9, 10), Arrays.copyOf(out, 2));
+        assertThat(history.copy(8, out), is(0));
+        assertThat(history.size(), is(8));
+    }
+
+    @Test
+    public void write_largerThanCapacity_keepsTail() {
+        final AudioHistory history = new AudioHistory(4, 2);
+        history.write(bytes(1, 2), 2);
+        history.write(bytes(3, 4, 5, 6, 7, 8), 6);
+        final byte[] out = new byte[4];
+        assertThat(history.read(out), is(4));
+        assertArrayEquals(bytes(5, 6, 7, 8), out);
+    }
+
+    @Test
+    public void zeroCapacity() {
+        final AudioHistory history = new AudioHistory(0, 2);
+        history.write(bytes(1, 2), 2);
+        assertThat(history.read(new byte[2]), is(0));
+    }
+
+    private static byte[] bytes(int... values) {
+        final byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+}
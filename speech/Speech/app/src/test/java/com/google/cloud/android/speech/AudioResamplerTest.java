@@ -0,0 +1,134 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+public class AudioResamplerTest {
+
+    @Test
+    public void downmix_withoutResampling() {
+        final AudioResampler resampler = new AudioResampler(2, 16000, 16000);
+        final byte[] input = {
+                (byte) 100, 0, (byte) 200, 0, // 100, 200 -> 150
+                (byte) 0xff, (byte) 0xff, (byte) 0xfd, (byte) 0xff, // -1, -3 -> -2
+        };
+        final byte[] output = new byte[resampler.getMaxOutputSize(input.length)];
+        assertThat(resampler.process(input, input.length, output), is(4));
+        assertThat(sample(output, 0), is(150));
+        assertThat(sample(output, 1), is(-2));
+    }
+
+    @Test
+    public void isNeeded() {
+        assertThat(AudioResampler.isNeeded(1, 16000, 16000), is(false));
+        assertThat(AudioResampler.isNeeded(2, 16000, 16000), is(true));
+        assertThat(AudioResampler.isNeeded(1, 44100, 16000), is(true));
+    }
+
+    @Test
+    public void resample_keepsDurationAcrossChunks() {
+        final AudioResampler resampler = new AudioResampler(2, 44100, 16000);
+        final byte[] input = sine(2, 44100, 440, 4410, 8000); // 100 ms per chunk
+        final byte[] output = new byte[resampler.getMaxOutputSize(input.length)];
+        int total = 0;
+        for (int i = 0; i < 10; i++) {
+            final int size = resampler.process(input, input.length, output);
+            assertTrue(size <= output.length);
+            total += size;
+        }
+        assertThat(total, is(16000 * 2));
+    }
+
+    @Test
+    public void resample_passesVoiceBand() {
+        for (int rate : new int[]{11025, 22050, 44100}) {
+            final AudioResampler resampler = new AudioResampler(1, rate, 16000);
+            final byte[] input = sine(1, rate, 1000, rate, 10000);
+            final byte[] output = new byte[resampler.getMaxOutputSize(input.length)];
+            final int size = resampler.process(input, input.length, output);
+            // Skip the filter delay
+            assertEquals(10000 / Math.sqrt(2), rms(output, 1600, size / 2), 300);
+        }
+    }
+
+    @Test
+    public void resample_removesAliases() {
+        final AudioResampler resampler = new AudioResampler(1, 44100, 16000);
+        // Above the Nyquist frequency of the output
+        final byte[] input = sine(1, 44100, 11000, 44100, 10000);
+        final byte[] output = new byte[resampler.getMaxOutputSize(input.length)];
+        final int size = resampler.process(input, input.length, output);
+        assertTrue(rms(output, 1600, size / 2) < 100);
+    }
+
+    @Test
+    public void resample_rejectsStopBand() {
+        for (int rate : new int[]{44100, 48000}) {
+            final AudioResampler resampler = new AudioResampler(1, rate, 16000);
+            for (int frequency : new int[]{8400, 10000, 15000, 20000}) {
+                resampler.reset();
+                final byte[] input = sine(1, rate, frequency, rate, 10000);
+                final byte[] output = new byte[resampler.getMaxOutputSize(input.length)];
+                final int size = resampler.process(input, input.length, output);
+                final double attenuation = 20 * Math.log10(
+                        (10000 / Math.sqrt(2)) / rms(output, 1600, size / 2));
+                assertTrue(rate + " Hz: " + frequency + " Hz is only " + attenuation + " dB down",
+                        attenuation > 70);
+            }
+        }
+    }
+
+    @Test
+    public void tapsPerPhase_growsWithRatio() {
+        assertTrue(AudioResampler.tapsPerPhase(1, 3) > AudioResampler.tapsPerPhase(2, 3));
+        assertTrue(AudioResampler.tapsPerPhase(160, 441) > 24);
+    }
+
+    private static byte[] sine(int channels, int rate, double frequency, int frames,
+            int amplitude) {
+        final byte[] bytes = new byte[frames * channels * 2];
+        for (int i = 0; i < frames; i++) {
+            final int s = (int) Math.round(amplitude * Math.sin(2 * Math.PI * frequency * i / rate));
+            for (int c = 0; c < channels; c++) {
+                bytes[(i * channels + c) * 2] = (byte) s;
+                bytes[(i * channels + c) * 2 + 1] = (byte) (s >> 8);
+            }
+        }
+        return bytes;
+    }
+
+    private static int sample(byte[] bytes, int index) {
+        return (bytes[index * 2] & 0xff) | (bytes[index * 2 + 1] << 8);
+    }
+
+    private static double rms(byte[] bytes, int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            final int s = sample(bytes, i);
+            sum += (double) s * s;
+        }
+        return Math.sqrt(sum / (to - from));
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+
+public class AudioRingBufferTest {
+
+    @Test
+    public void claimAndTake_inOrder() throws InterruptedException {
+        final AudioRingBuffer ring = new AudioRingBuffer(4, new AudioBufferPool(8, 8));
+        for (int i = 0; i < 3; i++) {
+            final AudioBuffer buffer = ring.claim();
+            buffer.data[0] = (byte) i;
+            buffer.size = i + 1;
+            ring.publish();
+        }
+        for (int i = 0; i < 3; i++) {
+            final AudioBuffer buffer = ring.take();
+            ring.release();
+            assertThat(buffer.data[0], is((byte) i));
+            assertThat(buffer.size, is(i + 1));
+            buffer.recycle();
+        }
+        assertThat(ring.getOverrunCount(), is(0L));
+    }
+
+    @Test
+    public void claim_countsOverrunWhenFull() throws InterruptedException {
+        final AudioRingBuffer ring = new AudioRingBuffer(3, new AudioBufferPool(8, 8)); // Rounded up to 4
+        for (int i = 0; i < 4; i++) {
+            assertThat(ring.claim(), is(notNullValue()));
+            ring.publish();
+        }
+        assertThat(ring.claim(), is(nullValue()));
+        assertThat(ring.claim(), is(nullValue()));
+        assertThat(ring.getOverrunCount(), is(2L));
+        ring.take().recycle();
+        ring.release();
+        assertThat(ring.claim(), is(notNullValue()));
+    }
+
+    @Test
+    public void claim_countsOverrunWhenPoolIsExhausted() throws InterruptedException {
+        final AudioBufferPool pool = new AudioBufferPool(2, 8);
+        final AudioRingBuffer ring = new AudioRingBuffer(4, pool);
+        for (int i = 0; i < 2; i++) {
+            ring.claim();
+            ring.publish();
+        }
+        final AudioBuffer held = ring.take();
+        ring.release();
+        assertThat(ring.claim(), is(nullValue()));
+        assertThat(ring.getOverrunCount(), is(1L));
+        held.recycle();
+        assertThat(ring.claim(), is(notNullValue()));
+    }
+
+    @Test
+    public void claim_reusesUnpublishedBuffer() {
+        final AudioBufferPool pool = new AudioBufferPool(2, 8);
+        final AudioRingBuffer ring = new AudioRingBuffer(4, pool);
+        final AudioBuffer first = ring.claim();
+        assertThat(ring.claim(), is(sameInstance(first)));
+        assertThat(pool.available(), is(1));
+    }
+
+    @Test
+    public void take_waitsForProducer() throws InterruptedException {
+        final AudioRingBuffer ring = new AudioRingBuffer(2, new AudioBufferPool(4, 8));
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 1000; i++) {
+                    AudioBuffer buffer;
+                    while ((buffer = ring.claim()) == null) {
+                        Thread.yield();
+                    }
+                    buffer.size = i;
+                    ring.publish();
+                }
+            }
+        });
+        producer.start();
+        for (int i = 0; i < 1000; i++) {
+            final AudioBuffer buffer = ring.take();
+            ring.release();
+            assertThat(buffer.size, is(i));
+            buffer.recycle();
+        }
+        producer.join();
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+
+public class AudioSegmenterTest {
+
+    /** A chunk of 100 ms at 1 kHz. */
+    private final byte[] mChunk = new byte[200];
+
+    private final ScriptedDetector mDetector = new ScriptedDetector();
+
+    /** At most 1 second, that is, 10 chunks. */
+    private final AudioSegmenter mSegmenter = new AudioSegmenter(mDetector, 1000,
+            TimeUnit.SECONDS.toNanos(1));
+
+    @Test
+    public void cutsAtPauseAfterHalfTheMaximum() {
+        // A pause too early, and another one after half a second.
+        assertThat(segment("VVSVVVVSVV"), is("VVSVVVV|SVV"));
+    }
+
+    @Test
+    public void cutsAtMaximumWithoutPause() {
+        assertThat(segment("VVVVVVVVVVVV"), is("VVVVVVVVVV|VV"));
+    }
+
+    @Test
+    public void silenceAtStartIsKept() {
+        assertThat(segment("SSSSSSSVV"), is("SSSSS|SSVV"));
+    }
+
+    /**
+     * @param script V for a chunk with voice, S for silence.
+     * @return The script with | where a new segment starts.
+     */
+    private String segment(String script) {
+        final StringBuilder result = new StringBuilder();
+        for (int i = 0; i < script.length(); i++) {
+            mDetector.voice = script.charAt(i) == 'V';
+            if (mSegmenter.startsNewSegment(mChunk, mChunk.length)) {
+                result.append('|');
+            }
+            result.append(script.charAt(i));
+        }
+        return result.toString();
+    }
+
+    private static class ScriptedDetector implements VoiceActivityDetector {
+
+        boolean voice;
+
+        @Override
+        public void reset(int sampleRate, int channelCount) {
+        }
+
+        @Override
+        public boolean isHearingVoice(byte[] buffer, int size) {
+            return voice;
+        }
+
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import com.google.protobuf.ByteString;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+
+public class AudioSendQueueTest {
+
+    private final RecordingSink mSink = new RecordingSink();
+
+    /** Holds up to 3 chunks of 10 ns. */
+    private final AudioSendQueue mQueue = new AudioSendQueue(mSink, 30);
+
+    @Test
+    public void put_sendsDirectlyWhenReady() throws InterruptedException {
+        mSink.ready = true;
+        assertThat(mQueue.put(chunk(1), 1, 10, 100, false, false), is(false));
+        assertThat(mSink.sent.toString(), is("[1]"));
+        assertThat(mSink.captureTimes.toString(), is("[100]"));
+        assertThat(mQueue.getQueuedNanos(), is(0L));
+    }
+
+    @Test
+    public void put_queuesUntilReady() throws InterruptedException {
+        final byte[] data = chunk(1);
+        mQueue.put(data, 1, 10, 100, false, false);
+        data[0] = 9; // The caller reuses the buffer.
+        mQueue.put(chunk(2), 1, 10, 110, false, false);
+        assertThat(mSink.sent.size(), is(0));
+        assertThat(mQueue.getQueuedNanos(), is(20L));
+        mSink.ready = true;
+        mQueue.onReady();
+        assertThat(mSink.sent.toString(), is("[1, 2]"));
+        assertThat(mSink.captureTimes.toString(), is("[100, 110]"));
+        assertThat(mQueue.getQueuedNanos(), is(0L));
+    }
+
+    @Test
+    public void put_dropsOldestSilence() throws InterruptedException {
+        mQueue.put(chunk(1), 1, 10, 0, false, true);
+        mQueue.put(chunk(2), 1, 10, 0, true, true);
+        mQueue.put(chunk(3), 1, 10, 0, true, true);
+        assertThat(mQueue.put(chunk(4), 1, 10, 0, false, true), is(true));
+        assertThat(mSink.dropped, is(10L));
+        mQueue.put(chunk(5), 1, 10, 0, true, true);
+        mQueue.put(chunk(6), 1, 10, 0, false, true);
+        assertThat(mSink.dropped, is(30L));
+        // No silence is left in the queue, so the new silence is dropped.
+        assertThat(mQueue.put(chunk(7), 1, 10, 0, true, true), is(true));
+        assertThat(mSink.dropped, is(40L));
+        mSink.ready = true;
+        mQueue.onReady();
+        assertThat(mSink.sent.toString(), is("[1, 4, 6]"));
+    }
+
+    @Test
+    public void put_blocksUntilThereIsRoom() throws InterruptedException {
+        for (int i = 1; i <= 3; i++) {
+            mQueue.put(chunk(i), 1, 10, 0, false, false);
+        }
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mQueue.put(chunk(4), 1, 10, 0, true, false);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        producer.start();
+        Thread.sleep(50);
+        assertThat(producer.isAlive(), is(true));
+        mSink.ready = true;
+        mQueue.onReady();
+        producer.join(1000);
+        assertThat(producer.isAlive(), is(false));
+        assertThat(mSink.sent.toString(), is("[1, 2, 3, 4]"));
+        assertThat(mSink.dropped, is(0L));
+    }
+
+    @Test
+    public void abort_wakesUpProducer() throws InterruptedException {
+        for (int i = 1; i <= 3; i++) {
+            mQueue.put(chunk(i), 1, 10, 0, false, false);
+        }
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mQueue.put(chunk(4), 1, 10, 0, false, false);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        producer.start();
+        Thread.sleep(50);
+        mQueue.abort();
+        producer.join(1000);
+        assertThat(producer.isAlive(), is(false));
+        assertThat(mSink.dropped, is(40L));
+        assertThat(mSink.sent.size(), is(0));
+    }
+
+    @Test
+    public void finish_waitsForQueuedAudio() throws InterruptedException {
+        mQueue.put(chunk(1), 1, 10, 0, false, false);
+        mQueue.finish();
+        assertThat(mSink.finished, is(0));
+        mSink.ready = true;
+        mQueue.onReady();
+        assertThat(mSink.sent.toString(), is("[1]"));
+        assertThat(mSink.finished, is(1));
+        mQueue.onReady();
+        assertThat(mSink.finished, is(1));
+    }
+
+    private static byte[] chunk(int value) {
+        return new byte[]{(byte) value};
+    }
+
+    private static class RecordingSink implements AudioSendQueue.Sink {
+
+        final ArrayList<Integer> sent = new ArrayList<>();
+
+        final ArrayList<Long> captureTimes = new ArrayList<>();
+
+        volatile boolean ready;
+
+        int finished;
+
+        long dropped;
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void send(ByteString audio, long captureNanos) {
+            sent.add((int) audio.byteAt(0));
+            captureTimes.add(captureNanos);
+        }
+
+        @Override
+        public void finish() {
+            finished++;
+        }
+
+        @Override
+        public void onDropped(long durationNanos) {
+            dropped += durationNanos;
+        }
+
+    }
+
+}
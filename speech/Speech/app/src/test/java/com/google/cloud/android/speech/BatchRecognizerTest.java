@@ -0,0 +1,303 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.speech.v1.RecognizeRequest;
+import com.google.cloud.speech.v1.RecognizeResponse;
+import com.google.cloud.speech.v1.SpeechGrpc;
+import com.google.cloud.speech.v1.SpeechRecognitionAlternative;
+import com.google.cloud.speech.v1.SpeechRecognitionResult;
+import com.google.protobuf.ByteString;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+
+public class BatchRecognizerTest {
+
+    private static final int SAMPLE_RATE = 8000;
+
+    /** Stands in for the Speech API. */
+    private final FakeRecognizeService mService = new FakeRecognizeService();
+
+    private final RecordingCallback mCallback = new RecordingCallback();
+
+    private final ScheduledExecutorService mScheduler =
+            Executors.newSingleThreadScheduledExecutor();
+
+    private Server mServer;
+
+    private ManagedChannel mChannel;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = InProcessServerBuilder.forName("BatchRecognizerTest")
+                .addService(mService).directExecutor().build().start();
+        mChannel = InProcessChannelBuilder.forName("BatchRecognizerTest")
+                .directExecutor().build();
+    }
+
+    @After
+    public void tearDown() {
+        mChannel.shutdownNow();
+        mServer.shutdownNow();
+        mService.shutdown();
+        mScheduler.shutdownNow();
+    }
+
+    @Test
+    public void recognize_deliversTranscriptsInOrder() throws Exception {
+        // The later segments are answered first.
+        mService.delayMillis = 400;
+        mService.delayStepMillis = -100;
+        recognizer(8).recognize(audio(3500), SAMPLE_RATE);
+        mCallback.await();
+        final int segments = mService.segments();
+        assertTrue(segments >= 4);
+        assertThat(mCallback.segments, is(segments));
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < segments; i++) {
+            expected.add("segment " + i);
+        }
+        assertThat(mCallback.results, is(expected));
+        assertThat(mService.maxInFlight.get(), is(segments));
+    }
+
+    @Test
+    public void recognize_limitsConcurrency() throws Exception {
+        mService.delayMillis = 50;
+        recognizer(2).recognize(audio(3500), SAMPLE_RATE);
+        mCallback.await();
+        assertThat(mCallback.results.size(), is(mService.segments()));
+        assertTrue(mService.maxInFlight.get() <= 2);
+    }
+
+    @Test
+    public void recognize_skipsEmptySegments() throws Exception {
+        mService.silent = 1;
+        recognizer(4).recognize(audio(2500), SAMPLE_RATE);
+        mCallback.await();
+        assertThat(mCallback.results.get(0), is("segment 0"));
+        assertThat(mCallback.results.get(1), is("segment 2"));
+        assertThat(mCallback.results.size(), is(mService.segments() - 1));
+    }
+
+    @Test
+    public void recognize_retriesTransientError() throws Exception {
+        mService.fail(1, Status.UNAVAILABLE, 1);
+        recognizer(4).recognize(audio(2500), SAMPLE_RATE);
+        mCallback.await();
+        assertThat(mCallback.results.get(1), is("segment 1"));
+        assertThat(mCallback.results.size(), is(mService.segments()));
+        assertThat(mCallback.errors.size(), is(1));
+    }
+
+    @Test
+    public void recognize_reportsSegmentThatKeepsFailing() throws Exception {
+        mService.fail(1, Status.UNAVAILABLE, Integer.MAX_VALUE);
+        recognizer(4).recognize(audio(2500), SAMPLE_RATE);
+        mCallback.await();
+        assertThat(mCallback.results.get(0), is("segment 0"));
+        assertThat(mCallback.results.get(1), is("failed 1: UNAVAILABLE"));
+        assertThat(mCallback.results.get(2), is("segment 2"));
+        assertThat(mCallback.errors.size(), is(BatchRecognizer.MAX_ATTEMPTS));
+    }
+
+    @Test
+    public void recognize_doesNotRetryPermanentError() throws Exception {
+        mService.fail(1, Status.INVALID_ARGUMENT, Integer.MAX_VALUE);
+        recognizer(4).recognize(audio(2500), SAMPLE_RATE);
+        mCallback.await();
+        assertThat(mCallback.results.get(1), is("failed 1: INVALID_ARGUMENT"));
+        assertThat(mCallback.errors.size(), is(1));
+    }
+
+    private BatchRecognizer recognizer(int concurrency) {
+        return new BatchRecognizer(SpeechGrpc.newStub(mChannel), "en-US", concurrency,
+                TimeUnit.SECONDS.toNanos(1), mScheduler, mCallback);
+    }
+
+    /**
+     * @return Raw LINEAR16 of loud noise, so that segments are cut at the maximum length and no
+     * two of them are the same.
+     */
+    private static ByteArrayInputStream audio(int millis) {
+        final Random random = new Random(1);
+        final int samples = SAMPLE_RATE * millis / 1000;
+        final byte[] bytes = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            final int s = random.nextInt(20000) - 10000;
+            bytes[i * 2] = (byte) s;
+            bytes[i * 2 + 1] = (byte) (s >> 8);
+        }
+        return new ByteArrayInputStream(bytes);
+    }
+
+    private static class RecordingCallback implements BatchRecognizer.Callback {
+
+        /** The transcripts and the failed segments, in the order they were delivered. */
+        final List<String> results = Collections.synchronizedList(new ArrayList<String>());
+
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+
+        volatile int segments = -1;
+
+        private final CountDownLatch mCompleted = new CountDownLatch(1);
+
+        @Override
+        public void onTranscript(String transcript) {
+            results.add(transcript);
+        }
+
+        @Override
+        public void onError(int segment, Throwable t) {
+            errors.add(segment + ": " + Status.fromThrowable(t).getCode());
+        }
+
+        @Override
+        public void onFailed(int segment, Throwable t) {
+            results.add("failed " + segment + ": " + Status.fromThrowable(t).getCode());
+        }
+
+        @Override
+        public void onCompleted(int segments) {
+            this.segments = segments;
+            mCompleted.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(mCompleted.await(10, TimeUnit.SECONDS));
+        }
+
+    }
+
+    /**
+     * Answers the Recognize calls of the Nth segment with "segment N". The segments are told
+     * apart by their audio, so that a retry is answered like the first attempt.
+     */
+    private static class FakeRecognizeService extends SpeechGrpc.SpeechImplBase {
+
+        /** How long to wait before answering the first segment. */
+        volatile long delayMillis;
+
+        /** How much longer to wait for each following segment. */
+        volatile long delayStepMillis;
+
+        /** The segment answered with no results, or -1. */
+        volatile int silent = -1;
+
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        /** The audio of the segments, in the order they first arrived. */
+        private final List<ByteString> mSegments = new ArrayList<>();
+
+        private final ConcurrentHashMap<Integer, Status> mFailureStatus =
+                new ConcurrentHashMap<>();
+
+        private final ConcurrentHashMap<Integer, AtomicInteger> mFailures =
+                new ConcurrentHashMap<>();
+
+        private final AtomicInteger mInFlight = new AtomicInteger();
+
+        private final ScheduledExecutorService mScheduler =
+                Executors.newSingleThreadScheduledExecutor();
+
+        /**
+         * Fails the calls of a segment.
+         *
+         * @param times How many calls to fail before answering.
+         */
+        void fail(int segment, Status status, int times) {
+            mFailureStatus.put(segment, status);
+            mFailures.put(segment, new AtomicInteger(times));
+        }
+
+        @Override
+        public void recognize(final RecognizeRequest request,
+                final StreamObserver<RecognizeResponse> responseObserver) {
+            final int segment = segmentOf(request.getAudio().getContent());
+            final int inFlight = mInFlight.incrementAndGet();
+            int max;
+            while (inFlight > (max = maxInFlight.get())) {
+                maxInFlight.compareAndSet(max, inFlight);
+            }
+            mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    mInFlight.decrementAndGet();
+                    final AtomicInteger failures = mFailures.get(segment);
+                    if (failures != null && failures.getAndDecrement() > 0) {
+                        responseObserver.onError(
+                                mFailureStatus.get(segment).asRuntimeException());
+                        return;
+                    }
+                    final RecognizeResponse.Builder response = RecognizeResponse.newBuilder();
+                    if (segment != silent) {
+                        response.addResults(SpeechRecognitionResult.newBuilder()
+                                .addAlternatives(SpeechRecognitionAlternative.newBuilder()
+                                        .setTranscript("segment " + segment)));
+                    }
+                    responseObserver.onNext(response.build());
+                    responseObserver.onCompleted();
+                }
+            }, Math.max(0, delayMillis + segment * delayStepMillis), TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized int segmentOf(ByteString audio) {
+            final int index = mSegments.indexOf(audio);
+            if (index >= 0) {
+                return index;
+            }
+            mSegments.add(audio);
+            return mSegments.size() - 1;
+        }
+
+        synchronized int segments() {
+            return mSegments.size();
+        }
+
+        void shutdown() {
+            mScheduler.shutdownNow();
+        }
+
+    }
+
+}
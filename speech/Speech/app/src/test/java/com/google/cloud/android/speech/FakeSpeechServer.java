@@ -0,0 +1,197 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import com.google.cloud.speech.v1.SpeechGrpc;
+import com.google.cloud.speech.v1.SpeechRecognitionAlternative;
+import com.google.cloud.speech.v1.StreamingRecognitionResult;
+import com.google.cloud.speech.v1.StreamingRecognizeRequest;
+import com.google.cloud.speech.v1.StreamingRecognizeResponse;
+
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+
+/**
+ * An in-process Speech API that answers streaming calls with scripted results.
+ *
+ * <p>Each call gets an interim result every time another {@code bytesPerWord} bytes of audio
+ * have arrived, with one more word of the script than the last one. All the words but the last
+ * are marked stable. When the client half-closes the call, the final result with the words heard
+ * so far is sent and the call is completed. Every result is sent after the configured delay.</p>
+ */
+class FakeSpeechServer extends SpeechGrpc.SpeechImplBase {
+
+    private final String[] mWords;
+
+    private final int mBytesPerWord;
+
+    private final long mDelayMillis;
+
+    /** Sends all the responses, so those of a call are never sent concurrently. */
+    private final ScheduledExecutorService mScheduler =
+            Executors.newSingleThreadScheduledExecutor();
+
+    private final AtomicLong mRequests = new AtomicLong();
+
+    private final AtomicLong mAudioBytes = new AtomicLong();
+
+    private final ConcurrentLinkedQueue<Long> mChecksums = new ConcurrentLinkedQueue<>();
+
+    private Server mServer;
+
+    /**
+     * @param script       The words to recognize, separated by spaces.
+     * @param bytesPerWord How much audio to receive for each word.
+     * @param delayMillis  How long to wait before sending each result.
+     */
+    FakeSpeechServer(String script, int bytesPerWord, long delayMillis) {
+        mWords = script.split(" ");
+        mBytesPerWord = bytesPerWord;
+        mDelayMillis = delayMillis;
+    }
+
+    /**
+     * Starts serving in-process.
+     *
+     * @param name The name to connect to with {@code InProcessChannelBuilder}.
+     */
+    void start(String name) throws IOException {
+        mServer = InProcessServerBuilder.forName(name).addService(this).build().start();
+    }
+
+    void shutdown() throws InterruptedException {
+        mServer.shutdown();
+        mScheduler.shutdown();
+        mServer.awaitTermination(5, TimeUnit.SECONDS);
+        mScheduler.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return The number of requests received, including the configuration ones.
+     */
+    long getRequestCount() {
+        return mRequests.get();
+    }
+
+    long getAudioBytes() {
+        return mAudioBytes.get();
+    }
+
+    /**
+     * @return The CRC-32 of the audio of each call that has been half-closed, in the order they
+     * were half-closed.
+     */
+    List<Long> getAudioChecksums() {
+        return new ArrayList<>(mChecksums);
+    }
+
+    @Override
+    public StreamObserver<StreamingRecognizeRequest> streamingRecognize(
+            final StreamObserver<StreamingRecognizeResponse> responseObserver) {
+        return new StreamObserver<StreamingRecognizeRequest>() {
+
+            /** Only touched on the gRPC thread of the call. */
+            private long mBytes;
+
+            private final CRC32 mChecksum = new CRC32();
+
+            private int mWordsHeard;
+
+            @Override
+            public void onNext(StreamingRecognizeRequest request) {
+                mRequests.incrementAndGet();
+                final byte[] audio = request.getAudioContent().toByteArray();
+                final int size = audio.length;
+                mChecksum.update(audio, 0, size);
+                mAudioBytes.addAndGet(size);
+                mBytes += size;
+                final int words = (int) Math.min(mWords.length, mBytes / mBytesPerWord);
+                if (words > mWordsHeard) {
+                    mWordsHeard = words;
+                    schedule(response(words, false));
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onCompleted() {
+                mChecksums.add(mChecksum.getValue());
+                schedule(response(mWordsHeard, true));
+                mScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        responseObserver.onCompleted();
+                    }
+                }, mDelayMillis, TimeUnit.MILLISECONDS);
+            }
+
+            private void schedule(final StreamingRecognizeResponse response) {
+                mScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        responseObserver.onNext(response);
+                    }
+                }, mDelayMillis, TimeUnit.MILLISECONDS);
+            }
+
+        };
+    }
+
+    private StreamingRecognizeResponse response(int words, boolean isFinal) {
+        final StreamingRecognizeResponse.Builder response = StreamingRecognizeResponse.newBuilder();
+        if (isFinal) {
+            response.addResults(result(0, words, 0f, true));
+        } else if (words > 0) {
+            response.addResults(result(0, words - 1, 0.9f, false));
+            response.addResults(result(words - 1, words, 0.1f, false));
+        }
+        return response.build();
+    }
+
+    private StreamingRecognitionResult result(int from, int to, float stability,
+            boolean isFinal) {
+        final StringBuilder transcript = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            if (i > 0) {
+                transcript.append(' ');
+            }
+            transcript.append(mWords[i]);
+        }
+        return StreamingRecognitionResult.newBuilder()
+                .addAlternatives(SpeechRecognitionAlternative.newBuilder()
+                        .setTranscript(transcript.toString()))
+                .setStability(stability)
+                .setIsFinal(isFinal)
+                .build();
+    }
+
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+
+public class FlacEncoderTest {
+
+    @Test
+    public void streamHeader() {
+        final FlacEncoder encoder = new FlacEncoder(16000);
+        final byte[] stream = Arrays.copyOf(encoder.getOutput(), encoder.getOutputSize());
+        assertThat(stream.length, is(42));
+        assertThat(new String(stream, 0, 4), is("fLaC"));
+        final BitReader reader = new BitReader(stream, 4);
+        assertThat(reader.read(1), is(1)); // Last metadata block
+        assertThat(reader.read(7), is(0)); // STREAMINFO
+        assertThat(reader.read(24), is(34));
+        assertThat(reader.read(16), is(FlacEncoder.DEFAULT_BLOCK_SIZE));
+        assertThat(reader.read(16), is(FlacEncoder.DEFAULT_BLOCK_SIZE));
+        reader.read(24);
+        reader.read(24);
+        assertThat(reader.read(20), is(16000));
+        assertThat(reader.read(3), is(0));
+        assertThat(reader.read(5), is(15));
+    }
+
+    @Test
+    public void roundTrip_speechLikeSignal() {
+        final short[] samples = new short[16000];
+        final Random random = new Random(1);
+        for (int i = 0; i < samples.length; i++) {
+            final double t = i / 16000.0;
+            samples[i] = (short) (6000 * Math.sin(2 * Math.PI * 220 * t)
+                    + 3000 * Math.sin(2 * Math.PI * 660 * t)
+                    + random.nextGaussian() * 20);
+        }
+        final byte[] input = toBytes(samples);
+        final byte[] stream = encode(new FlacEncoder(16000), input, 3200);
+        assertArrayEquals(samples, decode(stream));
+        assertTrue(stream.length < input.length * 0.55);
+    }
+
+    @Test
+    public void roundTrip_edgeCases() {
+        final short[] samples = new short[5000]; // Not a multiple of the block size
+        final Random random = new Random(2);
+        for (int i = 0; i < samples.length; i++) {
+            if (i < 1024) {
+                samples[i] = 0; // Constant
+            } else if (i < 2048) {
+                samples[i] = (short) random.nextInt(); // White noise; verbatim
+            } else {
+                samples[i] = i % 2 == 0 ? Short.MAX_VALUE : Short.MIN_VALUE;
+            }
+        }
+        final FlacEncoder encoder = new FlacEncoder(16000);
+        // An odd chunk size splits samples between calls.
+        assertArrayEquals(samples, decode(encode(encoder, toBytes(samples), 333)));
+        assertThat(encoder.getInputBytes(), is(10000L));
+    }
+
+    @Test
+    public void reset_startsNewStream() {
+        final FlacEncoder encoder = new FlacEncoder(16000);
+        encode(encoder, new byte[4000], 4000);
+        encoder.reset();
+        final short[] samples = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17};
+        final byte[] stream = encode(encoder, toBytes(samples), 34);
+        assertArrayEquals(samples, decode(stream));
+        assertThat(encoder.getOutputBytes(), is((long) stream.length));
+    }
+
+    @Test
+    public void padFrame_continuesStream() {
+        final FlacEncoder encoder = new FlacEncoder(16000, 16);
+        final short[] samples = {1, 2, 3, 4, 5};
+        encoder.encode(toBytes(samples), 10);
+        encoder.padFrame();
+        encoder.encode(toBytes(samples), 10);
+        encoder.finish();
+        final short[] expected = new short[21];
+        System.arraycopy(samples, 0, expected, 0, 5);
+        System.arraycopy(samples, 0, expected, 16, 5);
+        assertArrayEquals(expected,
+                decode(Arrays.copyOf(encoder.getOutput(), encoder.getOutputSize())));
+    }
+
+    private static byte[] encode(FlacEncoder encoder, byte[] input, int chunk) {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (int offset = 0; offset < input.length; offset += chunk) {
+            final int size = Math.min(chunk, input.length - offset);
+            encoder.encode(Arrays.copyOfRange(input, offset, offset + size), size);
+            output.write(encoder.getOutput(), 0, encoder.getOutputSize());
+            encoder.clearOutput();
+        }
+        encoder.finish();
+        output.write(encoder.getOutput(), 0, encoder.getOutputSize());
+        return output.toByteArray();
+    }
+
+    private static byte[] toBytes(short[] samples) {
+        final byte[] bytes = new byte[samples.length * 2];
+        for (int i = 0; i < samples.length; i++) {
+            bytes[i * 2] = (byte) samples[i];
+            bytes[i * 2 + 1] = (byte) (samples[i] >> 8);
+        }
+        return bytes;
+    }
+
+    /**
+     * Decodes the subset of FLAC that {@link FlacEncoder} produces, verifying the checksums.
+     */
+    private static short[] decode(byte[] stream) {
+        final short[] samples = new short[stream.length * 8];
+        int count = 0;
+        final BitReader reader = new BitReader(stream, 42);
+        while (reader.position() < stream.length) {
+            final int start = reader.position();
+            assertThat(reader.read(14), is(0x3ffe));
+            reader.read(2);
+            final int blockSizeCode = reader.read(4);
+            assertThat(reader.read(4), is(0));
+            assertThat(reader.read(4), is(0));
+            assertThat(reader.read(3), is(4));
+            reader.read(1);
+            int first = reader.read(8);
+            while ((first & 0xc0) == 0xc0) { // Skip the frame number
+                reader.read(8);
+                first = (first << 1) & 0xff;
+            }
+            int blockSize;
+            if (blockSizeCode == 6) {
+                blockSize = reader.read(8) + 1;
+            } else if (blockSizeCode == 7) {
+                blockSize = reader.read(16) + 1;
+            } else if (blockSizeCode >= 8) {
+                blockSize = 256 << (blockSizeCode - 8);
+            } else {
+                blockSize = blockSizeCode == 1 ? 192 : 576 << (blockSizeCode - 2);
+            }
+            final int crc8 = FlacEncoder.crc8(stream, start, reader.position());
+            assertThat(reader.read(8), is(crc8));
+            decodeSubframe(reader, samples, count, blockSize);
+            count += blockSize;
+            reader.align();
+            final int crc16 = FlacEncoder.crc16(stream, start, reader.position());
+            assertThat(reader.read(16), is(crc16));
+        }
+        return Arrays.copyOf(samples, count);
+    }
+
+    private static void decodeSubframe(BitReader reader, short[] out, int offset, int n) {
+        assertThat(reader.read(1), is(0));
+        final int type = reader.read(6);
+        assertThat(reader.read(1), is(0));
+        final int[] x = new int[n];
+        if (type == 0) {
+            Arrays.fill(x, reader.readSigned(16));
+        } else if (type == 1) {
+            for (int i = 0; i < n; i++) {
+                x[i] = reader.readSigned(16);
+            }
+        } else {
+            final boolean lpc = type >= 32;
+            final int order = lpc ? (type & 31) + 1 : type & 7;
+            for (int i = 0; i < order; i++) {
+                x[i] = reader.readSigned(16);
+            }
+            final int[] coefficients;
+            int shift = 0;
+            if (lpc) {
+                final int precision = reader.read(4) + 1;
+                shift = reader.readSigned(5);
+                coefficients = new int[order];
+                for (int i = 0; i < order; i++) {
+                    coefficients[i] = reader.readSigned(precision);
+                }
+            } else {
+                coefficients = new int[][]{{}, {1}, {2, -1}, {3, -3, 1}, {4, -6, 4, -1}}[order];
+            }
+            assertThat(reader.read(2), is(0));
+            final int partitionOrder = reader.read(4);
+            int i = order;
+            for (int p = 0; p < 1 << partitionOrder; p++) {
+                final int parameter = reader.read(4);
+                final int end = (p + 1) * (n >> partitionOrder);
+                for (; i < end; i++) {
+                    int q = 0;
+                    while (reader.read(1) == 0) {
+                        q++;
+                    }
+                    final int u = (q << parameter) | reader.read(parameter);
+                    long prediction = 0;
+                    for (int j = 0; j < order; j++) {
+                        prediction += (long) coefficients[j] * x[i - 1 - j];
+                    }
+                    x[i] = ((u >>> 1) ^ -(u & 1)) + (int) (prediction >> shift);
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            out[offset + i] = (short) x[i];
+        }
+    }
+
+    private static class BitReader {
+
+        private final byte[] mBytes;
+        private long mBit;
+
+        BitReader(byte[] bytes, int offset) {
+            mBytes = bytes;
+            mBit = offset * 8L;
+        }
+
+        int read(int bits) {
+            int value = 0;
+            for (int i = 0; i < bits; i++, mBit++) {
+                value = (value << 1) | ((mBytes[(int) (mBit >> 3)] >> (7 - (mBit & 7))) & 1);
+            }
+            return value;
+        }
+
+        int readSigned(int bits) {
+            return read(bits) << (32 - bits) >> (32 - bits);
+        }
+
+        int position() {
+            return (int) (mBit >> 3);
+        }
+
+        void align() {
+            mBit = (mBit + 7) & ~7;
+        }
+
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+
+public class JitteredBackoffTest {
+
+    @Test
+    public void next_growsUpToMax() {
+        final JitteredBackoff backoff = new JitteredBackoff(100, 1000, new Random(42));
+        assertBetween(backoff.next(), 50, 100);
+        assertBetween(backoff.next(), 100, 200);
+        assertBetween(backoff.next(), 200, 400);
+        assertBetween(backoff.next(), 400, 800);
+        for (int i = 0; i < 100; i++) {
+            assertBetween(backoff.next(), 500, 1000);
+        }
+    }
+
+    @Test
+    public void reset() {
+        final JitteredBackoff backoff = new JitteredBackoff(100, 1000, new Random(42));
+        for (int i = 0; i < 5; i++) {
+            backoff.next();
+        }
+        backoff.reset();
+        assertBetween(backoff.next(), 50, 100);
+    }
+
+    private static void assertBetween(long value, long min, long max) {
+        assertTrue(value + " is not in [" + min + ", " + max + "]", min <= value && value <= max);
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+
+public class LatencyHistogramTest {
+
+    private final LatencyHistogram mHistogram = new LatencyHistogram();
+
+    @Test
+    public void empty() {
+        assertThat(mHistogram.getCount(), is(0L));
+        assertThat(mHistogram.getPercentile(50, TimeUnit.MILLISECONDS), is(0L));
+    }
+
+    @Test
+    public void percentiles() {
+        for (int i = 1; i <= 1000; i++) {
+            mHistogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        assertThat(mHistogram.getCount(), is(1000L));
+        assertEquals(500, mHistogram.getPercentile(50, TimeUnit.MILLISECONDS), 500 * 0.07);
+        assertEquals(900, mHistogram.getPercentile(90, TimeUnit.MILLISECONDS), 900 * 0.07);
+        assertEquals(990, mHistogram.getPercentile(99, TimeUnit.MILLISECONDS), 990 * 0.07);
+        assertEquals(1000, mHistogram.getPercentile(100, TimeUnit.MILLISECONDS), 1000 * 0.07);
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        mHistogram.record(3);
+        mHistogram.record(17);
+        assertThat(mHistogram.getPercentile(50, TimeUnit.NANOSECONDS), is(3L));
+        assertThat(mHistogram.getPercentile(100, TimeUnit.NANOSECONDS), is(17L));
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        mHistogram.record(-5);
+        mHistogram.record(TimeUnit.DAYS.toNanos(1));
+        assertThat(mHistogram.getPercentile(50, TimeUnit.NANOSECONDS), is(0L));
+        assertThat(mHistogram.getPercentile(100, TimeUnit.MINUTES), is(18L));
+    }
+
+    @Test
+    public void reset() {
+        mHistogram.record(100);
+        mHistogram.reset();
+        assertThat(mHistogram.getCount(), is(0L));
+    }
+
+}
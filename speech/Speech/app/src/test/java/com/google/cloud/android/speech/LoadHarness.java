@@ -0,0 +1,342 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import com.google.cloud.speech.v1.RecognitionConfig;
+import com.google.cloud.speech.v1.SpeechGrpc;
+import com.google.cloud.speech.v1.StreamingRecognizeRequest;
+import com.google.cloud.speech.v1.StreamingRecognizeResponse;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import io.grpc.ManagedChannel;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Pushes audio through streaming calls to a {@link FakeSpeechServer}, the same way
+ * {@link SpeechService} does, and measures how the client side copes.
+ *
+ * <p>The audio is read with {@link AudioFileReader}, paced at a multiple of realtime, and sent
+ * through an {@link AudioSendQueue} with the requests from {@link StreamingRequests}. Run it from
+ * the app directory:</p>
+ *
+ * <pre>
+ * java ... com.google.cloud.android.speech.LoadHarness [file] [speed] [streams]
+ * </pre>
+ */
+class LoadHarness {
+
+    /**
+     * What a run measured.
+     */
+    static class Report {
+
+        /** From the first audio sent to the first result of each stream. */
+        final LatencyHistogram timeToFirstResult = new LatencyHistogram();
+
+        /** From the end of the audio to the final result of each stream. */
+        final LatencyHistogram timeToFinal = new LatencyHistogram();
+
+        /** The time it takes to build, serialize and hand over each audio request. */
+        final LatencyHistogram perMessage = new LatencyHistogram();
+
+        final AtomicLong results = new AtomicLong();
+
+        final AtomicLong finalResults = new AtomicLong();
+
+        final AtomicLong failures = new AtomicLong();
+
+        int streams;
+
+        long elapsedNanos;
+
+        /** An estimate from the heap usage; see {@link LoadHarness#run}. */
+        long bytesPerStream;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d streams in %.1f s, %d results, %d final, "
+                            + "%d failed%n"
+                            + "time to first result: p50 %d ms, p99 %d ms%n"
+                            + "time to final: p50 %d ms, p99 %d ms%n"
+                            + "per message: p50 %d us, p99 %d us%n"
+                            + "memory per stream: %d KiB",
+                    streams, elapsedNanos / 1e9, results.get(), finalResults.get(),
+                    failures.get(),
+                    timeToFirstResult.getPercentile(50, TimeUnit.MILLISECONDS),
+                    timeToFirstResult.getPercentile(99, TimeUnit.MILLISECONDS),
+                    timeToFinal.getPercentile(50, TimeUnit.MILLISECONDS),
+                    timeToFinal.getPercentile(99, TimeUnit.MILLISECONDS),
+                    perMessage.getPercentile(50, TimeUnit.MICROSECONDS),
+                    perMessage.getPercentile(99, TimeUnit.MICROSECONDS),
+                    bytesPerStream / 1024);
+        }
+
+    }
+
+    private static final long QUEUE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final ManagedChannel mChannel;
+
+    private final byte[] mAudio;
+
+    private final int mSampleRate;
+
+    private final int mChunkBytes;
+
+    /**
+     * @param serverName  The name the {@link FakeSpeechServer} was started with.
+     * @param audio       The audio file, in WAV or raw LINEAR16.
+     * @param sampleRate  The sample rate of raw audio.
+     * @param chunkMillis How much audio to send in each request.
+     */
+    LoadHarness(String serverName, byte[] audio, int sampleRate, int chunkMillis) {
+        mChannel = InProcessChannelBuilder.forName(serverName).build();
+        mAudio = audio;
+        mSampleRate = sampleRate;
+        mChunkBytes = sampleRate * 2 * chunkMillis / 1000;
+    }
+
+    void shutdown() throws InterruptedException {
+        mChannel.shutdown();
+        mChannel.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Sends the audio on concurrent streams and waits for all of them to finish.
+     *
+     * <p>The memory per stream is the growth of the heap while the streams are running, divided
+     * by the number of streams. It includes garbage, so it is only an upper bound.</p>
+     *
+     * @param streams The number of concurrent streams.
+     * @param speed   How many times faster than realtime to send the audio.
+     * @return What was measured.
+     */
+    Report run(int streams, final double speed) throws InterruptedException {
+        final Report report = new Report();
+        report.streams = streams;
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        final long baseline = runtime.totalMemory() - runtime.freeMemory();
+        final AtomicLong peak = new AtomicLong(baseline);
+        final ExecutorService executor = Executors.newFixedThreadPool(streams);
+        final CountDownLatch done = new CountDownLatch(streams);
+        final long start = System.nanoTime();
+        for (int i = 0; i < streams; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        new Stream(report, speed).run();
+                    } catch (IOException | InterruptedException e) {
+                        report.failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        while (!done.await(10, TimeUnit.MILLISECONDS)) {
+            final long used = runtime.totalMemory() - runtime.freeMemory();
+            if (used > peak.get()) {
+                peak.set(used);
+            }
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        report.bytesPerStream = (peak.get() - baseline) / streams;
+        executor.shutdown();
+        return report;
+    }
+
+    private class Stream implements
+            ClientResponseObserver<StreamingRecognizeRequest, StreamingRecognizeResponse>,
+            AudioSendQueue.Sink {
+
+        private final Report mReport;
+
+        private final double mSpeed;
+
+        private final AudioSendQueue mQueue = new AudioSendQueue(this, QUEUE_NANOS);
+
+        private final CountDownLatch mDone = new CountDownLatch(1);
+
+        private ClientCallStreamObserver<StreamingRecognizeRequest> mRequestObserver;
+
+        private volatile long mFirstSentNanos;
+
+        private volatile long mFinishedNanos;
+
+        private boolean mFirstResult = true;
+
+        Stream(Report report, double speed) {
+            mReport = report;
+            mSpeed = speed;
+        }
+
+        void run() throws IOException, InterruptedException {
+            final AudioFileReader reader = new AudioFileReader(
+                    new ByteArrayInputStream(mAudio), mSampleRate);
+            final int sampleRate = reader.getSampleRate();
+            SpeechGrpc.newStub(mChannel).streamingRecognize(this);
+            mRequestObserver.onNext(StreamingRequests.configRequest(StreamingRequests.config(
+                    "en-US", RecognitionConfig.AudioEncoding.LINEAR16, sampleRate, true,
+                    false)));
+            final byte[] buffer = new byte[mChunkBytes];
+            final long start = System.nanoTime();
+            long sentNanos = 0;
+            int read;
+            while ((read = reader.read(buffer)) > 0) {
+                final long duration = TimeUnit.SECONDS.toNanos(read / 2) / sampleRate;
+                // Sends each chunk when it would have been recorded.
+                final long wait = start + (long) (sentNanos / mSpeed) - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                final long before = System.nanoTime();
+                if (mFirstSentNanos == 0) {
+                    mFirstSentNanos = before;
+                }
+                mQueue.put(buffer, read, duration, before, false, false);
+                mReport.perMessage.record(System.nanoTime() - before);
+                sentNanos += duration;
+            }
+            reader.close();
+            mFinishedNanos = System.nanoTime();
+            mQueue.finish();
+            if (!mDone.await(30, TimeUnit.SECONDS)) {
+                mReport.failures.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void beforeStart(ClientCallStreamObserver<StreamingRecognizeRequest> observer) {
+            mRequestObserver = observer;
+            observer.setOnReadyHandler(new Runnable() {
+                @Override
+                public void run() {
+                    mQueue.onReady();
+                }
+            });
+        }
+
+        @Override
+        public boolean isReady() {
+            return mRequestObserver.isReady();
+        }
+
+        /**
+         * The in-process transport hands the request over without serializing it, so this does
+         * it instead. That way the serialization is measured like on the network, and the server
+         * gets a copy of the audio rather than the buffer that is reused for the next chunk.
+         */
+        @Override
+        public void send(ByteString audio, long captureNanos) {
+            final byte[] serialized = StreamingRequests.audioRequest(audio).toByteArray();
+            try {
+                mRequestObserver.onNext(StreamingRecognizeRequest.parseFrom(serialized));
+            } catch (InvalidProtocolBufferException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        @Override
+        public void finish() {
+            mRequestObserver.onCompleted();
+        }
+
+        @Override
+        public void onDropped(long durationNanos) {
+        }
+
+        @Override
+        public void onNext(StreamingRecognizeResponse response) {
+            final long now = System.nanoTime();
+            mReport.results.incrementAndGet();
+            if (mFirstResult) {
+                mFirstResult = false;
+                mReport.timeToFirstResult.record(now - mFirstSentNanos);
+            }
+            if (response.getResultsCount() > 0 && response.getResults(0).getIsFinal()) {
+                mReport.finalResults.incrementAndGet();
+                mReport.timeToFinal.record(now - mFinishedNanos);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            mReport.failures.incrementAndGet();
+            mQueue.abort();
+            mDone.countDown();
+        }
+
+        @Override
+        public void onCompleted() {
+            mQueue.abort();
+            mDone.countDown();
+        }
+
+    }
+
+    /**
+     * Runs the harness against a {@link FakeSpeechServer} and prints the report.
+     *
+     * @param args The audio file (R.raw.audio by default), the speed (10 by default) and the
+     *             number of streams (8 by default).
+     */
+    public static void main(String[] args) throws Exception {
+        final File file = new File(args.length > 0 ? args[0] : "src/main/res/raw/audio.raw");
+        final double speed = args.length > 1 ? Double.parseDouble(args[1]) : 10;
+        final int streams = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        final byte[] audio = new byte[(int) file.length()];
+        final FileInputStream input = new FileInputStream(file);
+        try {
+            int offset = 0;
+            int read;
+            while (offset < audio.length
+                    && (read = input.read(audio, offset, audio.length - offset)) > 0) {
+                offset += read;
+            }
+        } finally {
+            input.close();
+        }
+        final FakeSpeechServer server = new FakeSpeechServer(
+                "how old is the Brooklyn Bridge", 16000, 50);
+        server.start("load");
+        final LoadHarness harness = new LoadHarness("load", audio, 16000, 100);
+        try {
+            System.out.println(harness.run(streams, speed));
+        } finally {
+            harness.shutdown();
+            server.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.zip.CRC32;
+
+
+public class LoadHarnessTest {
+
+    private static final int SAMPLE_RATE = 16000;
+
+    private FakeSpeechServer mServer;
+
+    private LoadHarness mHarness;
+
+    /** One second of audio. */
+    private final byte[] mAudio = new byte[SAMPLE_RATE * 2];
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < mAudio.length; i++) {
+            mAudio[i] = (byte) (i * 31);
+        }
+        mServer = new FakeSpeechServer("one two three four", SAMPLE_RATE / 2, 1);
+        mServer.start("LoadHarnessTest");
+        mHarness = new LoadHarness("LoadHarnessTest", mAudio, SAMPLE_RATE, 100);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHarness.shutdown();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void run() throws Exception {
+        final LoadHarness.Report report = mHarness.run(3, 50);
+        assertThat(report.failures.get(), is(0L));
+        assertThat(report.finalResults.get(), is(3L));
+        assertThat(report.timeToFirstResult.getCount(), is(3L));
+        // Each stream gets an interim result for each word and the final one.
+        assertThat(report.results.get(), is(3L * 5));
+        // The configuration and ten chunks of audio on each stream
+        assertThat(mServer.getRequestCount(), is(3L * 11));
+        assertThat(mServer.getAudioBytes(), is(3L * mAudio.length));
+        // The server got the audio itself, not the buffer reused for the later chunks.
+        final CRC32 checksum = new CRC32();
+        checksum.update(mAudio, 0, mAudio.length);
+        assertThat(mServer.getAudioChecksums().size(), is(3));
+        for (long received : mServer.getAudioChecksums()) {
+            assertThat(received, is(checksum.getValue()));
+        }
+        assertThat(report.perMessage.getCount(), is(3L * 10));
+    }
+
+}
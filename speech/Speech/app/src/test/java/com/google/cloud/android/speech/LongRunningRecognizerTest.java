@@ -0,0 +1,342 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.speech.v1.LongRunningRecognizeRequest;
+import com.google.cloud.speech.v1.LongRunningRecognizeResponse;
+import com.google.cloud.speech.v1.RecognitionAudio;
+import com.google.cloud.speech.v1.RecognitionConfig;
+import com.google.cloud.speech.v1.SpeechGrpc;
+import com.google.cloud.speech.v1.SpeechRecognitionAlternative;
+import com.google.cloud.speech.v1.SpeechRecognitionResult;
+import com.google.longrunning.CancelOperationRequest;
+import com.google.longrunning.GetOperationRequest;
+import com.google.longrunning.Operation;
+import com.google.longrunning.OperationsGrpc;
+import com.google.protobuf.Any;
+import com.google.protobuf.Empty;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+
+public class LongRunningRecognizerTest {
+
+    private final FakeLongRunningService mService = new FakeLongRunningService();
+
+    private final FakeOperationsService mOperations = new FakeOperationsService();
+
+    private final MemoryStore mStore = new MemoryStore();
+
+    private final RecordingCallback mCallback = new RecordingCallback();
+
+    private final ScheduledExecutorService mScheduler =
+            Executors.newSingleThreadScheduledExecutor();
+
+    private Server mServer;
+
+    private ManagedChannel mChannel;
+
+    private LongRunningRecognizer mRecognizer;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = InProcessServerBuilder.forName("LongRunningRecognizerTest")
+                .addService(mService).addService(mOperations).directExecutor().build().start();
+        mChannel = InProcessChannelBuilder.forName("LongRunningRecognizerTest")
+                .directExecutor().build();
+        mRecognizer = new LongRunningRecognizer(SpeechGrpc.newStub(mChannel),
+                OperationsGrpc.newStub(mChannel), mScheduler, mStore, mCallback, 10, 50, 4096);
+    }
+
+    @After
+    public void tearDown() {
+        mRecognizer.stop();
+        mScheduler.shutdownNow();
+        mChannel.shutdownNow();
+        mServer.shutdownNow();
+    }
+
+    @Test
+    public void submit_pollsUntilDone() throws Exception {
+        mOperations.pollsUntilDone.set(2);
+        mRecognizer.submit(config(), RecognitionAudio.newBuilder().setUri("gs://b/o").build());
+        assertThat(mCallback.next(), is("operations/1: hello"));
+        assertThat(mOperations.polls.get(), is(3));
+        assertThat(mStore.names.isEmpty(), is(true));
+        assertThat(mStore.saved, is(list("+operations/1", "-operations/1")));
+    }
+
+    @Test
+    public void submit_deliversOperationDoneAtOnce() throws Exception {
+        mService.done = true;
+        mRecognizer.submit(config(), RecognitionAudio.newBuilder().setUri("gs://b/o").build());
+        assertThat(mCallback.next(), is("operations/1: hello"));
+        assertThat(mOperations.polls.get(), is(0));
+    }
+
+    @Test
+    public void submit_reportsFailedOperation() throws Exception {
+        mOperations.failure = Status.INVALID_ARGUMENT;
+        mRecognizer.submit(config(), RecognitionAudio.newBuilder().setUri("gs://b/o").build());
+        assertThat(mCallback.next(), is("failed: INVALID_ARGUMENT"));
+        assertThat(mStore.names.isEmpty(), is(true));
+    }
+
+    @Test
+    public void resume_pollsSavedOperations() throws Exception {
+        mStore.names.add("operations/7");
+        mRecognizer.resume();
+        assertThat(mCallback.next(), is("operations/7: hello"));
+        assertThat(mStore.names.isEmpty(), is(true));
+    }
+
+    @Test
+    public void poll_forgetsOperationThatIsGone() throws Exception {
+        mStore.names.add("operations/gone");
+        mRecognizer.resume();
+        assertThat(mCallback.next(), is("error: NOT_FOUND"));
+        mStore.awaitRemoved("operations/gone");
+    }
+
+    @Test
+    public void cancel_forgetsOperation() throws Exception {
+        mOperations.pollsUntilDone.set(Integer.MAX_VALUE);
+        mRecognizer.submit(config(), RecognitionAudio.newBuilder().setUri("gs://b/o").build());
+        mStore.awaitAdded("operations/1");
+        mRecognizer.cancel("operations/1");
+        assertThat(mOperations.cancelled.poll(5, TimeUnit.SECONDS), is("operations/1"));
+        assertThat(mStore.names.isEmpty(), is(true));
+    }
+
+    @Test
+    public void upload_sendsFlac() throws Exception {
+        mService.done = true;
+        mRecognizer.upload(new ByteArrayInputStream(new byte[16000]), 8000, "en-US");
+        assertThat(mCallback.next(), is("operations/1: hello"));
+        final LongRunningRecognizeRequest request = mService.requests.get(0);
+        assertThat(request.getConfig().getEncoding(),
+                is(RecognitionConfig.AudioEncoding.FLAC));
+        assertThat(request.getConfig().getSampleRateHertz(), is(8000));
+        assertTrue(request.getAudio().getContent().size() > 0);
+    }
+
+    @Test
+    public void upload_rejectsAudioTooLongToSendInline() throws Exception {
+        // Noise hardly compresses, so 1 s of it is well over 4 KB of FLAC.
+        final byte[] noise = new byte[16000];
+        new Random(1).nextBytes(noise);
+        try {
+            mRecognizer.upload(new ByteArrayInputStream(noise), 8000, "en-US");
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("gs://"));
+        }
+        assertThat(mService.requests.size(), is(0));
+    }
+
+    private static RecognitionConfig config() {
+        return RecognitionConfig.newBuilder()
+                .setEncoding(RecognitionConfig.AudioEncoding.FLAC)
+                .setSampleRateHertz(16000)
+                .setLanguageCode("en-US")
+                .build();
+    }
+
+    private static List<String> list(String... items) {
+        final List<String> list = new ArrayList<>();
+        Collections.addAll(list, items);
+        return list;
+    }
+
+    private static Operation done(String name) {
+        return Operation.newBuilder()
+                .setName(name)
+                .setDone(true)
+                .setResponse(Any.newBuilder().setValue(LongRunningRecognizeResponse.newBuilder()
+                        .addResults(SpeechRecognitionResult.newBuilder()
+                                .addAlternatives(SpeechRecognitionAlternative.newBuilder()
+                                        .setTranscript("hello")))
+                        .build().toByteString()))
+                .build();
+    }
+
+    private static class MemoryStore implements LongRunningRecognizer.OperationStore {
+
+        final Set<String> names = Collections.synchronizedSet(new HashSet<String>());
+
+        final List<String> saved = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public Set<String> load() {
+            synchronized (names) {
+                return new HashSet<>(names);
+            }
+        }
+
+        @Override
+        public synchronized void save(String name, boolean running) {
+            saved.add((running ? "+" : "-") + name);
+            if (running) {
+                names.add(name);
+            } else {
+                names.remove(name);
+            }
+            notifyAll();
+        }
+
+        synchronized void awaitAdded(String name) throws InterruptedException {
+            while (!names.contains(name)) {
+                wait(5000);
+            }
+        }
+
+        synchronized void awaitRemoved(String name) throws InterruptedException {
+            while (names.contains(name)) {
+                wait(5000);
+            }
+        }
+
+    }
+
+    private static class RecordingCallback implements LongRunningRecognizer.Callback {
+
+        private final LinkedBlockingQueue<String> mEvents = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onTranscript(String operation, String transcript) {
+            mEvents.add(operation + ": " + transcript);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            mEvents.add("error: " + Status.fromThrowable(t).getCode());
+        }
+
+        @Override
+        public void onFailed(Throwable t) {
+            mEvents.add("failed: " + Status.fromThrowable(t).getCode());
+        }
+
+        String next() throws InterruptedException {
+            final String event = mEvents.poll(5, TimeUnit.SECONDS);
+            assertTrue("No event", event != null);
+            return event;
+        }
+
+    }
+
+    /**
+     * Starts "operations/1" for every request.
+     */
+    private static class FakeLongRunningService extends SpeechGrpc.SpeechImplBase {
+
+        /** Whether the operations are done as soon as they are started. */
+        volatile boolean done;
+
+        final List<LongRunningRecognizeRequest> requests =
+                Collections.synchronizedList(new ArrayList<LongRunningRecognizeRequest>());
+
+        @Override
+        public void longRunningRecognize(LongRunningRecognizeRequest request,
+                StreamObserver<Operation> responseObserver) {
+            requests.add(request);
+            responseObserver.onNext(done ? done("operations/1")
+                    : Operation.newBuilder().setName("operations/1").build());
+            responseObserver.onCompleted();
+        }
+
+    }
+
+    /**
+     * Reports the operations as running for a number of polls, and then as done. Answers
+     * NOT_FOUND for "operations/gone".
+     */
+    private static class FakeOperationsService extends OperationsGrpc.OperationsImplBase {
+
+        final AtomicInteger pollsUntilDone = new AtomicInteger();
+
+        final AtomicInteger polls = new AtomicInteger();
+
+        /** The error the operations end with, or {@code null}. */
+        volatile Status failure;
+
+        final LinkedBlockingQueue<String> cancelled = new LinkedBlockingQueue<>();
+
+        @Override
+        public void getOperation(GetOperationRequest request,
+                StreamObserver<Operation> responseObserver) {
+            polls.incrementAndGet();
+            if (request.getName().equals("operations/gone")) {
+                responseObserver.onError(Status.NOT_FOUND.asRuntimeException());
+                return;
+            }
+            if (pollsUntilDone.getAndDecrement() > 0) {
+                responseObserver.onNext(Operation.newBuilder()
+                        .setName(request.getName()).build());
+            } else if (failure != null) {
+                responseObserver.onNext(Operation.newBuilder()
+                        .setName(request.getName())
+                        .setDone(true)
+                        .setError(com.google.rpc.Status.newBuilder()
+                                .setCode(failure.getCode().value())
+                                .setMessage("Bad audio"))
+                        .build());
+            } else {
+                responseObserver.onNext(done(request.getName()));
+            }
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public void cancelOperation(CancelOperationRequest request,
+                StreamObserver<Empty> responseObserver) {
+            cancelled.add(request.getName());
+            responseObserver.onNext(Empty.getDefaultInstance());
+            responseObserver.onCompleted();
+        }
+
+    }
+
+}
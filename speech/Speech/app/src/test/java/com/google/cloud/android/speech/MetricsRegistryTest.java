@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+
+public class MetricsRegistryTest {
+
+    private final MetricsRegistry mRegistry = new MetricsRegistry();
+
+    @Test
+    public void counter_isCreatedOnce() {
+        assertThat(mRegistry.counter("a"), is(sameInstance(mRegistry.counter("a"))));
+        assertThat(mRegistry.histogram("a"), is(sameInstance(mRegistry.histogram("a"))));
+    }
+
+    @Test
+    public void snapshot() {
+        mRegistry.counter("b").addAndGet(3);
+        mRegistry.counter("a").incrementAndGet();
+        final LatencyHistogram histogram = mRegistry.histogram("h");
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        final MetricsSnapshot snapshot = mRegistry.snapshot();
+        assertThat(snapshot.getCounters().toString(), is("{a=1, b=3}"));
+        assertThat(snapshot.getCounter("c"), is(0L));
+        assertThat(snapshot.getHistogram("missing"), is(nullValue()));
+        final MetricsSnapshot.Distribution distribution = snapshot.getHistogram("h");
+        assertThat(distribution.getCount(), is(100L));
+        assertThat(distribution.getMedian(TimeUnit.MILLISECONDS),
+                is(histogram.getPercentile(50, TimeUnit.MILLISECONDS)));
+        assertThat(distribution.get99thPercentile(TimeUnit.MILLISECONDS),
+                is(histogram.getPercentile(99, TimeUnit.MILLISECONDS)));
+        assertThat(distribution.getMax(TimeUnit.MILLISECONDS),
+                is(histogram.getPercentile(100, TimeUnit.MILLISECONDS)));
+        // The snapshot does not change afterwards.
+        mRegistry.counter("a").incrementAndGet();
+        assertThat(snapshot.getCounter("a"), is(1L));
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+
+public class PollingBackoffTest {
+
+    private final PollingBackoff mBackoff = new PollingBackoff(1000, 10000);
+
+    @Test
+    public void next_growsUpToMax() {
+        assertThat(mBackoff.next(0, 0), is(1000L));
+        assertThat(mBackoff.next(0, 0), is(1500L));
+        assertThat(mBackoff.next(0, 0), is(2250L));
+        for (int i = 0; i < 10; i++) {
+            mBackoff.next(0, 0);
+        }
+        assertThat(mBackoff.next(0, 0), is(10000L));
+    }
+
+    @Test
+    public void next_followsProgress() {
+        for (int i = 0; i < 10; i++) {
+            mBackoff.next(0, 0);
+        }
+        // 80% in 40 seconds; 10 seconds to go.
+        assertThat(mBackoff.next(80, 40000), is(5000L));
+        // Almost done.
+        assertThat(mBackoff.next(99, 40000), is(1000L));
+        // Far from done; the backoff limits the delay.
+        assertThat(mBackoff.next(10, 40000), is(10000L));
+    }
+
+}
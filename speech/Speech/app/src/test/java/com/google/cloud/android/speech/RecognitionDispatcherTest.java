@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+
+public class RecognitionDispatcherTest {
+
+    private final ManualExecutor mExecutor = new ManualExecutor();
+
+    private final RecognitionDispatcher mDispatcher = new RecognitionDispatcher(mExecutor);
+
+    private final RecordingListener mListener = new RecordingListener();
+
+    private final Object mStream = new Object();
+
+    private final Object mOtherStream = new Object();
+
+    @Before
+    public void setUp() {
+        mDispatcher.addListener(mListener);
+    }
+
+    @Test
+    public void dispatch_coalescesInterimResults() {
+        mDispatcher.dispatch(mStream, "a", false, null);
+        mDispatcher.dispatch(mOtherStream, "x", false, null);
+        mDispatcher.dispatch(mStream, "ab", false, null);
+        assertThat(mExecutor.tasks.size(), is(1));
+        mExecutor.runAll();
+        assertThat(mListener.results.toString(), is("[x, ab]"));
+        assertThat(mDispatcher.getCoalescedCount(), is(1L));
+    }
+
+    @Test
+    public void dispatch_neverDropsFinalResults() {
+        mDispatcher.dispatch(mStream, "a", false, null);
+        mDispatcher.dispatch(mStream, "ab", true, null);
+        mDispatcher.dispatch(mStream, "c", false, null);
+        mDispatcher.dispatch(mStream, "cd", true, null);
+        mDispatcher.dispatch(mStream, "e", false, null);
+        mExecutor.runAll();
+        assertThat(mListener.results.toString(), is("[ab!, cd!, e]"));
+    }
+
+    @Test
+    public void dispatch_duringDeliveryGoesToNextBatch() {
+        mDispatcher.addListener(new SpeechService.Listener() {
+            @Override
+            public void onSpeechRecognized(String text, boolean isFinal,
+                    RecognitionLatency latency) {
+                if (text.equals("a")) {
+                    mDispatcher.dispatch(mStream, "b", false, null);
+                }
+            }
+        });
+        mDispatcher.dispatch(mStream, "a", false, null);
+        mExecutor.runNext();
+        assertThat(mListener.results.toString(), is("[a]"));
+        assertThat(mExecutor.tasks.size(), is(1));
+        mExecutor.runAll();
+        assertThat(mListener.results.toString(), is("[a, b]"));
+        assertThat(mExecutor.tasks.size(), is(0));
+    }
+
+    @Test
+    public void dispatch_mergesCoalescedDeltas() {
+        final ArrayList<String> deltas = new ArrayList<>();
+        mDispatcher.addTranscriptListener(new SpeechService.TranscriptListener() {
+            @Override
+            public void onTranscriptChanged(TranscriptDelta delta) {
+                deltas.add(delta.toString());
+            }
+        });
+        mDispatcher.dispatch(mStream, "a", false, null, new TranscriptDelta(0, "a", "b", false));
+        mDispatcher.dispatch(mStream, "ac", false, null, new TranscriptDelta(0, "c", "", false));
+        mExecutor.runAll();
+        assertThat(deltas.toString(), is("[-0 +\"ac\" ~\"\"]"));
+        assertThat(mListener.results.toString(), is("[ac]"));
+    }
+
+    @Test
+    public void dispatchError_deliveredInOrder() {
+        mDispatcher.addErrorListener(new SpeechService.ErrorListener() {
+            @Override
+            public void onRecognitionFailed(Throwable error) {
+                mListener.results.add("error: " + error.getMessage());
+            }
+        });
+        mDispatcher.dispatch(mStream, "a", true, null);
+        mDispatcher.dispatchError(mStream, new IllegalStateException("b"));
+        mDispatcher.dispatch(mStream, "c", false, null);
+        mDispatcher.dispatch(mStream, "cd", true, null);
+        mExecutor.runAll();
+        assertThat(mListener.results.toString(), is("[a!, error: b, cd!]"));
+    }
+
+    @Test
+    public void removeListener() {
+        mDispatcher.removeListener(mListener);
+        mDispatcher.dispatch(mStream, "a", true, null);
+        mExecutor.runAll();
+        assertThat(mListener.results.size(), is(0));
+    }
+
+    private static class ManualExecutor implements Executor {
+
+        final ArrayList<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runNext() {
+            tasks.remove(0).run();
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                runNext();
+            }
+        }
+
+    }
+
+    private static class RecordingListener implements SpeechService.Listener {
+
+        final ArrayList<String> results = new ArrayList<>();
+
+        @Override
+        public void onSpeechRecognized(String text, boolean isFinal,
+                RecognitionLatency latency) {
+            results.add(isFinal ? text + "!" : text);
+        }
+
+    }
+
+}
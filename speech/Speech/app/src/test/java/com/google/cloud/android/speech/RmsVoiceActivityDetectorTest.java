@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class RmsVoiceActivityDetectorTest {
+
+    private static final int SAMPLE_RATE = 16000;
+
+    /** 10 milliseconds of mono audio. */
+    private static final int FRAME_BYTES = SAMPLE_RATE / 100 * 2;
+
+    private RmsVoiceActivityDetector mDetector;
+
+    @Before
+    public void setUp() {
+        mDetector = new RmsVoiceActivityDetector(400, 3.0f, 30, 100);
+        mDetector.reset(SAMPLE_RATE, 1);
+    }
+
+    @Test
+    public void silence() {
+        assertThat(mDetector.isHearingVoice(tone(0, 50), 50 * FRAME_BYTES), is(false));
+    }
+
+    @Test
+    public void singleClick_isIgnored() {
+        final byte[] buffer = tone(0, 10);
+        buffer[FRAME_BYTES * 5] = (byte) 0xff;
+        buffer[FRAME_BYTES * 5 + 1] = (byte) 0x7f;
+        assertThat(mDetector.isHearingVoice(buffer, buffer.length), is(false));
+    }
+
+    @Test
+    public void voice_startsAfterStartFrames() {
+        assertThat(mDetector.isHearingVoice(tone(3000, 2), 2 * FRAME_BYTES), is(false));
+        assertThat(mDetector.isHearingVoice(tone(3000, 1), FRAME_BYTES), is(true));
+    }
+
+    @Test
+    public void voice_hangsOver() {
+        mDetector.isHearingVoice(tone(3000, 10), 10 * FRAME_BYTES);
+        // 100 milliseconds of hangover
+        assertThat(mDetector.isHearingVoice(tone(0, 9), 9 * FRAME_BYTES), is(true));
+        assertThat(mDetector.isActive(), is(true));
+        assertThat(mDetector.isHearingVoice(tone(0, 2), 2 * FRAME_BYTES), is(true));
+        assertThat(mDetector.isActive(), is(false));
+        assertThat(mDetector.isHearingVoice(tone(0, 1), FRAME_BYTES), is(false));
+    }
+
+    @Test
+    public void noiseFloor_adapts() {
+        // Steady noise well above the absolute minimum
+        mDetector.isHearingVoice(tone(1000, 1000), 1000 * FRAME_BYTES);
+        assertThat(mDetector.isHearingVoice(tone(1000, 50), 50 * FRAME_BYTES), is(false));
+        // Voice still stands out from the noise
+        assertThat(mDetector.isHearingVoice(tone(6000, 5), 5 * FRAME_BYTES), is(true));
+    }
+
+    @Test
+    public void partialFrames_accumulateAcrossBuffers() {
+        final byte[] buffer = tone(3000, 4);
+        for (int offset = 0; offset < buffer.length; offset += 100) {
+            final byte[] chunk = new byte[100];
+            System.arraycopy(buffer, offset, chunk, 0, Math.min(100, buffer.length - offset));
+            mDetector.isHearingVoice(chunk, chunk.length);
+        }
+        assertThat(mDetector.isActive(), is(true));
+    }
+
+    /**
+     * Creates a square wave with the specified amplitude.
+     */
+    private static byte[] tone(int amplitude, int frames) {
+        final byte[] buffer = new byte[frames * FRAME_BYTES];
+        for (int i = 0; i < buffer.length; i += 2) {
+            final int s = (i / 2) % 16 < 8 ? amplitude : -amplitude;
+            buffer[i] = (byte) s;
+            buffer[i + 1] = (byte) (s >> 8);
+        }
+        return buffer;
+    }
+
+}
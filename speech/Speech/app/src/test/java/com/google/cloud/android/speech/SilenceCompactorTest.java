@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+public class SilenceCompactorTest {
+
+    /** 8 kHz mono */
+    private static final int BYTE_RATE = 16000;
+
+    /** 50 ms */
+    private static final int BUFFER_BYTES = 800;
+
+    private static final long BUFFER_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final AudioBufferPool mPool = new AudioBufferPool(16, BUFFER_BYTES);
+
+    private final AtomicLong mCompactedBytes = new AtomicLong();
+
+    private final AtomicLong mDroppedNanos = new AtomicLong();
+
+    /** The size and the capture time of each buffer written to the output. */
+    private final ArrayList<long[]> mWritten = new ArrayList<>();
+
+    private final SilenceCompactor.Output mOutput = new SilenceCompactor.Output() {
+        @Override
+        public void write(AudioBuffer buffer) {
+            mWritten.add(new long[]{buffer.size, buffer.captureNanos});
+            buffer.recycle();
+        }
+    };
+
+    /** The capture time of the next buffer. */
+    private long mNanos = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void silence_sentUpToGap() {
+        // 100 ms of pre-roll, 200 ms gap
+        final SilenceCompactor compactor = compactor(1600, 3200);
+        compactor.start(mNanos);
+        compactor.voice(buffer());
+        for (int i = 0; i < 6; i++) {
+            compactor.silence(buffer());
+        }
+        // The voice and the first 200 ms of the silence
+        assertThat(mWritten.size(), is(5));
+        assertThat(mCompactedBytes.get(), is(0L));
+    }
+
+    @Test
+    public void voice_sendsTailOfHeldBackSilence() {
+        final SilenceCompactor compactor = compactor(1600, 3200);
+        compactor.start(mNanos);
+        compactor.voice(buffer());
+        for (int i = 0; i < 10; i++) {
+            compactor.silence(buffer());
+        }
+        assertThat(mWritten.size(), is(5));
+        final long resumed = mNanos;
+        compactor.voice(buffer());
+        // 100 ms of the tail and then the voice
+        assertThat(mWritten.size(), is(8));
+        // 300 ms held back, 100 ms of it sent
+        assertThat(mCompactedBytes.get(), is(3200L));
+        // The tail is continuous with the voice.
+        assertThat(mWritten.get(5)[0], is((long) BUFFER_BYTES));
+        assertThat(mWritten.get(5)[1], is(resumed - 2 * BUFFER_NANOS));
+        assertThat(mWritten.get(6)[1], is(resumed - BUFFER_NANOS));
+        assertThat(mWritten.get(7)[1], is(resumed));
+    }
+
+    @Test
+    public void voice_afterShortSilence() {
+        final SilenceCompactor compactor = compactor(1600, 3200);
+        compactor.start(mNanos);
+        compactor.voice(buffer());
+        compactor.silence(buffer());
+        compactor.voice(buffer());
+        assertThat(mWritten.size(), is(3));
+        assertThat(mCompactedBytes.get(), is(0L));
+    }
+
+    @Test
+    public void start_sendsPreRoll() {
+        final SilenceCompactor compactor = compactor(1600, 3200);
+        for (int i = 0; i < 5; i++) {
+            compactor.idle(buffer());
+        }
+        final long started = mNanos;
+        compactor.start(started);
+        compactor.voice(buffer());
+        assertThat(mWritten.size(), is(3));
+        assertThat(mWritten.get(0)[1], is(started - 2 * BUFFER_NANOS));
+        assertThat(mWritten.get(1)[1], is(started - BUFFER_NANOS));
+        assertThat(mWritten.get(2)[1], is(started));
+        assertThat(mPool.available(), is(16));
+    }
+
+    @Test
+    public void end_countsHeldBackSilence() {
+        final SilenceCompactor compactor = compactor(1600, 3200);
+        compactor.start(mNanos);
+        compactor.voice(buffer());
+        for (int i = 0; i < 10; i++) {
+            compactor.silence(buffer());
+        }
+        compactor.end();
+        assertThat(mCompactedBytes.get(), is(4800L));
+        // The held back silence is the pre-roll of the next utterance.
+        compactor.start(mNanos);
+        assertThat(mWritten.size(), is(7));
+        assertThat(mCompactedBytes.get(), is(4800L));
+    }
+
+    @Test
+    public void noGap_sendsAllSilence() {
+        final SilenceCompactor compactor = compactor(1600, 0);
+        compactor.start(mNanos);
+        compactor.voice(buffer());
+        for (int i = 0; i < 10; i++) {
+            compactor.silence(buffer());
+        }
+        compactor.voice(buffer());
+        assertThat(mWritten.size(), is(12));
+        assertThat(mCompactedBytes.get(), is(0L));
+    }
+
+    @Test
+    public void start_countsDroppedPreRoll() {
+        final AudioBufferPool empty = new AudioBufferPool(0, BUFFER_BYTES);
+        final SilenceCompactor compactor = new SilenceCompactor(new AudioHistory(1600, 2), empty,
+                mOutput, BYTE_RATE, 3200, mCompactedBytes, mDroppedNanos);
+        compactor.idle(buffer());
+        compactor.start(mNanos);
+        assertThat(mWritten.size(), is(0));
+        assertThat(mDroppedNanos.get(), is(BUFFER_NANOS));
+    }
+
+    private SilenceCompactor compactor(int historyBytes, int gapBytes) {
+        return new SilenceCompactor(new AudioHistory(historyBytes, 2), mPool, mOutput, BYTE_RATE,
+                gapBytes, mCompactedBytes, mDroppedNanos);
+    }
+
+    private AudioBuffer buffer() {
+        final AudioBuffer buffer = mPool.acquire();
+        buffer.size = BUFFER_BYTES;
+        buffer.captureNanos = mNanos;
+        mNanos += BUFFER_NANOS;
+        return buffer;
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import com.google.logging.v2.LoggingServiceV2Grpc;
+import com.google.logging.v2.WriteLogEntriesRequest;
+import com.google.logging.v2.WriteLogEntriesResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+
+public class TelemetryReporterTest {
+
+    private static final long IDLE_MILLIS = 200;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final FakeLoggingService mService = new FakeLoggingService();
+
+    private final FakeHost mHost = new FakeHost();
+
+    private Server mServer;
+
+    private ManagedChannel mChannel;
+
+    private TelemetryReporter mReporter;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = InProcessServerBuilder.forName("TelemetryReporterTest")
+                .addService(mService).directExecutor().build().start();
+        mChannel = InProcessChannelBuilder.forName("TelemetryReporterTest")
+                .directExecutor().build();
+        mReporter = new TelemetryReporter(new TelemetrySpool(mFolder.newFolder(), 1024, 4096),
+                "speech", Executors.newSingleThreadScheduledExecutor(), IDLE_MILLIS, mHost);
+    }
+
+    @After
+    public void tearDown() {
+        mReporter.close();
+        mChannel.shutdownNow();
+        mServer.shutdownNow();
+    }
+
+    @Test
+    public void record_uploadsWhenIdle() throws Exception {
+        mReporter.setApi(LoggingServiceV2Grpc.newBlockingStub(mChannel));
+        mReporter.record(TelemetrySpoolTest.entry(0));
+        mReporter.record(TelemetrySpoolTest.entry(1));
+        final WriteLogEntriesRequest request = mService.requests.poll(5, TimeUnit.SECONDS);
+        assertThat(request, is(notNullValue()));
+        assertThat(request.getLogName(), is("projects/p/logs/speech"));
+        assertThat(request.getEntriesCount(), is(2));
+        assertThat(mHost.uploaded.poll(5, TimeUnit.SECONDS), is(2));
+    }
+
+    @Test
+    public void record_waitsWhileRecognizing() throws Exception {
+        mHost.recognizing = true;
+        mReporter.setApi(LoggingServiceV2Grpc.newBlockingStub(mChannel));
+        mReporter.record(TelemetrySpoolTest.entry(0));
+        assertThat(mService.requests.poll(IDLE_MILLIS * 2, TimeUnit.MILLISECONDS),
+                is(nullValue()));
+        mHost.recognizing = false;
+        assertThat(mService.requests.poll(5, TimeUnit.SECONDS), is(notNullValue()));
+    }
+
+    @Test
+    public void setApi_uploadsWhatCameDueBefore() throws Exception {
+        mReporter.record(TelemetrySpoolTest.entry(0));
+        // Long enough for the upload to come due without the API.
+        Thread.sleep(IDLE_MILLIS * 2);
+        assertThat(mService.requests.size(), is(0));
+        mReporter.setApi(LoggingServiceV2Grpc.newBlockingStub(mChannel));
+        // Made right away, rather than after another idle period.
+        assertThat(mService.requests.poll(IDLE_MILLIS / 2, TimeUnit.MILLISECONDS),
+                is(notNullValue()));
+    }
+
+    @Test
+    public void setApi_uploadsWhatIsLeftFromBefore() throws Exception {
+        final TelemetrySpool spool = new TelemetrySpool(mFolder.newFolder(), 1024, 4096);
+        spool.append(TelemetrySpoolTest.entry(0));
+        spool.close();
+        mReporter.close();
+        mReporter = new TelemetryReporter(spool, "speech",
+                Executors.newSingleThreadScheduledExecutor(), IDLE_MILLIS, mHost);
+        mReporter.setApi(LoggingServiceV2Grpc.newBlockingStub(mChannel));
+        assertThat(mService.requests.poll(5, TimeUnit.SECONDS), is(notNullValue()));
+    }
+
+    private static class FakeHost implements TelemetryReporter.Host {
+
+        volatile boolean recognizing;
+
+        final LinkedBlockingQueue<Integer> uploaded = new LinkedBlockingQueue<>();
+
+        @Override
+        public boolean isRecognizing() {
+            return recognizing;
+        }
+
+        @Override
+        public String readProjectId() {
+            return "p";
+        }
+
+        @Override
+        public void onUploaded(int records) {
+            uploaded.add(records);
+        }
+
+        @Override
+        public void onError(Exception e) {
+            throw new AssertionError(e);
+        }
+
+    }
+
+    private static class FakeLoggingService extends LoggingServiceV2Grpc.LoggingServiceV2ImplBase {
+
+        final LinkedBlockingQueue<WriteLogEntriesRequest> requests = new LinkedBlockingQueue<>();
+
+        @Override
+        public void writeLogEntries(WriteLogEntriesRequest request,
+                StreamObserver<WriteLogEntriesResponse> responseObserver) {
+            requests.add(request);
+            responseObserver.onNext(WriteLogEntriesResponse.getDefaultInstance());
+            responseObserver.onCompleted();
+        }
+
+    }
+
+}
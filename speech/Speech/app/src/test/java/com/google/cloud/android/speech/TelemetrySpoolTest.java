@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import com.google.logging.v2.LogEntry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+
+public class TelemetrySpoolTest {
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void next_returnsSegmentsInOrder() throws IOException {
+        final TelemetrySpool spool = new TelemetrySpool(mFolder.newFolder(), 30, 1024);
+        for (int i = 0; i < 5; i++) {
+            // Each record takes 12 bytes, so a segment has 3 of them.
+            spool.append(entry(i));
+        }
+        TelemetrySpool.Batch batch = spool.next();
+        assertThat(batch.entries.size(), is(3));
+        assertThat(batch.entries.get(0).getInsertId(), is("entry0000"));
+        // Not removed yet
+        assertThat(spool.next().entries.size(), is(3));
+        spool.remove(batch);
+        batch = spool.next();
+        assertThat(batch.entries.size(), is(2));
+        assertThat(batch.entries.get(0).getInsertId(), is("entry0003"));
+        spool.remove(batch);
+        assertThat(spool.next(), is(nullValue()));
+        spool.append(entry(5));
+        assertThat(spool.next().entries.get(0).getInsertId(), is("entry0005"));
+    }
+
+    @Test
+    public void append_survivesRestart() throws IOException {
+        final File directory = mFolder.newFolder();
+        final TelemetrySpool spool = new TelemetrySpool(directory, 1024, 4096);
+        spool.append(entry(0));
+        spool.close();
+        final TelemetrySpool restarted = new TelemetrySpool(directory, 1024, 4096);
+        restarted.append(entry(1));
+        TelemetrySpool.Batch batch = restarted.next();
+        assertThat(batch.entries.size(), is(1));
+        assertThat(batch.entries.get(0).getInsertId(), is("entry0000"));
+        restarted.remove(batch);
+        assertThat(restarted.next().entries.get(0).getInsertId(), is("entry0001"));
+    }
+
+    @Test
+    public void next_skipsPartialRecord() throws IOException {
+        final File directory = mFolder.newFolder();
+        final TelemetrySpool spool = new TelemetrySpool(directory, 1024, 4096);
+        spool.append(entry(0));
+        spool.close();
+        final File[] files = directory.listFiles();
+        final FileOutputStream output = new FileOutputStream(files[0], true);
+        output.write(new byte[]{10, 1, 2});
+        output.close();
+        assertThat(new TelemetrySpool(directory, 1024, 4096).next().entries.size(), is(1));
+    }
+
+    @Test
+    public void append_dropsOldestSegmentsWhenFull() throws IOException {
+        // Each record fills a segment, and the spool has room for 3 of them.
+        final TelemetrySpool spool = new TelemetrySpool(mFolder.newFolder(), 12, 36);
+        for (int i = 0; i < 5; i++) {
+            spool.append(entry(i));
+        }
+        assertThat(spool.getDroppedSegments(), is(2L));
+        assertThat(spool.next().entries.get(0).getInsertId(), is("entry0002"));
+    }
+
+    static LogEntry entry(int i) {
+        return LogEntry.newBuilder().setInsertId(String.format("entry%04d", i)).build();
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.logging.v2.LoggingServiceV2Grpc;
+import com.google.logging.v2.WriteLogEntriesRequest;
+import com.google.logging.v2.WriteLogEntriesResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+
+public class TelemetryUploaderTest {
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    /** Stands in for the logging API. */
+    private final FakeLoggingService mService = new FakeLoggingService();
+
+    private Server mServer;
+
+    private ManagedChannel mChannel;
+
+    private TelemetrySpool mSpool;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = InProcessServerBuilder.forName("TelemetryUploaderTest")
+                .addService(mService).directExecutor().build().start();
+        mChannel = InProcessChannelBuilder.forName("TelemetryUploaderTest")
+                .directExecutor().build();
+        mSpool = new TelemetrySpool(mFolder.newFolder(), 30, 1024);
+    }
+
+    @After
+    public void tearDown() {
+        mChannel.shutdownNow();
+        mServer.shutdownNow();
+    }
+
+    @Test
+    public void upload_sendsOneRequestPerSegment() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            mSpool.append(TelemetrySpoolTest.entry(i));
+        }
+        final TelemetryUploader uploader = new TelemetryUploader(mSpool, "projects/p/logs/l");
+        assertThat(uploader.upload(LoggingServiceV2Grpc.newBlockingStub(mChannel)), is(5));
+        assertThat(mService.requests.size(), is(2));
+        final WriteLogEntriesRequest request = mService.requests.get(0);
+        assertThat(request.getLogName(), is("projects/p/logs/l"));
+        assertThat(request.getResource().getType(), is("global"));
+        assertThat(request.getEntriesCount(), is(3));
+        assertThat(mService.requests.get(1).getEntries(1).getInsertId(), is("entry0004"));
+        assertThat(mSpool.next(), is(nullValue()));
+    }
+
+    @Test
+    public void upload_keepsSegmentOnFailure() throws Exception {
+        mSpool.append(TelemetrySpoolTest.entry(0));
+        mService.failures = 1;
+        final TelemetryUploader uploader = new TelemetryUploader(mSpool, "projects/p/logs/l");
+        try {
+            uploader.upload(LoggingServiceV2Grpc.newBlockingStub(mChannel));
+            fail();
+        } catch (StatusRuntimeException e) {
+            assertThat(e.getStatus().getCode(), is(Status.Code.UNAVAILABLE));
+        }
+        assertThat(uploader.upload(LoggingServiceV2Grpc.newBlockingStub(mChannel)), is(1));
+        assertThat(mService.requests.size(), is(1));
+    }
+
+    private static class FakeLoggingService extends LoggingServiceV2Grpc.LoggingServiceV2ImplBase {
+
+        final List<WriteLogEntriesRequest> requests =
+                Collections.synchronizedList(new ArrayList<WriteLogEntriesRequest>());
+
+        volatile int failures;
+
+        @Override
+        public void writeLogEntries(WriteLogEntriesRequest request,
+                StreamObserver<WriteLogEntriesResponse> responseObserver) {
+            if (failures > 0) {
+                failures--;
+                responseObserver.onError(Status.UNAVAILABLE.asRuntimeException());
+                return;
+            }
+            requests.add(request);
+            responseObserver.onNext(WriteLogEntriesResponse.getDefaultInstance());
+            responseObserver.onCompleted();
+        }
+
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import com.google.cloud.speech.v1.SpeechRecognitionAlternative;
+import com.google.cloud.speech.v1.StreamingRecognitionResult;
+import com.google.cloud.speech.v1.StreamingRecognizeResponse;
+
+import org.junit.Test;
+
+
+public class TranscriptAssemblerTest {
+
+    private final TranscriptAssembler mAssembler = new TranscriptAssembler();
+
+    @Test
+    public void update_combinesResults() {
+        assertThat(mAssembler.update(response(result("to be", 0.9f), result(" or", 0.1f)))
+                .toString(), is("-0 +\"to be\" ~\" or\""));
+        assertThat(mAssembler.update(response(result("to be or", 0.9f), result(" not", 0.1f)))
+                .toString(), is("-0 +\" or\" ~\" not\""));
+    }
+
+    @Test
+    public void update_retractsRevisedStableText() {
+        mAssembler.update(response(result("two bee", 0.9f)));
+        assertThat(mAssembler.update(response(result("to be", 0.9f))).toString(),
+                is("-6 +\"o be\" ~\"\""));
+    }
+
+    @Test
+    public void update_finalStartsNewUtterance() {
+        mAssembler.update(response(result("hello", 0.9f), result(" word", 0.1f)));
+        assertThat(mAssembler.update(response(finalResult("hello world"))).toString(),
+                is("-0 +\" world\" ~\"\" final"));
+        assertThat(mAssembler.update(response(result("next", 0.1f))).toString(),
+                is("-0 +\"\" ~\"next\""));
+    }
+
+    @Test
+    public void update_noResults() {
+        assertThat(mAssembler.update(StreamingRecognizeResponse.getDefaultInstance()),
+                is(nullValue()));
+    }
+
+    @Test
+    public void abandon() {
+        assertThat(mAssembler.abandon(), is(nullValue()));
+        mAssembler.update(response(result("hello", 0.9f), result(" word", 0.1f)));
+        assertThat(mAssembler.abandon().toString(), is("-5 +\"\" ~\"\""));
+        assertThat(mAssembler.abandon(), is(nullValue()));
+    }
+
+    @Test
+    public void merge() {
+        final TranscriptDelta first = new TranscriptDelta(1, "abc", "x", false);
+        assertThat(first.merge(new TranscriptDelta(2, "d", "y", false)).toString(),
+                is("-1 +\"ad\" ~\"y\""));
+        assertThat(first.merge(new TranscriptDelta(5, "", "", true)).toString(),
+                is("-3 +\"\" ~\"\" final"));
+    }
+
+    private static StreamingRecognizeResponse response(StreamingRecognitionResult... results) {
+        final StreamingRecognizeResponse.Builder builder = StreamingRecognizeResponse.newBuilder();
+        for (StreamingRecognitionResult result : results) {
+            builder.addResults(result);
+        }
+        return builder.build();
+    }
+
+    private static StreamingRecognitionResult result(String transcript, float stability) {
+        return StreamingRecognitionResult.newBuilder()
+                .addAlternatives(SpeechRecognitionAlternative.newBuilder()
+                        .setTranscript(transcript))
+                .setStability(stability)
+                .build();
+    }
+
+    private static StreamingRecognitionResult finalResult(String transcript) {
+        return StreamingRecognitionResult.newBuilder()
+                .addAlternatives(SpeechRecognitionAlternative.newBuilder()
+                        .setTranscript(transcript))
+                .setIsFinal(true)
+                .build();
+    }
+
+}
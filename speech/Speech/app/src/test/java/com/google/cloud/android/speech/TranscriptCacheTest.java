@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+
+public class TranscriptCacheTest {
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void key_dependsOnAudioAndConfig() {
+        final String key = TranscriptCache.key(new byte[]{1}, new byte[]{2});
+        assertThat(key.length(), is(64));
+        assertThat(TranscriptCache.key(new byte[]{1}, new byte[]{2}), is(key));
+        assertThat(TranscriptCache.key(new byte[]{1}, new byte[]{3}), is(not(key)));
+        assertThat(TranscriptCache.key(new byte[]{4}, new byte[]{2}), is(not(key)));
+    }
+
+    @Test
+    public void digestAndRewind_leavesStreamWhereItWas() throws IOException {
+        final byte[] data = {1, 2, 3, 4, 5};
+        final ByteArrayInputStream input = new ByteArrayInputStream(data);
+        assertThat(input.read(), is(1));
+        final byte[] digest = TranscriptCache.digestAndRewind(input);
+        assertThat(input.read(), is(2));
+        final MessageDigest expected = TranscriptCache.newDigest();
+        expected.update(data, 1, 4);
+        assertThat(digest, is(expected.digest()));
+    }
+
+    @Test
+    public void put_survivesRestart() throws IOException {
+        final File directory = mFolder.newFolder();
+        new TranscriptCache(directory, 4, 1024).put("a", Arrays.asList("hello", "world"));
+        final TranscriptCache cache = new TranscriptCache(directory, 4, 1024);
+        assertThat(cache.get("a"), is(Arrays.asList("hello", "world")));
+        assertThat(cache.get("b"), is(nullValue()));
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedFromDisk() throws IOException {
+        final File directory = mFolder.newFolder();
+        // Each entry takes 4 + 2 + 100 bytes.
+        final TranscriptCache cache = new TranscriptCache(directory, 1, 250);
+        cache.put("a", Arrays.asList(text(100)));
+        new File(directory, "a").setLastModified(1000);
+        cache.put("b", Arrays.asList(text(100)));
+        new File(directory, "b").setLastModified(2000);
+        cache.put("c", Arrays.asList(text(100)));
+        assertThat(new File(directory, "a").exists(), is(false));
+        assertThat(new File(directory, "b").exists(), is(true));
+        assertThat(cache.get("a"), is(nullValue()));
+        assertThat(cache.get("b"), is(not(nullValue())));
+    }
+
+    private static String text(int length) {
+        final char[] chars = new char[length];
+        Arrays.fill(chars, 'x');
+        return new String(chars);
+    }
+
+}
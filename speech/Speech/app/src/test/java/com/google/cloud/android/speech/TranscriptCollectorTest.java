@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+
+
+public class TranscriptCollectorTest {
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private TranscriptCache mCache;
+
+    private TranscriptCollector mCollector;
+
+    @Before
+    public void setUp() throws Exception {
+        mCache = new TranscriptCache(mFolder.newFolder(), 4, 1024);
+        mCollector = new TranscriptCollector(mCache);
+    }
+
+    @Test
+    public void storesInStreamOrderWhenAllAreDone() throws Exception {
+        final int first = mCollector.addStream();
+        final int second = mCollector.addStream();
+        mCollector.add(second, "c");
+        mCollector.add(first, "a");
+        mCollector.add(first, "b");
+        mCollector.onStreamDone(true);
+        mCollector.onReadingDone("key");
+        assertThat(mCache.get("key"), is(nullValue()));
+        mCollector.onStreamDone(true);
+        assertThat(mCache.get("key"), is(Arrays.asList("a", "b", "c")));
+    }
+
+    @Test
+    public void waitsForTheKey() throws Exception {
+        mCollector.add(mCollector.addStream(), "a");
+        mCollector.onStreamDone(true);
+        assertThat(mCache.get("key"), is(nullValue()));
+        mCollector.onReadingDone("key");
+        assertThat(mCache.get("key"), is(Arrays.asList("a")));
+    }
+
+    @Test
+    public void storesNothingIfAStreamFailed() throws Exception {
+        mCollector.add(mCollector.addStream(), "a");
+        mCollector.addStream();
+        mCollector.onStreamDone(false);
+        mCollector.onStreamDone(true);
+        mCollector.onReadingDone("key");
+        assertThat(mCache.get("key"), is(nullValue()));
+    }
+
+}
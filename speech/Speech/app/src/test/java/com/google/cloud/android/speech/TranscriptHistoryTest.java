@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+
+public class TranscriptHistoryTest {
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void of_sharesTheLogOfADirectory() throws Exception {
+        final File directory = mFolder.newFolder();
+        final TranscriptHistory history = TranscriptHistory.of(directory);
+        assertThat(TranscriptHistory.of(new File(directory.getPath())), is(sameInstance(history)));
+        assertThat(TranscriptHistory.of(mFolder.newFolder()), is(not(sameInstance(history))));
+    }
+
+    @Test
+    public void appendsFromTwoUsers_areAllKept() throws Exception {
+        // Like an activity and the one that replaces it on rotation.
+        final File directory = mFolder.newFolder();
+        append(TranscriptHistory.of(directory), "hello");
+        append(TranscriptHistory.of(directory), "world");
+        final TranscriptHistory history = TranscriptHistory.of(directory);
+        assertThat(run(history, new Callable<Object>() {
+            @Override
+            public Object call() throws IOException {
+                return history.log().read(0, 10);
+            }
+        }), is((Object) Arrays.asList("hello", "world")));
+    }
+
+    private static void append(final TranscriptHistory history, final String transcript)
+            throws Exception {
+        run(history, new Callable<Object>() {
+            @Override
+            public Object call() throws IOException {
+                return history.log().append(transcript);
+            }
+        });
+    }
+
+    private static Object run(TranscriptHistory history, Callable<Object> task)
+            throws Exception {
+        final FutureTask<Object> future = new FutureTask<>(task);
+        history.execute(future);
+        return future.get(5, TimeUnit.SECONDS);
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+
+
+public class TranscriptLogTest {
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void append_readRange() throws IOException {
+        final TranscriptLog log = new TranscriptLog(mFolder.newFolder());
+        assertThat(log.append("hello"), is(0));
+        assertThat(log.append("\u3053\u3093\u306b\u3061\u306f"), is(1));
+        assertThat(log.append(""), is(2));
+        assertThat(log.append("world"), is(3));
+        assertThat(log.size(), is(4));
+        assertThat(log.read(1, 2), is(Arrays.asList("\u3053\u3093\u306b\u3061\u306f", "")));
+        assertThat(log.read(2, 10), is(Arrays.asList("", "world")));
+        assertThat(log.read(4, 10), is(Collections.<String>emptyList()));
+        log.close();
+    }
+
+    @Test
+    public void append_survivesRestart() throws IOException {
+        final File directory = mFolder.newFolder();
+        TranscriptLog log = new TranscriptLog(directory);
+        log.append("hello");
+        log.close();
+        log = new TranscriptLog(directory);
+        assertThat(log.append("world"), is(1));
+        assertThat(log.read(0, 2), is(Arrays.asList("hello", "world")));
+        log.close();
+    }
+
+    @Test
+    public void open_dropsTornTail() throws IOException {
+        final File directory = mFolder.newFolder();
+        TranscriptLog log = new TranscriptLog(directory);
+        log.append("hello");
+        log.append("world");
+        log.close();
+        // The last transcript was not written completely, and neither was a third offset.
+        truncate(new File(directory, "transcripts.dat"), 9 + 4 + 2);
+        final RandomAccessFile index = new RandomAccessFile(new File(directory, "transcripts.idx"),
+                "rw");
+        index.seek(16);
+        index.write(new byte[]{0, 0, 0});
+        index.close();
+        log = new TranscriptLog(directory);
+        assertThat(log.size(), is(1));
+        assertThat(log.append("again"), is(1));
+        assertThat(log.read(0, 2), is(Arrays.asList("hello", "again")));
+        log.close();
+    }
+
+    @Test
+    public void twoLogsOnTheSameDirectory_loseTranscripts() throws IOException {
+        // What a recreated activity did when it opened the history before the old one closed it.
+        // Each log appends at the end it read on open, so they write over each other.
+        final File directory = mFolder.newFolder();
+        final TranscriptLog first = new TranscriptLog(directory);
+        final TranscriptLog second = new TranscriptLog(directory);
+        first.append("hello");
+        second.append("world");
+        first.close();
+        second.close();
+        final TranscriptLog log = new TranscriptLog(directory);
+        assertThat(log.size(), is(1));
+        assertThat(log.read(0, 2), is(Arrays.asList("world")));
+        log.close();
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        final RandomAccessFile data = new RandomAccessFile(file, "rw");
+        data.setLength(length);
+        data.close();
+    }
+
+}
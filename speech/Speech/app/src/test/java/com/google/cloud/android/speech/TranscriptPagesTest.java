@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+
+public class TranscriptPagesTest {
+
+    @Test
+    public void get_afterLoaded() {
+        final TranscriptPages pages = new TranscriptPages(2, 2);
+        assertThat(pages.get(3), is(nullValue()));
+        assertThat(pages.startLoading(1), is(true));
+        assertThat(pages.startLoading(1), is(false));
+        assertThat(pages.onLoaded(1, Arrays.asList("c", "d")), is(true));
+        assertThat(pages.startLoading(1), is(false));
+        assertThat(pages.get(2), is("c"));
+        assertThat(pages.get(3), is("d"));
+    }
+
+    @Test
+    public void onLoaded_evictsLeastRecentlyUsed() {
+        final TranscriptPages pages = new TranscriptPages(2, 2);
+        for (int page = 0; page < 2; page++) {
+            pages.startLoading(page);
+            pages.onLoaded(page, Arrays.asList("x", "y"));
+        }
+        pages.get(0);
+        pages.startLoading(2);
+        pages.onLoaded(2, Arrays.asList("z"));
+        assertThat(pages.get(0), is("x"));
+        assertThat(pages.get(2), is(nullValue()));
+        assertThat(pages.get(4), is("z"));
+    }
+
+    @Test
+    public void onAppended_extendsLoadedPages() {
+        final TranscriptPages pages = new TranscriptPages(2, 2);
+        pages.startLoading(0);
+        pages.onLoaded(0, Arrays.asList("a"));
+        pages.onAppended(1, "b");
+        pages.onAppended(2, "c");
+        assertThat(pages.get(1), is("b"));
+        assertThat(pages.get(2), is("c"));
+    }
+
+    @Test
+    public void onAppended_whileLoading() {
+        final TranscriptPages pages = new TranscriptPages(2, 2);
+        pages.startLoading(0);
+        pages.onAppended(1, "b");
+        // The page was read before "b" was written.
+        assertThat(pages.onLoaded(0, Arrays.asList("a")), is(false));
+        assertThat(pages.get(0), is(nullValue()));
+        assertThat(pages.startLoading(0), is(true));
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * The processing stages between the microphone and the network. Each operation processes 100 ms
+ * of audio. New stages should be added here.
+ */
+@State(Scope.Thread)
+public class AudioProcessingBenchmark {
+
+    private byte[] mAudio16k;
+
+    private byte[] mAudio48k;
+
+    private AudioResampler mResampler;
+
+    private byte[] mResampled;
+
+    private FlacEncoder mEncoder;
+
+    @Setup
+    public void setUp() {
+        mAudio16k = Signals.toLinear16(Signals.voice(16000, 100));
+        mAudio48k = Signals.toLinear16(Signals.voice(48000, 100));
+        mResampler = new AudioResampler(1, 48000, 16000);
+        mResampled = new byte[mResampler.getMaxOutputSize(mAudio48k.length)];
+        mEncoder = new FlacEncoder(16000);
+    }
+
+    @Benchmark
+    public int resample48kTo16k() {
+        return mResampler.process(mAudio48k, mAudio48k.length, mResampled);
+    }
+
+    @Benchmark
+    public int encodeFlac() {
+        mEncoder.encode(mAudio16k, mAudio16k.length);
+        final int size = mEncoder.getOutputSize();
+        mEncoder.clearOutput();
+        return size;
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+/**
+ * Converting the samples read from {@code AudioRecord} as shorts to LINEAR16 bytes. Each
+ * operation converts 100 ms of audio at 16 kHz.
+ */
+@State(Scope.Thread)
+public class PcmConversionBenchmark {
+
+    private short[] mSamples;
+
+    private byte[] mOutput;
+
+    @Setup
+    public void setUp() {
+        mSamples = Signals.voice(16000, 100);
+        mOutput = new byte[mSamples.length * 2];
+    }
+
+    /**
+     * The same as {@code VoiceRecorder.short2byte} in MyApplication, which cannot be compiled
+     * here because the class depends on Android.
+     */
+    @Benchmark
+    public byte[] short2byte() {
+        final ByteBuffer buffer = ByteBuffer.allocate(mSamples.length * 2);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asShortBuffer().put(mSamples);
+        return buffer.array();
+    }
+
+    /**
+     * Converting into a buffer that is reused, as the Speech app does by reading bytes into
+     * pooled buffers.
+     */
+    @Benchmark
+    public byte[] shiftIntoReusedBuffer() {
+        final short[] samples = mSamples;
+        final byte[] output = mOutput;
+        for (int i = 0; i < samples.length; i++) {
+            output[i * 2] = (byte) samples[i];
+            output[i * 2 + 1] = (byte) (samples[i] >> 8);
+        }
+        return output;
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import java.util.Random;
+
+
+/**
+ * Generates audio for the benchmarks.
+ */
+final class Signals {
+
+    private Signals() {
+    }
+
+    /**
+     * @return A 220 Hz tone with harmonics and some noise, loud enough to be taken as voice.
+     */
+    static short[] voice(int sampleRate, int millis) {
+        final Random random = new Random(1);
+        final short[] samples = new short[sampleRate * millis / 1000];
+        for (int i = 0; i < samples.length; i++) {
+            final double t = 2 * Math.PI * 220 * i / sampleRate;
+            final double s = 6000 * Math.sin(t) + 3000 * Math.sin(2 * t) + 1500 * Math.sin(3 * t)
+                    + 500 * random.nextGaussian();
+            samples[i] = (short) s;
+        }
+        return samples;
+    }
+
+    /**
+     * @return Quiet background noise.
+     */
+    static short[] silence(int sampleRate, int millis) {
+        final Random random = new Random(2);
+        final short[] samples = new short[sampleRate * millis / 1000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (50 * random.nextGaussian());
+        }
+        return samples;
+    }
+
+    /**
+     * @return The samples in LINEAR16 (little endian).
+     */
+    static byte[] toLinear16(short[] samples) {
+        final byte[] bytes = new byte[samples.length * 2];
+        for (int i = 0; i < samples.length; i++) {
+            bytes[i * 2] = (byte) samples[i];
+            bytes[i * 2 + 1] = (byte) (samples[i] >> 8);
+        }
+        return bytes;
+    }
+
+}
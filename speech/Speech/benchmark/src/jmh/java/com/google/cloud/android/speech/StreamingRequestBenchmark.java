@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import com.google.cloud.speech.v1.StreamingRecognizeRequest;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Wrapping recorded audio into a {@link StreamingRecognizeRequest}, as
+ * {@code SpeechService.recognize} does for every buffer. Each operation handles 100 ms of audio at
+ * 16 kHz.
+ */
+@State(Scope.Thread)
+public class StreamingRequestBenchmark {
+
+    private static final long DURATION_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private byte[] mAudio;
+
+    private StreamingRecognizeRequest mRequest;
+
+    private AudioSendQueue mQueue;
+
+    private final RequestSink mSink = new RequestSink();
+
+    @Setup
+    public void setUp() {
+        mAudio = Signals.toLinear16(Signals.voice(16000, 100));
+        mRequest = StreamingRequests.audioRequest(ByteString.copyFrom(mAudio));
+        mQueue = new AudioSendQueue(mSink, DURATION_NANOS);
+    }
+
+    @Benchmark
+    public ByteString copyFrom() {
+        return ByteString.copyFrom(mAudio, 0, mAudio.length);
+    }
+
+    /**
+     * Used by {@link AudioSendQueue} when the audio can be sent before the buffer is reused.
+     */
+    @Benchmark
+    public ByteString unsafeWrap() {
+        return UnsafeByteOperations.unsafeWrap(ByteBuffer.wrap(mAudio, 0, mAudio.length));
+    }
+
+    @Benchmark
+    public StreamingRecognizeRequest audioRequest() {
+        return StreamingRequests.audioRequest(
+                UnsafeByteOperations.unsafeWrap(ByteBuffer.wrap(mAudio, 0, mAudio.length)));
+    }
+
+    /**
+     * What gRPC does with the request before sending it.
+     */
+    @Benchmark
+    public byte[] serializeRequest() {
+        return mRequest.toByteArray();
+    }
+
+    /**
+     * The audio is sent as it is put while the transport is ready, without being copied.
+     */
+    @Benchmark
+    public int sendWhenReady() throws InterruptedException {
+        mSink.ready = true;
+        mQueue.put(mAudio, mAudio.length, DURATION_NANOS, 0, false, false);
+        return mSink.serializedBytes;
+    }
+
+    /**
+     * The audio is copied into the queue while the transport is busy, and drained when it is
+     * ready again.
+     */
+    @Benchmark
+    public int sendWhenBusy() throws InterruptedException {
+        mSink.ready = false;
+        mQueue.put(mAudio, mAudio.length, DURATION_NANOS, 0, false, false);
+        mSink.ready = true;
+        mQueue.onReady();
+        return mSink.serializedBytes;
+    }
+
+    /**
+     * Builds and serializes the requests as the call would.
+     */
+    private static class RequestSink implements AudioSendQueue.Sink {
+
+        boolean ready;
+
+        int serializedBytes;
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void send(ByteString audio, long captureNanos) {
+            serializedBytes = StreamingRequests.audioRequest(audio).toByteArray().length;
+        }
+
+        @Override
+        public void finish() {
+        }
+
+        @Override
+        public void onDropped(long durationNanos) {
+        }
+
+    }
+
+}
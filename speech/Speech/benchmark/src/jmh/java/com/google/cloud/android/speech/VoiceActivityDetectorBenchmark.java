@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.android.speech;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * {@link RmsVoiceActivityDetector#isHearingVoice(byte[], int)}, which runs for every buffer
+ * recorded. Each operation processes 100 ms of audio.
+ */
+@State(Scope.Thread)
+public class VoiceActivityDetectorBenchmark {
+
+    @Param({"16000", "48000"})
+    public int sampleRate;
+
+    @Param({"voice", "silence"})
+    public String signal;
+
+    private RmsVoiceActivityDetector mDetector;
+
+    private byte[] mBuffer;
+
+    @Setup
+    public void setUp() {
+        mDetector = new RmsVoiceActivityDetector();
+        mDetector.reset(sampleRate, 1);
+        mBuffer = Signals.toLinear16(signal.equals("voice")
+                ? Signals.voice(sampleRate, 100) : Signals.silence(sampleRate, 100));
+    }
+
+    @Benchmark
+    public boolean isHearingVoice() {
+        return mDetector.isHearingVoice(mBuffer, mBuffer.length);
+    }
+
+}